@@ -1,11 +1,13 @@
 package com.github.tamir7.contacts;
 
+import android.os.Parcel;
+import android.os.Parcelable;
 import android.provider.ContactsContract;
 
 /**
  * Represents an Address
  */
-public class Address {
+public class Address implements Parcelable {
     private final String formattedAddress;
     private final Type type;
     private final String street;
@@ -37,6 +39,21 @@ public class Address {
                     return UNKNOWN;
             }
         }
+
+        int toValue() {
+            switch (this) {
+                case CUSTOM:
+                    return ContactsContract.CommonDataKinds.StructuredPostal.TYPE_CUSTOM;
+                case HOME:
+                    return ContactsContract.CommonDataKinds.StructuredPostal.TYPE_HOME;
+                case WORK:
+                    return ContactsContract.CommonDataKinds.StructuredPostal.TYPE_WORK;
+                case OTHER:
+                    return ContactsContract.CommonDataKinds.StructuredPostal.TYPE_OTHER;
+                default:
+                    return ContactsContract.CommonDataKinds.StructuredPostal.TYPE_OTHER;
+            }
+        }
     }
 
     private Address(String address,
@@ -47,6 +64,10 @@ public class Address {
                     String country,
                     Type type,
                     String label) {
+        if (type == null) {
+            throw new IllegalArgumentException("Address type must not be null");
+        }
+
         this.formattedAddress = address;
         this.street = street;
         this.city = city;
@@ -57,23 +78,46 @@ public class Address {
         this.label = label;
     }
 
-    Address(String address,
-            String street,
-            String city,
-            String region,
-            String postcode,
-            String country,
-            Type type) {
+    /**
+     * Creates an address of a predefined type.
+     *
+     * @param address   The formatted address.
+     * @param street    The street, or null.
+     * @param city      The city, or null.
+     * @param region    The region, or null.
+     * @param postcode  The post code, or null.
+     * @param country   The country, or null.
+     * @param type      The type of the address.
+     * @throws IllegalArgumentException if the type is null.
+     */
+    public Address(String address,
+                   String street,
+                   String city,
+                   String region,
+                   String postcode,
+                   String country,
+                   Type type) {
         this(address, street, city, region, postcode, country, type, null);
     }
 
-    Address(String address,
-            String street,
-            String city,
-            String region,
-            String postcode,
-            String country,
-            String label) {
+    /**
+     * Creates an address of type CUSTOM with the given label.
+     *
+     * @param address   The formatted address.
+     * @param street    The street, or null.
+     * @param city      The city, or null.
+     * @param region    The region, or null.
+     * @param postcode  The post code, or null.
+     * @param country   The country, or null.
+     * @param label     The custom label.
+     */
+    public Address(String address,
+                   String street,
+                   String city,
+                   String region,
+                   String postcode,
+                   String country,
+                   String label) {
         this(address, street, city, region, postcode, country, Type.CUSTOM, label);
     }
 
@@ -149,4 +193,68 @@ public class Address {
         return label;
     }
 
+    static Address create(String address, String street, String city, String region, String postcode,
+                          String country, Type type, String label) {
+        return new Address(address, street, city, region, postcode, country, type, label);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeString(formattedAddress);
+        dest.writeString(street);
+        dest.writeString(city);
+        dest.writeString(region);
+        dest.writeString(postcode);
+        dest.writeString(country);
+        dest.writeInt(type.ordinal());
+        dest.writeString(label);
+    }
+
+    public static final Creator<Address> CREATOR = new Creator<Address>() {
+        @Override
+        public Address createFromParcel(Parcel source) {
+            return new Address(source.readString(), source.readString(), source.readString(),
+                    source.readString(), source.readString(), source.readString(),
+                    Type.values()[source.readInt()], source.readString());
+        }
+
+        @Override
+        public Address[] newArray(int size) {
+            return new Address[size];
+        }
+    };
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        Address that = (Address) o;
+
+        return equals(formattedAddress, that.formattedAddress) && type == that.type &&
+                equals(street, that.street) && equals(city, that.city) && equals(region, that.region) &&
+                equals(postcode, that.postcode) && equals(country, that.country) && equals(label, that.label);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = formattedAddress != null ? formattedAddress.hashCode() : 0;
+        result = 31 * result + type.hashCode();
+        result = 31 * result + (street != null ? street.hashCode() : 0);
+        result = 31 * result + (city != null ? city.hashCode() : 0);
+        result = 31 * result + (region != null ? region.hashCode() : 0);
+        result = 31 * result + (postcode != null ? postcode.hashCode() : 0);
+        result = 31 * result + (country != null ? country.hashCode() : 0);
+        result = 31 * result + (label != null ? label.hashCode() : 0);
+        return result;
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
 }
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A thread safe LRU cache bounded by the total size of its entries.
+ * By default every entry has a size of 1, so the bound is an entry count.
+ * Override {@link #sizeOf(Object, Object)} to bound by another measure, such as bytes,
+ * optionally together with a maximal entry count.
+ */
+class BoundedCache<K, V> {
+    private final LinkedHashMap<K, V> map = new LinkedHashMap<>(16, 0.75f, true);
+    private final long maxSize;
+    private final int maxCount;
+    private long size = 0;
+    private long hitCount = 0;
+    private long missCount = 0;
+    private long evictionCount = 0;
+
+    BoundedCache(long maxSize) {
+        this(maxSize, Integer.MAX_VALUE);
+    }
+
+    BoundedCache(long maxSize, int maxCount) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive");
+        }
+
+        if (maxCount <= 0) {
+            throw new IllegalArgumentException("maxCount must be positive");
+        }
+
+        this.maxSize = maxSize;
+        this.maxCount = maxCount;
+    }
+
+    synchronized V get(K key) {
+        V value = map.get(key);
+        if (value == null) {
+            missCount++;
+        } else {
+            hitCount++;
+        }
+
+        return value;
+    }
+
+    synchronized void put(K key, V value) {
+        long valueSize = sizeOf(key, value);
+        if (valueSize > maxSize) {
+            // would evict everything else and still not fit.
+            remove(key);
+            return;
+        }
+
+        V previous = map.put(key, value);
+        size += valueSize;
+        if (previous != null) {
+            size -= sizeOf(key, previous);
+        }
+
+        trimToSize(maxSize);
+    }
+
+    synchronized V remove(K key) {
+        V previous = map.remove(key);
+        if (previous != null) {
+            size -= sizeOf(key, previous);
+        }
+
+        return previous;
+    }
+
+    synchronized void evictAll() {
+        map.clear();
+        size = 0;
+    }
+
+    synchronized long size() {
+        return size;
+    }
+
+    synchronized int count() {
+        return map.size();
+    }
+
+    synchronized long hitCount() {
+        return hitCount;
+    }
+
+    synchronized long missCount() {
+        return missCount;
+    }
+
+    synchronized long evictionCount() {
+        return evictionCount;
+    }
+
+    long maxSize() {
+        return maxSize;
+    }
+
+    long sizeOf(K key, V value) {
+        return 1;
+    }
+
+    private void trimToSize(long targetSize) {
+        Iterator<Map.Entry<K, V>> iterator = map.entrySet().iterator();
+        while ((size > targetSize || map.size() > maxCount) && iterator.hasNext()) {
+            Map.Entry<K, V> eldest = iterator.next();
+            size -= sizeOf(eldest.getKey(), eldest.getValue());
+            iterator.remove();
+            evictionCount++;
+        }
+    }
+}
@@ -0,0 +1,401 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import android.provider.ContactsContract;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A composable boolean condition over contact fields, used with {@link Query#where(Condition)}.
+ *
+ * A contact satisfies a condition on a field if any of its values of that field does.
+ * Conditions on fields of the same type combined with {@link #and(Condition...)} must be satisfied by
+ * the same value, for example the same phone number, like the where* functions of Query.
+ * Nested ANDs are merged, so this holds however the conditions are grouped.
+ * {@link #not(Condition)} matches the contacts that do not satisfy the condition.
+ */
+public abstract class Condition {
+    private Condition() {}
+
+    /**
+     * A condition on values that equal the provided value.
+     *
+     * @param field     The field that the value to match is stored in.
+     * @param value     The value that the field value must be equal to.
+     * @return          A new condition.
+     */
+    public static Condition equalTo(Contact.Field field, Object value) {
+        return new Leaf(field.getMimeType(), Where.equalTo(field.getColumn(), value));
+    }
+
+    /**
+     * A condition on values that do NOT equal the provided value.
+     *
+     * @param field     The field that the value to match is stored in.
+     * @param value     The value that the field value must be NOT equal to.
+     * @return          A new condition.
+     */
+    public static Condition notEqualTo(Contact.Field field, Object value) {
+        return new Leaf(field.getMimeType(), Where.notEqualTo(field.getColumn(), value));
+    }
+
+    /**
+     * A condition on values that equal one of the provided values.
+     *
+     * @param field     The field that the value to match is stored in.
+     * @param values    The values that the field value must be one of.
+     * @return          A new condition.
+     */
+    public static Condition in(Contact.Field field, Collection<?> values) {
+        return new Leaf(field.getMimeType(), Where.in(field.getColumn(), new ArrayList<>(values)));
+    }
+
+    /**
+     * A condition on values that equal none of the provided values.
+     *
+     * @param field     The field that the value to match is stored in.
+     * @param values    The values that the field value must NOT be one of.
+     * @return          A new condition.
+     */
+    public static Condition notIn(Contact.Field field, Collection<?> values) {
+        return new Leaf(field.getMimeType(), Where.notIn(field.getColumn(), new ArrayList<>(values)));
+    }
+
+    /**
+     * A condition on string values that contain the provided string.
+     *
+     * @param field     The field that the string to match is stored in.
+     * @param value     The substring that the value must contain.
+     * @return          A new condition.
+     */
+    public static Condition contains(Contact.Field field, Object value) {
+        return new Leaf(field.getMimeType(), Where.contains(field.getColumn(), value));
+    }
+
+    /**
+     * A condition on string values that start with the provided string.
+     *
+     * @param field     The field that the string to match is stored in.
+     * @param value     The substring that the value must start with.
+     * @return          A new condition.
+     */
+    public static Condition startsWith(Contact.Field field, Object value) {
+        return new Leaf(field.getMimeType(), Where.startsWith(field.getColumn(), value));
+    }
+
+    /**
+     * A condition on contacts that are members of the given group.
+     *
+     * @param groupId   The id of the group, as in ContactsContract.Groups._ID.
+     * @return          A new condition.
+     */
+    public static Condition inGroup(long groupId) {
+        return new Leaf(ContactsContract.CommonDataKinds.GroupMembership.CONTENT_ITEM_TYPE,
+                Where.equalTo(ContactsContract.CommonDataKinds.GroupMembership.GROUP_ROW_ID, groupId));
+    }
+
+    /**
+     * A condition satisfied by contacts that satisfy all of the given conditions.
+     *
+     * @param conditions    The conditions to 'and' together.
+     * @return              A new condition.
+     */
+    public static Condition and(Condition... conditions) {
+        return new And(Arrays.asList(conditions));
+    }
+
+    /**
+     * A condition satisfied by contacts that satisfy any of the given conditions.
+     *
+     * @param conditions    The conditions to 'or' together.
+     * @return              A new condition.
+     */
+    public static Condition or(Condition... conditions) {
+        return new Or(Arrays.asList(conditions));
+    }
+
+    /**
+     * A condition satisfied by contacts that do not satisfy the given condition.
+     *
+     * @param condition     The condition to negate.
+     * @return              A new condition.
+     */
+    public static Condition not(Condition condition) {
+        return new Not(condition);
+    }
+
+    static Condition contactLevel(Where where) {
+        return new Leaf(null, where);
+    }
+
+    static Condition and(Condition condition, Condition otherCondition) {
+        return condition == null ? otherCondition : and(new Condition[]{condition, otherCondition});
+    }
+
+    /**
+     * The MIME types of the data rows this condition is evaluated on.
+     * Empty if the condition only refers to contact level columns, which every data row has.
+     */
+    abstract Set<String> getMimeTypes();
+
+    /**
+     * Whether this condition can be evaluated on single data rows, and so executed as one selection.
+     */
+    abstract boolean isPushable();
+
+    /**
+     * Renders this condition as a selection on data rows. Only valid if {@link #isPushable()}.
+     */
+    abstract Where toWhere();
+
+    /**
+     * Renders this condition so that conditions which only differ in the order of the children of their
+     * ANDs and ORs render the same. Used to identify equal queries, not as a selection.
+     */
+    abstract String toCanonicalString();
+
+    /**
+     * Gets a readable representation of the condition, as selections on data rows
+     * combined with the operators of the condition.
+     *
+     * @return the condition as SQL.
+     */
+    @Override
+    public String toString() {
+        return toWhere().toString();
+    }
+
+    boolean isContactLevel() {
+        return isPushable() && getMimeTypes().isEmpty();
+    }
+
+    static final class Leaf extends Condition {
+        private final String mimeType;
+        private final Where where;
+
+        Leaf(String mimeType, Where where) {
+            this.mimeType = mimeType;
+            this.where = where;
+        }
+
+        @Override
+        Set<String> getMimeTypes() {
+            return mimeType == null ? Collections.<String>emptySet() : Collections.singleton(mimeType);
+        }
+
+        @Override
+        boolean isPushable() {
+            return true;
+        }
+
+        @Override
+        Where toWhere() {
+            return mimeType == null ? where :
+                    Where.equalTo(ContactsContract.Data.MIMETYPE, mimeType).and(where);
+        }
+
+        @Override
+        String toCanonicalString() {
+            return toWhere().toString();
+        }
+    }
+
+    abstract static class Composite extends Condition {
+        final List<Condition> children;
+        private final Set<String> mimeTypes = new HashSet<>();
+
+        Composite(List<Condition> children) {
+            if (children.isEmpty()) {
+                throw new IllegalArgumentException("At least one condition is required");
+            }
+
+            this.children = new ArrayList<>(children);
+            for (Condition child : children) {
+                mimeTypes.addAll(child.getMimeTypes());
+            }
+        }
+
+        @Override
+        Set<String> getMimeTypes() {
+            return mimeTypes;
+        }
+
+        /**
+         * Renders the sorted canonical strings of the operands, each prefixed by its length.
+         * The children of nested composites of the same kind are operands of this one, and a single
+         * operand renders as itself, so the grouping of the conditions does not matter.
+         */
+        String toCanonicalString(String operator) {
+            List<String> operands = new ArrayList<>(children.size());
+            addCanonicalOperands(operands);
+            if (operands.size() == 1) {
+                return operands.get(0);
+            }
+
+            Collections.sort(operands);
+            StringBuilder canonical = new StringBuilder(operator).append('(');
+            for (String operand : operands) {
+                canonical.append(operand.length()).append(':').append(operand);
+            }
+
+            return canonical.append(')').toString();
+        }
+
+        private void addCanonicalOperands(List<String> operands) {
+            for (Condition child : children) {
+                if (child.getClass() == getClass()) {
+                    ((Composite) child).addCanonicalOperands(operands);
+                } else {
+                    operands.add(child.toCanonicalString());
+                }
+            }
+        }
+    }
+
+    static final class And extends Composite {
+        And(List<Condition> children) {
+            super(flatten(children));
+        }
+
+        /**
+         * Merges the children of nested ANDs, so that conditions on the same MIME type are grouped
+         * into one selection however the conditions were combined.
+         */
+        private static List<Condition> flatten(List<Condition> children) {
+            List<Condition> flat = new ArrayList<>(children.size());
+            for (Condition child : children) {
+                if (child instanceof And) {
+                    // the children of an AND are already flat.
+                    flat.addAll(((And) child).children);
+                } else {
+                    flat.add(child);
+                }
+            }
+
+            return flat;
+        }
+
+        /**
+         * Row level AND is only equivalent to contact level AND if at most one child depends on the
+         * data row type, or all children refer to the same single MIME type.
+         */
+        @Override
+        boolean isPushable() {
+            Set<String> rowMimeTypes = null;
+            for (Condition child : children) {
+                if (!child.isPushable()) {
+                    return false;
+                }
+
+                Set<String> childMimeTypes = child.getMimeTypes();
+                if (childMimeTypes.isEmpty()) {
+                    continue;
+                }
+
+                if (rowMimeTypes == null) {
+                    rowMimeTypes = childMimeTypes;
+                } else if (childMimeTypes.size() > 1 || !rowMimeTypes.equals(childMimeTypes)) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        @Override
+        Where toWhere() {
+            List<Where> wheres = new ArrayList<>(children.size());
+            for (Condition child : children) {
+                wheres.add(child.toWhere());
+            }
+
+            return Where.and(wheres);
+        }
+
+        @Override
+        String toCanonicalString() {
+            return toCanonicalString("AND");
+        }
+    }
+
+    static final class Or extends Composite {
+        Or(List<Condition> children) {
+            super(children);
+        }
+
+        @Override
+        boolean isPushable() {
+            for (Condition child : children) {
+                if (!child.isPushable()) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        @Override
+        Where toWhere() {
+            List<Where> wheres = new ArrayList<>(children.size());
+            for (Condition child : children) {
+                wheres.add(child.toWhere());
+            }
+
+            return Where.or(wheres);
+        }
+
+        @Override
+        String toCanonicalString() {
+            return toCanonicalString("OR");
+        }
+    }
+
+    static final class Not extends Condition {
+        final Condition child;
+
+        Not(Condition child) {
+            this.child = child;
+        }
+
+        @Override
+        Set<String> getMimeTypes() {
+            return child.getMimeTypes();
+        }
+
+        @Override
+        boolean isPushable() {
+            return child.isContactLevel();
+        }
+
+        @Override
+        Where toWhere() {
+            return child.toWhere().not();
+        }
+
+        @Override
+        String toCanonicalString() {
+            return "NOT(" + child.toCanonicalString() + ")";
+        }
+    }
+}
@@ -17,8 +17,14 @@
 package com.github.tamir7.contacts;
 
 import android.annotation.SuppressLint;
+import android.os.Parcel;
+import android.os.Parcelable;
 import android.provider.ContactsContract;
 
+import java.text.CollationKey;
+import java.text.Collator;
+import java.text.Normalizer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
@@ -27,11 +33,21 @@ import java.util.Set;
 /**
  * Represents a compound contact. aggregating all phones, email and photo's a contact has.
  */
-public final class Contact {
+public final class Contact implements Parcelable {
     private Long id;
     private String displayName;
     private String givenName;
     private String familyName;
+    private String middleName;
+    private String namePrefix;
+    private String nameSuffix;
+    private String phoneticGivenName;
+    private String phoneticMiddleName;
+    private String phoneticFamilyName;
+    private String nickname;
+    private String sortKey;
+    private transient volatile CollationKey collationKey;
+    private String section;
 
     private final Set<PhoneNumber> phoneNumbers = new HashSet<>();
     private String photoUri;
@@ -42,6 +58,11 @@ public final class Contact {
     private final Set<String> websites = new HashSet<>();
     private final Set<Address> addresses = new HashSet<>();
     private String note;
+    private boolean starred;
+    private int timesContacted;
+    private Long lastUpdated;
+    private transient long contentHash;
+    private transient boolean contentHashComputed = false;
 
     interface AbstractField {
         String getMimeType();
@@ -56,6 +77,21 @@ public final class Contact {
                 ContactsContract.CommonDataKinds.StructuredName.GIVEN_NAME),
         FamilyName(ContactsContract.CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE,
                 ContactsContract.CommonDataKinds.StructuredName.FAMILY_NAME),
+        MiddleName(ContactsContract.CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE,
+                ContactsContract.CommonDataKinds.StructuredName.MIDDLE_NAME),
+        NamePrefix(ContactsContract.CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE,
+                ContactsContract.CommonDataKinds.StructuredName.PREFIX),
+        NameSuffix(ContactsContract.CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE,
+                ContactsContract.CommonDataKinds.StructuredName.SUFFIX),
+        PhoneticGivenName(ContactsContract.CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE,
+                ContactsContract.CommonDataKinds.StructuredName.PHONETIC_GIVEN_NAME),
+        PhoneticMiddleName(ContactsContract.CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE,
+                ContactsContract.CommonDataKinds.StructuredName.PHONETIC_MIDDLE_NAME),
+        PhoneticFamilyName(ContactsContract.CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE,
+                ContactsContract.CommonDataKinds.StructuredName.PHONETIC_FAMILY_NAME),
+        Nickname(ContactsContract.CommonDataKinds.Nickname.CONTENT_ITEM_TYPE,
+                ContactsContract.CommonDataKinds.Nickname.NAME),
+        SortKey(null, ContactsContract.Data.SORT_KEY_PRIMARY),
         PhoneNumber(ContactsContract.CommonDataKinds.Phone.CONTENT_ITEM_TYPE,
                 ContactsContract.CommonDataKinds.Phone.NUMBER),
         PhoneType(ContactsContract.CommonDataKinds.Phone.CONTENT_ITEM_TYPE,
@@ -101,7 +137,11 @@ public final class Contact {
         AddressCountry(ContactsContract.CommonDataKinds.StructuredPostal.CONTENT_ITEM_TYPE,
                 ContactsContract.CommonDataKinds.StructuredPostal.COUNTRY),
         AddressLabel(ContactsContract.CommonDataKinds.StructuredPostal.CONTENT_ITEM_TYPE,
-                ContactsContract.CommonDataKinds.StructuredPostal.LABEL);
+                ContactsContract.CommonDataKinds.StructuredPostal.LABEL),
+        Starred(null, ContactsContract.Data.STARRED),
+        TimesContacted(null, ContactsContract.Data.TIMES_CONTACTED),
+        @SuppressLint("InlinedApi")
+        LastUpdated(null, ContactsContract.Data.CONTACT_LAST_UPDATED_TIMESTAMP);
 
         private final String column;
         private final String mimeType;
@@ -144,8 +184,251 @@ public final class Contact {
         }
     }
 
+    /**
+     * Builds Contact objects to be written with a {@link ContactEditor}.
+     */
+    public static final class Builder {
+        private final Contact contact;
+
+        /**
+         * Creates a builder for a new contact.
+         */
+        public Builder() {
+            contact = new Contact();
+        }
+
+        /**
+         * Creates a builder initialized with the values of an existing contact, including its id.
+         *
+         * @param contact The contact to copy.
+         */
+        public Builder(Contact contact) {
+            this.contact = new Contact(contact);
+        }
+
+        /**
+         * Sets the display name.
+         *
+         * @param displayName   Display name.
+         * @return this, so you can chain this call.
+         */
+        public Builder setDisplayName(String displayName) {
+            contact.addDisplayName(displayName);
+            return this;
+        }
+
+        /**
+         * Sets the given name.
+         *
+         * @param givenName     Given name.
+         * @return this, so you can chain this call.
+         */
+        public Builder setGivenName(String givenName) {
+            contact.addGivenName(givenName);
+            return this;
+        }
+
+        /**
+         * Sets the family name.
+         *
+         * @param familyName    Family name.
+         * @return this, so you can chain this call.
+         */
+        public Builder setFamilyName(String familyName) {
+            contact.addFamilyName(familyName);
+            return this;
+        }
+
+        /**
+         * Sets the middle name.
+         *
+         * @param middleName    Middle name.
+         * @return this, so you can chain this call.
+         */
+        public Builder setMiddleName(String middleName) {
+            contact.addMiddleName(middleName);
+            return this;
+        }
+
+        /**
+         * Sets the name prefix, for example "Dr".
+         *
+         * @param namePrefix    Name prefix.
+         * @return this, so you can chain this call.
+         */
+        public Builder setNamePrefix(String namePrefix) {
+            contact.addNamePrefix(namePrefix);
+            return this;
+        }
+
+        /**
+         * Sets the name suffix, for example "Jr".
+         *
+         * @param nameSuffix    Name suffix.
+         * @return this, so you can chain this call.
+         */
+        public Builder setNameSuffix(String nameSuffix) {
+            contact.addNameSuffix(nameSuffix);
+            return this;
+        }
+
+        /**
+         * Sets the phonetic names, as pronounced.
+         *
+         * @param given     Phonetic given name.
+         * @param middle    Phonetic middle name.
+         * @param family    Phonetic family name.
+         * @return this, so you can chain this call.
+         */
+        public Builder setPhoneticName(String given, String middle, String family) {
+            contact.addPhoneticGivenName(given);
+            contact.addPhoneticMiddleName(middle);
+            contact.addPhoneticFamilyName(family);
+            return this;
+        }
+
+        /**
+         * Sets the nickname.
+         *
+         * @param nickname      Nickname.
+         * @return this, so you can chain this call.
+         */
+        public Builder setNickname(String nickname) {
+            contact.addNickname(nickname);
+            return this;
+        }
+
+        /**
+         * Adds a phone number.
+         *
+         * @param phoneNumber   Phone number.
+         * @return this, so you can chain this call.
+         */
+        public Builder addPhoneNumber(PhoneNumber phoneNumber) {
+            contact.addPhoneNumber(phoneNumber);
+            return this;
+        }
+
+        /**
+         * Adds an email.
+         *
+         * @param email         Email.
+         * @return this, so you can chain this call.
+         */
+        public Builder addEmail(Email email) {
+            contact.addEmail(email);
+            return this;
+        }
+
+        /**
+         * Adds an event.
+         *
+         * @param event         Event.
+         * @return this, so you can chain this call.
+         */
+        public Builder addEvent(Event event) {
+            contact.addEvent(event);
+            return this;
+        }
+
+        /**
+         * Adds an address.
+         *
+         * @param address       Address.
+         * @return this, so you can chain this call.
+         */
+        public Builder addAddress(Address address) {
+            contact.addAddress(address);
+            return this;
+        }
+
+        /**
+         * Sets the company name.
+         *
+         * @param companyName   Company name.
+         * @return this, so you can chain this call.
+         */
+        public Builder setCompanyName(String companyName) {
+            contact.addCompanyName(companyName);
+            return this;
+        }
+
+        /**
+         * Sets the job title.
+         *
+         * @param companyTitle  Job title.
+         * @return this, so you can chain this call.
+         */
+        public Builder setCompanyTitle(String companyTitle) {
+            contact.addCompanyTitle(companyTitle);
+            return this;
+        }
+
+        /**
+         * Adds a website.
+         *
+         * @param website       Website url.
+         * @return this, so you can chain this call.
+         */
+        public Builder addWebsite(String website) {
+            contact.addWebsite(website);
+            return this;
+        }
+
+        /**
+         * Sets the note.
+         *
+         * @param note          Note.
+         * @return this, so you can chain this call.
+         */
+        public Builder setNote(String note) {
+            contact.addNote(note);
+            return this;
+        }
+
+        /**
+         * Creates the contact. The builder may be reused afterwards.
+         *
+         * @return A new Contact.
+         */
+        public Contact build() {
+            return new Contact(contact);
+        }
+    }
+
     Contact() {}
 
+    /**
+     * Copies the values of a contact. The collation key, section label and content hash are derived from
+     * the values, and are recomputed when first requested, since the copy may be edited.
+     */
+    Contact(Contact other) {
+        id = other.id;
+        displayName = other.displayName;
+        givenName = other.givenName;
+        familyName = other.familyName;
+        middleName = other.middleName;
+        namePrefix = other.namePrefix;
+        nameSuffix = other.nameSuffix;
+        phoneticGivenName = other.phoneticGivenName;
+        phoneticMiddleName = other.phoneticMiddleName;
+        phoneticFamilyName = other.phoneticFamilyName;
+        nickname = other.nickname;
+        sortKey = other.sortKey;
+        phoneNumbers.addAll(other.phoneNumbers);
+        photoUri = other.photoUri;
+        emails.addAll(other.emails);
+        events.addAll(other.events);
+        companyName = other.companyName;
+        companyTitle = other.companyTitle;
+        websites.addAll(other.websites);
+        addresses.addAll(other.addresses);
+        note = other.note;
+        starred = other.starred;
+        timesContacted = other.timesContacted;
+        lastUpdated = other.lastUpdated;
+    }
+
     void setId(Long id) {
         this.id = id;
     }
@@ -165,6 +448,100 @@ public final class Contact {
         return this;
     }
 
+    Contact addMiddleName(String middleName) {
+        this.middleName = middleName;
+        return this;
+    }
+
+    Contact addNamePrefix(String namePrefix) {
+        this.namePrefix = namePrefix;
+        return this;
+    }
+
+    Contact addNameSuffix(String nameSuffix) {
+        this.nameSuffix = nameSuffix;
+        return this;
+    }
+
+    Contact addPhoneticGivenName(String phoneticGivenName) {
+        this.phoneticGivenName = phoneticGivenName;
+        return this;
+    }
+
+    Contact addPhoneticMiddleName(String phoneticMiddleName) {
+        this.phoneticMiddleName = phoneticMiddleName;
+        return this;
+    }
+
+    Contact addPhoneticFamilyName(String phoneticFamilyName) {
+        this.phoneticFamilyName = phoneticFamilyName;
+        return this;
+    }
+
+    Contact addNickname(String nickname) {
+        this.nickname = nickname;
+        return this;
+    }
+
+    Contact addSortKey(String sortKey) {
+        this.sortKey = sortKey;
+        return this;
+    }
+
+    /**
+     * Computes the content hash. Called once when the contact is assembled.
+     */
+    void computeContentHash() {
+        contentHash = ContentHash.of(this);
+        contentHashComputed = true;
+    }
+
+    Contact addSection(String section) {
+        this.section = section;
+        return this;
+    }
+
+    /**
+     * Computes the collation key and section label from the sort key, or the display name if the sort key
+     * was not fetched. Called once when the contact is assembled.
+     */
+    void computeSortKeys(Collator collator) {
+        String source = sortKey != null ? sortKey : displayName;
+        if (source == null) {
+            source = "";
+        }
+
+        section = sectionOf(source);
+        collationKey = collator.getCollationKey(source);
+    }
+
+    /**
+     * Computes the collation key and section label if they were not computed yet.
+     */
+    void ensureSortKeys(Collator collator) {
+        if (collationKey == null && (sortKey != null || displayName != null)) {
+            computeSortKeys(collator);
+        }
+    }
+
+    static String sectionOf(String name) {
+        String normalized = Normalizer.normalize(name, Normalizer.Form.NFD);
+        for (int i = 0; i < normalized.length(); ) {
+            int codePoint = normalized.codePointAt(i);
+            if (Character.isLetter(codePoint)) {
+                return new String(Character.toChars(Character.toUpperCase(codePoint)));
+            }
+
+            if (Character.isDigit(codePoint)) {
+                break;
+            }
+
+            i += Character.charCount(codePoint);
+        }
+
+        return "#";
+    }
+
     Contact addPhoneNumber(PhoneNumber phoneNumber) {
         phoneNumbers.add(phoneNumber);
         return this;
@@ -210,6 +587,21 @@ public final class Contact {
         return this;
     }
 
+    Contact addStarred(boolean starred) {
+        this.starred = starred;
+        return this;
+    }
+
+    Contact addTimesContacted(int timesContacted) {
+        this.timesContacted = timesContacted;
+        return this;
+    }
+
+    Contact addLastUpdated(Long lastUpdated) {
+        this.lastUpdated = lastUpdated;
+        return this;
+    }
+
     /**
      * Gets a the phone contact id.
      *
@@ -246,6 +638,109 @@ public final class Contact {
         return familyName;
     }
 
+    /**
+     * Gets the middle name of the contact.
+     *
+     * @return Middle Name.
+     */
+    public String getMiddleName() {
+        return middleName;
+    }
+
+    /**
+     * Gets the name prefix of the contact, for example "Dr".
+     *
+     * @return Name prefix.
+     */
+    public String getNamePrefix() {
+        return namePrefix;
+    }
+
+    /**
+     * Gets the name suffix of the contact, for example "Jr".
+     *
+     * @return Name suffix.
+     */
+    public String getNameSuffix() {
+        return nameSuffix;
+    }
+
+    /**
+     * Gets the phonetic given name of the contact.
+     *
+     * @return Phonetic given name.
+     */
+    public String getPhoneticGivenName() {
+        return phoneticGivenName;
+    }
+
+    /**
+     * Gets the phonetic middle name of the contact.
+     *
+     * @return Phonetic middle name.
+     */
+    public String getPhoneticMiddleName() {
+        return phoneticMiddleName;
+    }
+
+    /**
+     * Gets the phonetic family name of the contact.
+     *
+     * @return Phonetic family name.
+     */
+    public String getPhoneticFamilyName() {
+        return phoneticFamilyName;
+    }
+
+    /**
+     * Gets the nickname of the contact.
+     *
+     * @return Nickname.
+     */
+    public String getNickname() {
+        return nickname;
+    }
+
+    /**
+     * Gets the sort key of the contact, as computed by the contacts provider.
+     * It takes phonetic names into account, for example for Japanese names.
+     *
+     * @return Sort key.
+     */
+    public String getSortKey() {
+        return sortKey;
+    }
+
+    /**
+     * Gets a collation key of the sort key, or the display name if the sort key was not fetched, for the
+     * default locale. Computed when the contact was fetched with the SortKey field, otherwise when first
+     * requested. Comparing collation keys is much faster than comparing names with a Collator.
+     * (null if neither SortKey nor DisplayName was included)
+     *
+     * @return Collation key.
+     */
+    public CollationKey getCollationKey() {
+        if (collationKey == null) {
+            ensureSortKeys(Collator.getInstance());
+        }
+
+        return collationKey;
+    }
+
+    /**
+     * Gets the fast scroll section of the contact: the upper case first letter of the sort key,
+     * without accents, or "#" if the sort key does not start with a letter.
+     *
+     * @return Section label.
+     */
+    public String getSection() {
+        if (section == null && (sortKey != null || displayName != null)) {
+            section = sectionOf(sortKey != null ? sortKey : displayName);
+        }
+
+        return section;
+    }
+
     /**
      * Gets a list of all phone numbers the contact has.
      *
@@ -346,6 +841,155 @@ public final class Contact {
         return Arrays.asList(addresses.toArray(new Address[addresses.size()]));
     }
 
+    /**
+     * Whether the contact is starred (a favorite).
+     *
+     * @return true if starred.
+     */
+    public boolean isStarred() {
+        return starred;
+    }
+
+    /**
+     * Gets the number of times the contact was contacted. Always 0 on devices that do not track it.
+     *
+     * @return times contacted.
+     */
+    public int getTimesContacted() {
+        return timesContacted;
+    }
+
+    /**
+     * Gets the time the contact was last updated, in milliseconds since epoch.
+     * (null before Jelly Bean MR2)
+     *
+     * @return last update time.
+     */
+    public Long getLastUpdated() {
+        return lastUpdated;
+    }
+
+    /**
+     * Writes the contact to a parcel. The collation key is not written, the section label is.
+     */
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        writeLong(dest, id);
+        dest.writeString(displayName);
+        dest.writeString(givenName);
+        dest.writeString(familyName);
+        dest.writeString(middleName);
+        dest.writeString(namePrefix);
+        dest.writeString(nameSuffix);
+        dest.writeString(phoneticGivenName);
+        dest.writeString(phoneticMiddleName);
+        dest.writeString(phoneticFamilyName);
+        dest.writeString(nickname);
+        dest.writeString(sortKey);
+        dest.writeString(section);
+        dest.writeTypedList(new ArrayList<>(phoneNumbers));
+        dest.writeString(photoUri);
+        dest.writeTypedList(new ArrayList<>(emails));
+        dest.writeTypedList(new ArrayList<>(events));
+        dest.writeString(companyName);
+        dest.writeString(companyTitle);
+        dest.writeStringList(new ArrayList<>(websites));
+        dest.writeTypedList(new ArrayList<>(addresses));
+        dest.writeString(note);
+        dest.writeInt(starred ? 1 : 0);
+        dest.writeInt(timesContacted);
+        writeLong(dest, lastUpdated);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    public static final Creator<Contact> CREATOR = new Creator<Contact>() {
+        @Override
+        public Contact createFromParcel(Parcel source) {
+            Contact contact = new Contact();
+            contact.id = readLong(source);
+            contact.displayName = source.readString();
+            contact.givenName = source.readString();
+            contact.familyName = source.readString();
+            contact.middleName = source.readString();
+            contact.namePrefix = source.readString();
+            contact.nameSuffix = source.readString();
+            contact.phoneticGivenName = source.readString();
+            contact.phoneticMiddleName = source.readString();
+            contact.phoneticFamilyName = source.readString();
+            contact.nickname = source.readString();
+            contact.sortKey = source.readString();
+            contact.section = source.readString();
+            contact.phoneNumbers.addAll(source.createTypedArrayList(PhoneNumber.CREATOR));
+            contact.photoUri = source.readString();
+            contact.emails.addAll(source.createTypedArrayList(Email.CREATOR));
+            contact.events.addAll(source.createTypedArrayList(Event.CREATOR));
+            contact.companyName = source.readString();
+            contact.companyTitle = source.readString();
+            contact.websites.addAll(source.createStringArrayList());
+            contact.addresses.addAll(source.createTypedArrayList(Address.CREATOR));
+            contact.note = source.readString();
+            contact.starred = source.readInt() != 0;
+            contact.timesContacted = source.readInt();
+            contact.lastUpdated = readLong(source);
+            return contact;
+        }
+
+        @Override
+        public Contact[] newArray(int size) {
+            return new Contact[size];
+        }
+    };
+
+    private static void writeLong(Parcel dest, Long value) {
+        dest.writeInt(value == null ? 0 : 1);
+        if (value != null) {
+            dest.writeLong(value);
+        }
+    }
+
+    private static Long readLong(Parcel source) {
+        return source.readInt() == 0 ? null : source.readLong();
+    }
+
+    /**
+     * Gets a stable hash of the content of the contact: its names, phone numbers, emails, addresses,
+     * events, organization, websites and note. Contacts with the same content have the same hash
+     * on every device, see {@link ContactFingerprints}.
+     *
+     * @return content hash.
+     */
+    public long getContentHash() {
+        if (!contentHashComputed) {
+            computeContentHash();
+        }
+
+        return contentHash;
+    }
+
+    boolean hasSameContent(Contact other) {
+        return equals(displayName, other.displayName) && equals(givenName, other.givenName) &&
+                equals(familyName, other.familyName) && equals(middleName, other.middleName) &&
+                equals(namePrefix, other.namePrefix) && equals(nameSuffix, other.nameSuffix) &&
+                equals(phoneticGivenName, other.phoneticGivenName) &&
+                equals(phoneticMiddleName, other.phoneticMiddleName) &&
+                equals(phoneticFamilyName, other.phoneticFamilyName) && equals(nickname, other.nickname) &&
+                equals(sortKey, other.sortKey) && equals(photoUri, other.photoUri) &&
+                equals(companyName, other.companyName) && equals(companyTitle, other.companyTitle) &&
+                equals(note, other.note) && starred == other.starred &&
+                timesContacted == other.timesContacted &&
+                phoneNumbers.equals(other.phoneNumbers) && emails.equals(other.emails) &&
+                events.equals(other.events) && websites.equals(other.websites) &&
+                addresses.equals(other.addresses);
+    }
+
+    private static boolean equals(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
     private Event getEvent(Event.Type type) {
         for (Event event: events) {
             if (type.equals(event.getType())) {
@@ -0,0 +1,433 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary format for lists of contacts, to store them or send them to a server without
+ * reflection based serialization.
+ *
+ * The format starts with a magic number and a version. Integers are written as varints and types as
+ * enum ordinals. Short strings, such as labels, cities and company names, are written once and then
+ * referred to by their index in a string table. The collation key of a contact is not written,
+ * decoded contacts compute it from the sort key when it is first requested.
+ */
+public final class ContactCodec {
+    private static final int MAGIC = 0x43544331; // CTC1
+    private static final int VERSION = 1;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    // strings up to this many bytes are added to the string table.
+    private static final int MAX_TABLE_STRING_BYTES = 64;
+    // longer strings are read in chunks, so a corrupt length can not allocate more than the data holds.
+    private static final int STRING_CHUNK_BYTES = 8192;
+    // string references: 0 is null, 1 is a string that follows, n is table entry n - 2.
+    private static final int NULL_STRING = 0;
+    private static final int NEW_STRING = 1;
+
+    private static final int FLAG_ID = 1;
+    private static final int FLAG_STARRED = 1 << 1;
+    private static final int FLAG_LAST_UPDATED = 1 << 2;
+
+    private ContactCodec() {}
+
+    /**
+     * Encodes contacts to bytes.
+     *
+     * @param contacts  The contacts to encode.
+     * @return          The encoded contacts.
+     */
+    public static byte[] encode(List<Contact> contacts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            write(contacts, out);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes contacts from bytes.
+     *
+     * @param data  Contacts encoded by {@link #encode(List)} or {@link #write(List, OutputStream)}.
+     * @return      The decoded contacts.
+     * @throws IOException if the data is not valid.
+     */
+    public static List<Contact> decode(byte[] data) throws IOException {
+        return read(new ByteArrayInputStream(data));
+    }
+
+    /**
+     * Writes contacts to a stream.
+     *
+     * @param contacts  The contacts to write.
+     * @param out       The stream to write to. It is flushed but not closed.
+     * @throws IOException if writing to the stream fails.
+     */
+    public static void write(List<Contact> contacts, OutputStream out) throws IOException {
+        Writer writer = new Writer(out);
+        writer.writeFixedInt(MAGIC);
+        writer.writeVarint(VERSION);
+        writer.writeVarint(contacts.size());
+        for (Contact contact : contacts) {
+            writeContact(writer, contact);
+        }
+
+        writer.flush();
+    }
+
+    /**
+     * Reads contacts from a stream.
+     *
+     * @param in    The stream to read, positioned at contacts written by {@link #write(List, OutputStream)}.
+     *              It is not closed, but may have been read beyond the contacts.
+     * @return      The contacts.
+     * @throws IOException if reading from the stream fails or the data is not valid.
+     */
+    public static List<Contact> read(InputStream in) throws IOException {
+        Reader reader = new Reader(in);
+        if (reader.readFixedInt() != MAGIC) {
+            throw new IOException("Not an encoded contact list");
+        }
+
+        int version = reader.readVarint();
+        if (version != VERSION) {
+            throw new IOException("Unsupported version " + version);
+        }
+
+        int count = reader.readVarint();
+        List<Contact> contacts = new ArrayList<>(Math.min(count, 1024));
+        for (int i = 0; i < count; i++) {
+            contacts.add(readContact(reader));
+        }
+
+        return contacts;
+    }
+
+    private static void writeContact(Writer writer, Contact contact) throws IOException {
+        int flags = (contact.getId() != null ? FLAG_ID : 0) | (contact.isStarred() ? FLAG_STARRED : 0) |
+                (contact.getLastUpdated() != null ? FLAG_LAST_UPDATED : 0);
+        writer.writeVarint(flags);
+        if (contact.getId() != null) {
+            writer.writeVarlong(contact.getId());
+        }
+
+        writer.writeVarint(contact.getTimesContacted());
+        if (contact.getLastUpdated() != null) {
+            writer.writeVarlong(contact.getLastUpdated());
+        }
+
+        writer.writeString(contact.getDisplayName());
+        writer.writeString(contact.getGivenName());
+        writer.writeString(contact.getFamilyName());
+        writer.writeString(contact.getMiddleName());
+        writer.writeString(contact.getNamePrefix());
+        writer.writeString(contact.getNameSuffix());
+        writer.writeString(contact.getPhoneticGivenName());
+        writer.writeString(contact.getPhoneticMiddleName());
+        writer.writeString(contact.getPhoneticFamilyName());
+        writer.writeString(contact.getNickname());
+        writer.writeString(contact.getSortKey());
+        writer.writeString(contact.getSection());
+        writer.writeString(contact.getPhotoUri());
+        writer.writeString(contact.getCompanyName());
+        writer.writeString(contact.getCompanyTitle());
+        writer.writeString(contact.getNote());
+
+        List<PhoneNumber> phoneNumbers = contact.getPhoneNumbers();
+        writer.writeVarint(phoneNumbers.size());
+        for (PhoneNumber phoneNumber : phoneNumbers) {
+            writer.writeVarint(phoneNumber.getType().ordinal());
+            writer.writeString(phoneNumber.getNumber());
+            writer.writeString(phoneNumber.getLabel());
+            writer.writeString(phoneNumber.getNormalizedNumber());
+        }
+
+        List<Email> emails = contact.getEmails();
+        writer.writeVarint(emails.size());
+        for (Email email : emails) {
+            writer.writeVarint(email.getType().ordinal());
+            writer.writeString(email.getAddress());
+            writer.writeString(email.getLabel());
+        }
+
+        List<Event> events = contact.getEvents();
+        writer.writeVarint(events.size());
+        for (Event event : events) {
+            writer.writeVarint(event.getType().ordinal());
+            writer.writeString(event.getStartDate());
+            writer.writeString(event.getLabel());
+        }
+
+        List<Address> addresses = contact.getAddresses();
+        writer.writeVarint(addresses.size());
+        for (Address address : addresses) {
+            writer.writeVarint(address.getType().ordinal());
+            writer.writeString(address.getFormattedAddress());
+            writer.writeString(address.getStreet());
+            writer.writeString(address.getCity());
+            writer.writeString(address.getRegion());
+            writer.writeString(address.getPostcode());
+            writer.writeString(address.getCountry());
+            writer.writeString(address.getLabel());
+        }
+
+        List<String> websites = contact.getWebsites();
+        writer.writeVarint(websites.size());
+        for (String website : websites) {
+            writer.writeString(website);
+        }
+    }
+
+    private static Contact readContact(Reader reader) throws IOException {
+        Contact contact = new Contact();
+        int flags = reader.readVarint();
+        if ((flags & FLAG_ID) != 0) {
+            contact.setId(reader.readVarlong());
+        }
+
+        contact.addStarred((flags & FLAG_STARRED) != 0);
+        contact.addTimesContacted(reader.readVarint());
+        if ((flags & FLAG_LAST_UPDATED) != 0) {
+            contact.addLastUpdated(reader.readVarlong());
+        }
+
+        contact.addDisplayName(reader.readString())
+                .addGivenName(reader.readString())
+                .addFamilyName(reader.readString())
+                .addMiddleName(reader.readString())
+                .addNamePrefix(reader.readString())
+                .addNameSuffix(reader.readString())
+                .addPhoneticGivenName(reader.readString())
+                .addPhoneticMiddleName(reader.readString())
+                .addPhoneticFamilyName(reader.readString())
+                .addNickname(reader.readString())
+                .addSortKey(reader.readString())
+                .addSection(reader.readString())
+                .addPhotoUri(reader.readString())
+                .addCompanyName(reader.readString())
+                .addCompanyTitle(reader.readString())
+                .addNote(reader.readString());
+
+        try {
+            for (int i = reader.readVarint(); i > 0; i--) {
+                PhoneNumber.Type type = reader.readEnum(PhoneNumber.Type.values());
+                contact.addPhoneNumber(PhoneNumber.create(reader.readString(), type, reader.readString(),
+                        reader.readString()));
+            }
+
+            for (int i = reader.readVarint(); i > 0; i--) {
+                Email.Type type = reader.readEnum(Email.Type.values());
+                contact.addEmail(Email.create(reader.readString(), type, reader.readString()));
+            }
+
+            for (int i = reader.readVarint(); i > 0; i--) {
+                Event.Type type = reader.readEnum(Event.Type.values());
+                contact.addEvent(Event.create(reader.readString(), type, reader.readString()));
+            }
+
+            for (int i = reader.readVarint(); i > 0; i--) {
+                Address.Type type = reader.readEnum(Address.Type.values());
+                contact.addAddress(Address.create(reader.readString(), reader.readString(), reader.readString(),
+                        reader.readString(), reader.readString(), reader.readString(), type, reader.readString()));
+            }
+        } catch (IllegalArgumentException e) {
+            // a missing value or label.
+            throw new IOException("Invalid contact data", e);
+        }
+
+        for (int i = reader.readVarint(); i > 0; i--) {
+            contact.addWebsite(reader.readString());
+        }
+
+        return contact;
+    }
+
+    private static final class Writer {
+        private final OutputStream out;
+        private final Map<String, Integer> strings = new HashMap<>();
+
+        Writer(OutputStream out) {
+            this.out = new BufferedOutputStream(out);
+        }
+
+        void writeFixedInt(int value) throws IOException {
+            out.write(value >>> 24);
+            out.write(value >>> 16);
+            out.write(value >>> 8);
+            out.write(value);
+        }
+
+        void writeVarint(int value) throws IOException {
+            writeVarlong(value & 0xFFFFFFFFL);
+        }
+
+        void writeVarlong(long value) throws IOException {
+            while ((value & ~0x7FL) != 0) {
+                out.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+
+            out.write((int) value);
+        }
+
+        void writeString(String value) throws IOException {
+            if (value == null) {
+                writeVarint(NULL_STRING);
+                return;
+            }
+
+            Integer index = strings.get(value);
+            if (index != null) {
+                writeVarint(index + 2);
+                return;
+            }
+
+            byte[] bytes = value.getBytes(UTF_8);
+            writeVarint(NEW_STRING);
+            writeVarint(bytes.length);
+            out.write(bytes);
+            if (bytes.length <= MAX_TABLE_STRING_BYTES) {
+                strings.put(value, strings.size());
+            }
+        }
+
+        void flush() throws IOException {
+            out.flush();
+        }
+    }
+
+    private static final class Reader {
+        private final InputStream in;
+        private final List<String> strings = new ArrayList<>();
+
+        Reader(InputStream in) {
+            this.in = new BufferedInputStream(in);
+        }
+
+        int readFixedInt() throws IOException {
+            return readByte() << 24 | readByte() << 16 | readByte() << 8 | readByte();
+        }
+
+        int readVarint() throws IOException {
+            long value = readVarlong();
+            if (value > Integer.MAX_VALUE) {
+                throw new IOException("Invalid varint");
+            }
+
+            return (int) value;
+        }
+
+        long readVarlong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+
+            throw new IOException("Invalid varint");
+        }
+
+        <T extends Enum<T>> T readEnum(T[] values) throws IOException {
+            int ordinal = readVarint();
+            if (ordinal >= values.length) {
+                throw new IOException("Invalid type " + ordinal);
+            }
+
+            return values[ordinal];
+        }
+
+        String readString() throws IOException {
+            int reference = readVarint();
+            if (reference == NULL_STRING) {
+                return null;
+            }
+
+            if (reference != NEW_STRING) {
+                if (reference - 2 >= strings.size()) {
+                    throw new IOException("Invalid string reference " + reference);
+                }
+
+                return strings.get(reference - 2);
+            }
+
+            byte[] bytes = readBytes(readVarint());
+            String value = new String(bytes, UTF_8);
+            if (bytes.length <= MAX_TABLE_STRING_BYTES) {
+                strings.add(value);
+            }
+
+            return value;
+        }
+
+        private byte[] readBytes(int length) throws IOException {
+            if (length <= STRING_CHUNK_BYTES) {
+                byte[] bytes = new byte[length];
+                readFully(bytes, length);
+                return bytes;
+            }
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(STRING_CHUNK_BYTES);
+            byte[] chunk = new byte[STRING_CHUNK_BYTES];
+            for (int remaining = length; remaining > 0; ) {
+                int count = Math.min(remaining, chunk.length);
+                readFully(chunk, count);
+                out.write(chunk, 0, count);
+                remaining -= count;
+            }
+
+            return out.toByteArray();
+        }
+
+        private void readFully(byte[] bytes, int length) throws IOException {
+            for (int read = 0; read < length; ) {
+                int count = in.read(bytes, read, length - read);
+                if (count < 0) {
+                    throw new EOFException();
+                }
+
+                read += count;
+            }
+        }
+
+        private int readByte() throws IOException {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+
+            return b;
+        }
+    }
+}
@@ -0,0 +1,485 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentUris;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.os.RemoteException;
+import android.provider.ContactsContract;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The ContactEditor class writes Contact objects to the contacts provider.
+ * Operations are queued and applied in batches of {@link #setBatchSize(int)} operations,
+ * each contact's operations marked as a yield point so other provider clients are not starved.
+ * A full batch is applied as soon as it is queued. Call {@link #apply()} to apply the rest.
+ */
+public final class ContactEditor {
+    private static final int DEFAULT_BATCH_SIZE = 100;
+    private static final int MAX_BATCH_SIZE = 500;
+
+    private static final String[] MANAGED_MIME_TYPES = {
+            ContactsContract.CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE,
+            ContactsContract.CommonDataKinds.Nickname.CONTENT_ITEM_TYPE,
+            ContactsContract.CommonDataKinds.Phone.CONTENT_ITEM_TYPE,
+            ContactsContract.CommonDataKinds.Email.CONTENT_ITEM_TYPE,
+            ContactsContract.CommonDataKinds.Event.CONTENT_ITEM_TYPE,
+            ContactsContract.CommonDataKinds.StructuredPostal.CONTENT_ITEM_TYPE,
+            ContactsContract.CommonDataKinds.Organization.CONTENT_ITEM_TYPE,
+            ContactsContract.CommonDataKinds.Website.CONTENT_ITEM_TYPE,
+            ContactsContract.CommonDataKinds.Note.CONTENT_ITEM_TYPE
+    };
+
+    private final Context context;
+    private final Runnable onApplied;
+    private final List<Entry> pending = new ArrayList<>();
+    private int pendingOperations = 0;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private boolean yieldAllowed = true;
+    private String accountType = null;
+    private String accountName = null;
+    private int appliedCount = 0;
+
+    /**
+     * @param onApplied Run after every batch that was sent to the contacts provider, even if it failed.
+     */
+    ContactEditor(Context context, Runnable onApplied) {
+        this.context = context;
+        this.onApplied = onApplied;
+    }
+
+    /**
+     * Sets the maximal number of operations sent in a single applyBatch call.
+     * The operations of a single contact are never split between batches, a contact with more operations
+     * than the batch size is sent in a batch of its own.
+     *
+     * @param batchSize Number of operations, between 1 and 500. Defaults to 100.
+     * @return this, so you can chain this call.
+     */
+    public ContactEditor setBatchSize(int batchSize) {
+        if (batchSize < 1 || batchSize > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("batchSize must be between 1 and " + MAX_BATCH_SIZE);
+        }
+
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Sets whether the provider may yield to other clients between contacts of a batch.
+     *
+     * @param yieldAllowed true to allow yielding. Defaults to true.
+     * @return this, so you can chain this call.
+     */
+    public ContactEditor setYieldAllowed(boolean yieldAllowed) {
+        this.yieldAllowed = yieldAllowed;
+        return this;
+    }
+
+    /**
+     * Sets the account inserted contacts are created in. Contacts are created as local contacts
+     * unless an account is set.
+     *
+     * @param accountType   The account type, for example "com.google".
+     * @param accountName   The account name.
+     * @return this, so you can chain this call.
+     */
+    public ContactEditor setAccount(String accountType, String accountName) {
+        this.accountType = accountType;
+        this.accountName = accountName;
+        return this;
+    }
+
+    /**
+     * Queues the insertion of a new contact. The id of the given contact is ignored.
+     *
+     * @param contact The contact to insert.
+     * @return this, so you can chain this call.
+     * @throws IllegalArgumentException if the contact has more than 499 data rows.
+     */
+    public ContactEditor insert(Contact contact) {
+        return enqueue(new Entry(Kind.INSERT, contact, null));
+    }
+
+    /**
+     * Queues an update of an existing contact.
+     * The data is written to one raw contact of the contact: the one in the account set by
+     * {@link #setAccount(String, String)} if there is one, otherwise the oldest. All name, phone, email,
+     * event, address, organization, website and note data of that raw contact is replaced by the data of
+     * the given contact, so make sure it was fetched with all fields. The raw contacts of other accounts
+     * that are joined into the contact are not modified, so their sync adapters do not delete any data.
+     *
+     * @param contact The contact to update. Must have an id.
+     * @return this, so you can chain this call.
+     * @throws IllegalArgumentException if the contact has no id, or has more than 499 data rows.
+     */
+    public ContactEditor update(Contact contact) {
+        if (contact.getId() == null) {
+            throw new IllegalArgumentException("Can not update a contact without an id");
+        }
+
+        return enqueue(new Entry(Kind.UPDATE, contact, contact.getId()));
+    }
+
+    /**
+     * Queues the deletion of a contact with all its raw contacts.
+     *
+     * @param contactId The id of the contact to delete.
+     * @return this, so you can chain this call.
+     */
+    public ContactEditor delete(long contactId) {
+        return enqueue(new Entry(Kind.DELETE, null, contactId));
+    }
+
+    /**
+     * Applies all queued operations.
+     *
+     * @return this, so you can chain this call.
+     */
+    public ContactEditor apply() {
+        flush();
+        return this;
+    }
+
+    /**
+     * Gets the number of contacts inserted, updated or deleted so far.
+     * Updates of contacts that were deleted since they were fetched are not counted.
+     *
+     * @return number of applied contacts.
+     */
+    public int getAppliedCount() {
+        return appliedCount;
+    }
+
+    private ContactEditor enqueue(Entry entry) {
+        if (entry.getOperationCount() > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("A contact can have at most " + (MAX_BATCH_SIZE - 1) +
+                    " data rows");
+        }
+
+        pending.add(entry);
+        pendingOperations += entry.getOperationCount();
+        if (pendingOperations >= batchSize) {
+            flush();
+        }
+
+        return this;
+    }
+
+    private void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        List<Entry> entries = new ArrayList<>(pending);
+        pending.clear();
+        pendingOperations = 0;
+
+        Map<Long, Long> rawContactIds = findRawContactIds(entries);
+        ArrayList<ContentProviderOperation> batch = new ArrayList<>();
+        int batchContacts = 0;
+
+        for (Entry entry : entries) {
+            if (!batch.isEmpty() && batch.size() + entry.getOperationCount() > batchSize) {
+                applyBatch(batch, batchContacts);
+                batch = new ArrayList<>();
+                batchContacts = 0;
+            }
+
+            if (entry.addOperations(batch, rawContactIds)) {
+                batchContacts++;
+            }
+        }
+
+        applyBatch(batch, batchContacts);
+    }
+
+    private void applyBatch(ArrayList<ContentProviderOperation> batch, int contacts) {
+        if (batch.isEmpty()) {
+            appliedCount += contacts;
+            return;
+        }
+
+        try {
+            context.getContentResolver().applyBatch(ContactsContract.AUTHORITY, batch);
+        } catch (RemoteException | OperationApplicationException e) {
+            throw new IllegalStateException("Failed to apply contact operations", e);
+        } finally {
+            onApplied.run();
+        }
+
+        appliedCount += contacts;
+    }
+
+    /**
+     * Finds the raw contact that the data of every updated contact is written to.
+     */
+    private Map<Long, Long> findRawContactIds(List<Entry> entries) {
+        List<Object> contactIds = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (entry.kind == Kind.UPDATE) {
+                contactIds.add(entry.contactId);
+            }
+        }
+
+        Map<Long, Long> rawContactIds = new HashMap<>();
+        if (contactIds.isEmpty()) {
+            return rawContactIds;
+        }
+
+        Where where = Where.in(ContactsContract.RawContacts.CONTACT_ID, contactIds)
+                .and(Where.equalTo(ContactsContract.RawContacts.DELETED, 0));
+
+        Cursor c = context.getContentResolver().query(ContactsContract.RawContacts.CONTENT_URI,
+                new String[]{ContactsContract.RawContacts._ID, ContactsContract.RawContacts.CONTACT_ID,
+                        ContactsContract.RawContacts.ACCOUNT_TYPE, ContactsContract.RawContacts.ACCOUNT_NAME},
+                where.toString(),
+                null,
+                ContactsContract.RawContacts._ID);
+
+        if (c != null) {
+            Set<Long> inAccount = new HashSet<>();
+            while (c.moveToNext()) {
+                Long contactId = c.getLong(1);
+                if (inAccount.contains(contactId)) {
+                    continue;
+                }
+
+                if (accountType != null && accountType.equals(c.getString(2)) &&
+                        (accountName == null || accountName.equals(c.getString(3)))) {
+                    rawContactIds.put(contactId, c.getLong(0));
+                    inAccount.add(contactId);
+                } else if (!rawContactIds.containsKey(contactId)) {
+                    rawContactIds.put(contactId, c.getLong(0));
+                }
+            }
+
+            c.close();
+        }
+
+        return rawContactIds;
+    }
+
+    private enum Kind {
+        INSERT,
+        UPDATE,
+        DELETE
+    }
+
+    private final class Entry {
+        private final Kind kind;
+        private final Contact contact;
+        private final Long contactId;
+        private final int operationCount;
+
+        Entry(Kind kind, Contact contact, Long contactId) {
+            this.kind = kind;
+            this.contact = contact;
+            this.contactId = contactId;
+            this.operationCount = kind == Kind.DELETE ? 1 : 1 + countDataRows(contact);
+        }
+
+        int getOperationCount() {
+            return operationCount;
+        }
+
+        /**
+         * @return false if the entry was skipped.
+         */
+        boolean addOperations(List<ContentProviderOperation> batch, Map<Long, Long> rawContactIds) {
+            int first = batch.size();
+            switch (kind) {
+                case INSERT:
+                    batch.add(ContentProviderOperation.newInsert(ContactsContract.RawContacts.CONTENT_URI)
+                            .withValue(ContactsContract.RawContacts.ACCOUNT_TYPE, accountType)
+                            .withValue(ContactsContract.RawContacts.ACCOUNT_NAME, accountName)
+                            .withYieldAllowed(yieldAllowed)
+                            .build());
+                    addDataOperations(batch, contact, first, null);
+                    break;
+                case UPDATE:
+                    Long rawContactId = rawContactIds.get(contactId);
+                    if (rawContactId == null) {
+                        // contact was deleted since it was fetched.
+                        return false;
+                    }
+
+                    // only the data of this raw contact is replaced, other accounts keep theirs.
+                    Where where = Where.equalTo(ContactsContract.Data.RAW_CONTACT_ID, rawContactId)
+                            .and(Where.in(ContactsContract.Data.MIMETYPE, Arrays.asList(MANAGED_MIME_TYPES)));
+                    batch.add(ContentProviderOperation.newDelete(ContactsContract.Data.CONTENT_URI)
+                            .withSelection(where.toString(), null)
+                            .withYieldAllowed(yieldAllowed)
+                            .build());
+                    addDataOperations(batch, contact, -1, rawContactId);
+                    break;
+                case DELETE:
+                    batch.add(ContentProviderOperation.newDelete(
+                            ContentUris.withAppendedId(ContactsContract.Contacts.CONTENT_URI, contactId))
+                            .withYieldAllowed(yieldAllowed)
+                            .build());
+                    break;
+            }
+
+            return true;
+        }
+    }
+
+    private static int countDataRows(Contact contact) {
+        int rows = contact.getPhoneNumbers().size() + contact.getEmails().size() +
+                contact.getEvents().size() + contact.getAddresses().size() + contact.getWebsites().size();
+
+        if (hasName(contact)) {
+            rows++;
+        }
+
+        if (contact.getNickname() != null) {
+            rows++;
+        }
+
+        if (contact.getCompanyName() != null || contact.getCompanyTitle() != null) {
+            rows++;
+        }
+
+        if (contact.getNote() != null) {
+            rows++;
+        }
+
+        return rows;
+    }
+
+    private static boolean hasName(Contact contact) {
+        return contact.getDisplayName() != null || contact.getGivenName() != null ||
+                contact.getFamilyName() != null || contact.getMiddleName() != null ||
+                contact.getNamePrefix() != null || contact.getNameSuffix() != null ||
+                contact.getPhoneticGivenName() != null || contact.getPhoneticMiddleName() != null ||
+                contact.getPhoneticFamilyName() != null;
+    }
+
+    private static void addDataOperations(List<ContentProviderOperation> batch, Contact contact,
+                                          int rawContactIndex, Long rawContactId) {
+        if (hasName(contact)) {
+            batch.add(newDataInsert(ContactsContract.CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE,
+                    rawContactIndex, rawContactId)
+                    .withValue(ContactsContract.CommonDataKinds.StructuredName.DISPLAY_NAME, contact.getDisplayName())
+                    .withValue(ContactsContract.CommonDataKinds.StructuredName.GIVEN_NAME, contact.getGivenName())
+                    .withValue(ContactsContract.CommonDataKinds.StructuredName.FAMILY_NAME, contact.getFamilyName())
+                    .withValue(ContactsContract.CommonDataKinds.StructuredName.MIDDLE_NAME, contact.getMiddleName())
+                    .withValue(ContactsContract.CommonDataKinds.StructuredName.PREFIX, contact.getNamePrefix())
+                    .withValue(ContactsContract.CommonDataKinds.StructuredName.SUFFIX, contact.getNameSuffix())
+                    .withValue(ContactsContract.CommonDataKinds.StructuredName.PHONETIC_GIVEN_NAME,
+                            contact.getPhoneticGivenName())
+                    .withValue(ContactsContract.CommonDataKinds.StructuredName.PHONETIC_MIDDLE_NAME,
+                            contact.getPhoneticMiddleName())
+                    .withValue(ContactsContract.CommonDataKinds.StructuredName.PHONETIC_FAMILY_NAME,
+                            contact.getPhoneticFamilyName())
+                    .build());
+        }
+
+        if (contact.getNickname() != null) {
+            batch.add(newDataInsert(ContactsContract.CommonDataKinds.Nickname.CONTENT_ITEM_TYPE,
+                    rawContactIndex, rawContactId)
+                    .withValue(ContactsContract.CommonDataKinds.Nickname.NAME, contact.getNickname())
+                    .build());
+        }
+
+        for (PhoneNumber phoneNumber : contact.getPhoneNumbers()) {
+            batch.add(newDataInsert(ContactsContract.CommonDataKinds.Phone.CONTENT_ITEM_TYPE,
+                    rawContactIndex, rawContactId)
+                    .withValue(ContactsContract.CommonDataKinds.Phone.NUMBER, phoneNumber.getNumber())
+                    .withValue(ContactsContract.CommonDataKinds.Phone.TYPE, phoneNumber.getType().toValue())
+                    .withValue(ContactsContract.CommonDataKinds.Phone.LABEL, phoneNumber.getLabel())
+                    .build());
+        }
+
+        for (Email email : contact.getEmails()) {
+            batch.add(newDataInsert(ContactsContract.CommonDataKinds.Email.CONTENT_ITEM_TYPE,
+                    rawContactIndex, rawContactId)
+                    .withValue(ContactsContract.CommonDataKinds.Email.ADDRESS, email.getAddress())
+                    .withValue(ContactsContract.CommonDataKinds.Email.TYPE, email.getType().toValue())
+                    .withValue(ContactsContract.CommonDataKinds.Email.LABEL, email.getLabel())
+                    .build());
+        }
+
+        for (Event event : contact.getEvents()) {
+            batch.add(newDataInsert(ContactsContract.CommonDataKinds.Event.CONTENT_ITEM_TYPE,
+                    rawContactIndex, rawContactId)
+                    .withValue(ContactsContract.CommonDataKinds.Event.START_DATE, event.getStartDate())
+                    .withValue(ContactsContract.CommonDataKinds.Event.TYPE, event.getType().toValue())
+                    .withValue(ContactsContract.CommonDataKinds.Event.LABEL, event.getLabel())
+                    .build());
+        }
+
+        for (Address address : contact.getAddresses()) {
+            batch.add(newDataInsert(ContactsContract.CommonDataKinds.StructuredPostal.CONTENT_ITEM_TYPE,
+                    rawContactIndex, rawContactId)
+                    .withValue(ContactsContract.CommonDataKinds.StructuredPostal.FORMATTED_ADDRESS,
+                            address.getFormattedAddress())
+                    .withValue(ContactsContract.CommonDataKinds.StructuredPostal.STREET, address.getStreet())
+                    .withValue(ContactsContract.CommonDataKinds.StructuredPostal.CITY, address.getCity())
+                    .withValue(ContactsContract.CommonDataKinds.StructuredPostal.REGION, address.getRegion())
+                    .withValue(ContactsContract.CommonDataKinds.StructuredPostal.POSTCODE, address.getPostcode())
+                    .withValue(ContactsContract.CommonDataKinds.StructuredPostal.COUNTRY, address.getCountry())
+                    .withValue(ContactsContract.CommonDataKinds.StructuredPostal.TYPE, address.getType().toValue())
+                    .withValue(ContactsContract.CommonDataKinds.StructuredPostal.LABEL, address.getLabel())
+                    .build());
+        }
+
+        if (contact.getCompanyName() != null || contact.getCompanyTitle() != null) {
+            batch.add(newDataInsert(ContactsContract.CommonDataKinds.Organization.CONTENT_ITEM_TYPE,
+                    rawContactIndex, rawContactId)
+                    .withValue(ContactsContract.CommonDataKinds.Organization.COMPANY, contact.getCompanyName())
+                    .withValue(ContactsContract.CommonDataKinds.Organization.TITLE, contact.getCompanyTitle())
+                    .build());
+        }
+
+        for (String website : contact.getWebsites()) {
+            batch.add(newDataInsert(ContactsContract.CommonDataKinds.Website.CONTENT_ITEM_TYPE,
+                    rawContactIndex, rawContactId)
+                    .withValue(ContactsContract.CommonDataKinds.Website.URL, website)
+                    .build());
+        }
+
+        if (contact.getNote() != null) {
+            batch.add(newDataInsert(ContactsContract.CommonDataKinds.Note.CONTENT_ITEM_TYPE,
+                    rawContactIndex, rawContactId)
+                    .withValue(ContactsContract.CommonDataKinds.Note.NOTE, contact.getNote())
+                    .build());
+        }
+    }
+
+    private static ContentProviderOperation.Builder newDataInsert(String mimeType, int rawContactIndex,
+                                                                  Long rawContactId) {
+        ContentProviderOperation.Builder builder =
+                ContentProviderOperation.newInsert(ContactsContract.Data.CONTENT_URI)
+                        .withValue(ContactsContract.Data.MIMETYPE, mimeType);
+
+        return rawContactId == null ?
+                builder.withValueBackReference(ContactsContract.Data.RAW_CONTACT_ID, rawContactIndex) :
+                builder.withValue(ContactsContract.Data.RAW_CONTACT_ID, rawContactId);
+    }
+}
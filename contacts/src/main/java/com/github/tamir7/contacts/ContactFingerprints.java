@@ -0,0 +1,369 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A hash tree over the {@link Contact#getContentHash()} of a snapshot of contacts, used to find the
+ * differences between two snapshots, for example the contacts on the device and on a server,
+ * by exchanging only the hashes of the buckets that differ.
+ *
+ * Buckets are ranges of hashed contact ids. The root bucket at depth 0 holds all contacts, and every
+ * bucket has 16 children, so bucket {@code index} at depth {@code d} holds the contacts whose hashed id
+ * starts with the {@code 4 * d} bits of {@code index}. Hashing the ids keeps the buckets balanced however
+ * the ids are spread. The hash of a bucket is the sum of the hashes of its contacts, so it does not
+ * depend on the order of the contacts and is computed from prefix sums, without building the tree.
+ *
+ * To reconcile with a remote snapshot compare the root hashes, then the {@link #getChildHashes(int, long)}
+ * of every differing bucket, and once a differing bucket is small exchange its
+ * {@link #getContentHashes(int, long)}. A few changes among 30k contacts cost a few kilobytes of hashes.
+ * {@link #diff(ContactFingerprints)} runs the same descent against a local snapshot.
+ */
+public final class ContactFingerprints {
+    /**
+     * The depth of the deepest buckets, which hold a single hashed id.
+     */
+    public static final int MAX_DEPTH = 16;
+
+    // buckets with fewer contacts on both sides are compared contact by contact.
+    private static final int LEAF_SIZE = 32;
+
+    private final long[] keys;
+    private final long[] ids;
+    private final long[] contentHashes;
+    private final long[] hashSums;
+
+    /**
+     * The differences between two snapshots.
+     */
+    public static final class Diff {
+        private final Set<Long> added = new LinkedHashSet<>();
+        private final Set<Long> removed = new LinkedHashSet<>();
+        private final Set<Long> changed = new LinkedHashSet<>();
+        private int comparedHashes = 0;
+
+        private Diff() {}
+
+        /**
+         * Gets the ids of the contacts that are only in the other snapshot.
+         *
+         * @return contact ids.
+         */
+        public Set<Long> getAdded() {
+            return Collections.unmodifiableSet(added);
+        }
+
+        /**
+         * Gets the ids of the contacts that are only in this snapshot.
+         *
+         * @return contact ids.
+         */
+        public Set<Long> getRemoved() {
+            return Collections.unmodifiableSet(removed);
+        }
+
+        /**
+         * Gets the ids of the contacts that are in both snapshots with different content.
+         *
+         * @return contact ids.
+         */
+        public Set<Long> getChanged() {
+            return Collections.unmodifiableSet(changed);
+        }
+
+        /**
+         * Whether the snapshots are equal.
+         *
+         * @return true if there are no differences.
+         */
+        public boolean isEmpty() {
+            return added.isEmpty() && removed.isEmpty() && changed.isEmpty();
+        }
+
+        /**
+         * Gets the number of hashes compared to find the differences, which is the number of hashes
+         * a remote snapshot would have to send.
+         *
+         * @return compared hash count.
+         */
+        public int getComparedHashes() {
+            return comparedHashes;
+        }
+    }
+
+    private static final class Entry {
+        private final long key;
+        private final long id;
+        private final long contentHash;
+
+        Entry(long id, long contentHash) {
+            // flipping the sign bit makes signed order the unsigned order of the hashed ids.
+            this.key = ContentHash.mix(id) ^ Long.MIN_VALUE;
+            this.id = id;
+            this.contentHash = contentHash;
+        }
+    }
+
+    private ContactFingerprints(Entry[] entries) {
+        Arrays.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry lhs, Entry rhs) {
+                return lhs.key < rhs.key ? -1 : (lhs.key == rhs.key ? 0 : 1);
+            }
+        });
+
+        keys = new long[entries.length];
+        ids = new long[entries.length];
+        contentHashes = new long[entries.length];
+        hashSums = new long[entries.length + 1];
+        for (int i = 0; i < entries.length; i++) {
+            keys[i] = entries[i].key;
+            ids[i] = entries[i].id;
+            contentHashes[i] = entries[i].contentHash;
+            hashSums[i + 1] = hashSums[i] + ContentHash.mix(entries[i].key + ContentHash.mix(entries[i].contentHash));
+        }
+    }
+
+    /**
+     * Creates the fingerprints of a snapshot of contacts. Contacts should be fetched with all the
+     * fields that are part of the content hash, see {@link Contact#getContentHash()}.
+     *
+     * @param contacts  The contacts of the snapshot, with unique ids.
+     * @return          The fingerprints.
+     */
+    public static ContactFingerprints of(Collection<Contact> contacts) {
+        Entry[] entries = new Entry[contacts.size()];
+        int i = 0;
+        for (Contact contact : contacts) {
+            if (contact.getId() == null) {
+                throw new IllegalArgumentException("Contact has no id");
+            }
+
+            entries[i++] = new Entry(contact.getId(), contact.getContentHash());
+        }
+
+        return new ContactFingerprints(entries);
+    }
+
+    /**
+     * Creates the fingerprints of a snapshot of content hashes, for example one stored on a server
+     * after a previous sync.
+     *
+     * @param contentHashes Content hashes by contact id.
+     * @return              The fingerprints.
+     */
+    public static ContactFingerprints of(Map<Long, Long> contentHashes) {
+        Entry[] entries = new Entry[contentHashes.size()];
+        int i = 0;
+        for (Map.Entry<Long, Long> entry : contentHashes.entrySet()) {
+            entries[i++] = new Entry(entry.getKey(), entry.getValue());
+        }
+
+        return new ContactFingerprints(entries);
+    }
+
+    /**
+     * Gets the number of contacts.
+     *
+     * @return contact count.
+     */
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * Gets the hash of all contacts.
+     *
+     * @return root hash.
+     */
+    public long getRootHash() {
+        return hashSums[ids.length];
+    }
+
+    /**
+     * Gets the hash of a bucket.
+     *
+     * @param depth The depth of the bucket, from 0 to {@link #MAX_DEPTH}.
+     * @param index The index of the bucket at its depth, from 0 to 16^depth - 1.
+     * @return      The bucket hash, 0 for an empty bucket.
+     */
+    public long getHash(int depth, long index) {
+        int start = start(depth, index);
+        return hashSums[end(depth, index)] - hashSums[start];
+    }
+
+    /**
+     * Gets the number of contacts of a bucket.
+     *
+     * @param depth The depth of the bucket, from 0 to {@link #MAX_DEPTH}.
+     * @param index The index of the bucket at its depth, from 0 to 16^depth - 1.
+     * @return      The contact count.
+     */
+    public int getCount(int depth, long index) {
+        return end(depth, index) - start(depth, index);
+    }
+
+    /**
+     * Gets the hashes of the 16 children of a bucket, the buckets {@code index * 16 + i} at {@code depth + 1}.
+     *
+     * @param depth The depth of the bucket, from 0 to {@link #MAX_DEPTH} - 1.
+     * @param index The index of the bucket at its depth, from 0 to 16^depth - 1.
+     * @return      The child hashes.
+     */
+    public long[] getChildHashes(int depth, long index) {
+        if (depth >= MAX_DEPTH) {
+            throw new IllegalArgumentException("Bucket at depth " + depth + " has no children");
+        }
+
+        long[] hashes = new long[16];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = getHash(depth + 1, (index << 4) | i);
+        }
+
+        return hashes;
+    }
+
+    /**
+     * Gets the content hashes of the contacts of a bucket.
+     *
+     * @param depth The depth of the bucket, from 0 to {@link #MAX_DEPTH}.
+     * @param index The index of the bucket at its depth, from 0 to 16^depth - 1.
+     * @return      Content hashes by contact id.
+     */
+    public Map<Long, Long> getContentHashes(int depth, long index) {
+        int start = start(depth, index);
+        int end = end(depth, index);
+        Map<Long, Long> hashes = new HashMap<>(Math.max(4, (end - start) * 4 / 3 + 1));
+        for (int i = start; i < end; i++) {
+            hashes.put(ids[i], contentHashes[i]);
+        }
+
+        return hashes;
+    }
+
+    /**
+     * Finds the differences from this snapshot to another one, descending only into the buckets
+     * whose hashes differ.
+     *
+     * @param other The other snapshot, usually the newer one.
+     * @return      The differences.
+     */
+    public Diff diff(ContactFingerprints other) {
+        Diff diff = new Diff();
+        diff.comparedHashes = 1;
+        if (getRootHash() != other.getRootHash() || size() != other.size()) {
+            diff(other, 0, 0, diff);
+        }
+
+        return diff;
+    }
+
+    private void diff(ContactFingerprints other, int depth, long index, Diff diff) {
+        int count = getCount(depth, index);
+        int otherCount = other.getCount(depth, index);
+        if (depth == MAX_DEPTH || (count <= LEAF_SIZE && otherCount <= LEAF_SIZE)) {
+            Map<Long, Long> hashes = getContentHashes(depth, index);
+            Map<Long, Long> otherHashes = other.getContentHashes(depth, index);
+            diff.comparedHashes += otherHashes.size();
+            for (Map.Entry<Long, Long> entry : otherHashes.entrySet()) {
+                Long hash = hashes.get(entry.getKey());
+                if (hash == null) {
+                    diff.added.add(entry.getKey());
+                } else if (!hash.equals(entry.getValue())) {
+                    diff.changed.add(entry.getKey());
+                }
+            }
+
+            for (Long id : hashes.keySet()) {
+                if (!otherHashes.containsKey(id)) {
+                    diff.removed.add(id);
+                }
+            }
+
+            return;
+        }
+
+        long[] hashes = getChildHashes(depth, index);
+        long[] otherHashes = other.getChildHashes(depth, index);
+        diff.comparedHashes += otherHashes.length;
+        for (int i = 0; i < hashes.length; i++) {
+            long child = (index << 4) | i;
+            if (hashes[i] != otherHashes[i] || getCount(depth + 1, child) != other.getCount(depth + 1, child)) {
+                diff(other, depth + 1, child, diff);
+            }
+        }
+    }
+
+    private int start(int depth, long index) {
+        checkBucket(depth, index);
+        if (depth == 0) {
+            return 0;
+        }
+
+        return lowerBound((index << (64 - 4 * depth)) ^ Long.MIN_VALUE);
+    }
+
+    private int end(int depth, long index) {
+        checkBucket(depth, index);
+        if (depth == 0 || index == lastIndex(depth)) {
+            return keys.length;
+        }
+
+        return lowerBound(((index + 1) << (64 - 4 * depth)) ^ Long.MIN_VALUE);
+    }
+
+    private static long lastIndex(int depth) {
+        return depth == MAX_DEPTH ? -1L : (1L << (4 * depth)) - 1;
+    }
+
+    private static void checkBucket(int depth, long index) {
+        if (depth < 0 || depth > MAX_DEPTH) {
+            throw new IllegalArgumentException("Invalid depth " + depth);
+        }
+
+        // at the maximum depth every long is a valid index.
+        if (depth < MAX_DEPTH && (index < 0 || index > lastIndex(depth))) {
+            throw new IllegalArgumentException("Invalid index " + index + " at depth " + depth);
+        }
+    }
+
+    /**
+     * Gets the position of the first key that is not less than the given key.
+     */
+    private int lowerBound(long key) {
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.database.Cursor;
+import android.provider.ContactsContract;
+import android.telephony.PhoneNumberUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An in memory snapshot of the contact level data of all contacts: ids, display names and photo uris,
+ * and optionally a phone number lookup table. Loaded in the background by {@link WarmUp}.
+ * The snapshot is immutable, {@link Contacts#getContactIndex()} returns a new one after the contacts change.
+ */
+public final class ContactIndex {
+    // the number of trailing digits used to find phone number candidates, as in caller id matching.
+    private static final int MIN_MATCH = 7;
+
+    private final Map<Long, String> displayNames;
+    private final Map<Long, String> photoUris;
+    private final Map<String, List<PhoneEntry>> phoneLookup;
+    private final Map<String, Set<Long>> normalizedLookup;
+    private final PhoneNormalizer phoneNormalizer;
+
+    private static final class PhoneEntry {
+        private final String number;
+        private final String normalizedNumber;
+        private final long contactId;
+
+        PhoneEntry(String number, String normalizedNumber, long contactId) {
+            this.number = number;
+            this.normalizedNumber = normalizedNumber;
+            this.contactId = contactId;
+        }
+    }
+
+    private ContactIndex(Map<Long, String> displayNames, Map<Long, String> photoUris,
+                         Map<String, List<PhoneEntry>> phoneLookup, Map<String, Set<Long>> normalizedLookup,
+                         PhoneNormalizer phoneNormalizer) {
+        this.displayNames = displayNames;
+        this.photoUris = photoUris;
+        this.phoneLookup = phoneLookup;
+        this.normalizedLookup = normalizedLookup;
+        this.phoneNormalizer = phoneNormalizer;
+    }
+
+    /**
+     * @param phoneNormalizer   Normalizes the phone numbers of the lookup table, or null to not load the table.
+     */
+    static ContactIndex load(Context context, PhoneNormalizer phoneNormalizer) {
+        Map<Long, String> displayNames = new LinkedHashMap<>();
+        Map<Long, String> photoUris = new HashMap<>();
+        Cursor c = context.getContentResolver().query(ContactsContract.Contacts.CONTENT_URI,
+                new String[]{ContactsContract.Contacts._ID, ContactsContract.Contacts.DISPLAY_NAME,
+                        ContactsContract.Contacts.PHOTO_URI},
+                null,
+                null,
+                ContactsContract.Contacts.DISPLAY_NAME);
+
+        if (c != null) {
+            while (c.moveToNext()) {
+                long id = c.getLong(0);
+                displayNames.put(id, c.getString(1));
+                String photoUri = c.getString(2);
+                if (photoUri != null) {
+                    photoUris.put(id, photoUri);
+                }
+            }
+
+            c.close();
+        }
+
+        if (phoneNormalizer == null) {
+            return new ContactIndex(displayNames, photoUris, null, null, null);
+        }
+
+        Map<String, List<PhoneEntry>> phoneLookup = new HashMap<>();
+        Map<String, Set<Long>> normalizedLookup = new HashMap<>();
+        loadPhoneLookup(context, phoneNormalizer, phoneLookup, normalizedLookup);
+        return new ContactIndex(displayNames, photoUris, phoneLookup, normalizedLookup, phoneNormalizer);
+    }
+
+    @SuppressLint("InlinedApi")
+    private static void loadPhoneLookup(Context context, PhoneNormalizer phoneNormalizer,
+                                        Map<String, List<PhoneEntry>> phoneLookup,
+                                        Map<String, Set<Long>> normalizedLookup) {
+        List<String> projection = new ArrayList<>(3);
+        projection.add(ContactsContract.RawContacts.CONTACT_ID);
+        projection.add(ContactsContract.CommonDataKinds.Phone.NUMBER);
+        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.JELLY_BEAN) {
+            projection.add(ContactsContract.CommonDataKinds.Phone.NORMALIZED_NUMBER);
+        }
+
+        Cursor c = context.getContentResolver().query(ContactsContract.Data.CONTENT_URI,
+                projection.toArray(new String[projection.size()]),
+                Where.equalTo(ContactsContract.Data.MIMETYPE,
+                        ContactsContract.CommonDataKinds.Phone.CONTENT_ITEM_TYPE).toString(),
+                null,
+                null);
+
+        if (c != null) {
+            CursorHelper helper = new CursorHelper(c, phoneNormalizer);
+            while (c.moveToNext()) {
+                PhoneNumber phoneNumber = helper.getPhoneNumber();
+                if (phoneNumber == null) {
+                    continue;
+                }
+
+                long contactId = c.getLong(0);
+                String normalizedNumber = phoneNumber.getNormalizedNumber();
+                if (normalizedNumber != null) {
+                    Set<Long> contactIds = normalizedLookup.get(normalizedNumber);
+                    if (contactIds == null) {
+                        contactIds = new LinkedHashSet<>(1);
+                        normalizedLookup.put(normalizedNumber, contactIds);
+                    }
+
+                    contactIds.add(contactId);
+                }
+
+                String number = phoneNumber.getNumber();
+                String key = lookupKey(number);
+                if (key == null) {
+                    continue;
+                }
+
+                List<PhoneEntry> entries = phoneLookup.get(key);
+                if (entries == null) {
+                    entries = new ArrayList<>(1);
+                    phoneLookup.put(key, entries);
+                }
+
+                entries.add(new PhoneEntry(number, normalizedNumber, contactId));
+            }
+
+            c.close();
+        }
+    }
+
+    /**
+     * Gets the ids of all contacts, in display name order.
+     *
+     * @return contact ids.
+     */
+    public Set<Long> getContactIds() {
+        return Collections.unmodifiableSet(displayNames.keySet());
+    }
+
+    /**
+     * Gets the number of contacts.
+     *
+     * @return contact count.
+     */
+    public int size() {
+        return displayNames.size();
+    }
+
+    /**
+     * Gets the display name of a contact.
+     *
+     * @param contactId The contact id.
+     * @return          The display name, or null if unknown.
+     */
+    public String getDisplayName(long contactId) {
+        return displayNames.get(contactId);
+    }
+
+    /**
+     * Gets the photo uri of a contact.
+     *
+     * @param contactId The contact id.
+     * @return          The photo uri, or null if the contact has no photo.
+     */
+    public String getPhotoUri(long contactId) {
+        return photoUris.get(contactId);
+    }
+
+    /**
+     * Whether this index contains the phone number lookup table.
+     *
+     * @return true if {@link #findByPhoneNumber(String)} is supported.
+     */
+    public boolean hasPhoneLookup() {
+        return phoneLookup != null;
+    }
+
+    /**
+     * Finds the contacts with a phone number matching the given number.
+     * If the number can be normalized to E.164 it is found by exact match among the normalized numbers,
+     * otherwise numbers are compared by PhoneNumberUtils.compare, which ignores separators and
+     * tolerates missing country codes.
+     *
+     * @param number    The phone number to find.
+     * @return          The ids of the matching contacts.
+     * @throws IllegalStateException if the phone number lookup table was not loaded.
+     */
+    public Set<Long> findByPhoneNumber(String number) {
+        if (phoneLookup == null) {
+            throw new IllegalStateException("Phone lookup was not loaded");
+        }
+
+        Set<Long> contactIds = new LinkedHashSet<>();
+        String normalizedNumber = phoneNormalizer.normalize(number);
+        if (normalizedNumber != null && normalizedLookup.containsKey(normalizedNumber)) {
+            contactIds.addAll(normalizedLookup.get(normalizedNumber));
+        }
+
+        String key = lookupKey(number);
+        List<PhoneEntry> entries = key == null ? null : phoneLookup.get(key);
+        if (entries != null) {
+            for (PhoneEntry entry : entries) {
+                // normalized numbers were already compared exactly.
+                if (normalizedNumber != null && entry.normalizedNumber != null) {
+                    continue;
+                }
+
+                if (PhoneNumberUtils.compare(entry.number, number)) {
+                    contactIds.add(entry.contactId);
+                }
+            }
+        }
+
+        return contactIds;
+    }
+
+    /**
+     * Gets the reversed trailing digits of a phone number, which are equal for numbers that may match.
+     */
+    static String lookupKey(String number) {
+        if (number == null) {
+            return null;
+        }
+
+        StringBuilder digits = new StringBuilder(MIN_MATCH);
+        for (int i = number.length() - 1; i >= 0 && digits.length() < MIN_MATCH; i--) {
+            char ch = number.charAt(i);
+            if (ch >= '0' && ch <= '9') {
+                digits.append(ch);
+            }
+        }
+
+        return digits.length() == 0 ? null : digits.toString();
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * Writes contacts as a JSON array, one contact at a time, without reflection.
+ * Objects use the field names of the contact classes and omit null values, as Gson does by default.
+ *
+ * The writer is a {@link Query.Callback}, so it can be fed by {@link Query#forEach(Query.Callback)}
+ * and the JSON is produced while the contacts are read, in constant memory. Write failures inside
+ * forEach are rethrown as an IllegalStateException with the IOException as its cause.
+ */
+public final class ContactJsonWriter implements Query.Callback, Closeable {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Writer writer;
+    private boolean firstField;
+    private int count = 0;
+    private boolean closed = false;
+
+    /**
+     * Creates a writer to a character stream.
+     *
+     * @param writer    The stream to write to. It is closed by {@link #close()}.
+     */
+    public ContactJsonWriter(Writer writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * Creates a writer of UTF-8 to a byte stream.
+     *
+     * @param out   The stream to write to. It is closed by {@link #close()}.
+     */
+    public ContactJsonWriter(OutputStream out) {
+        this(new BufferedWriter(new OutputStreamWriter(out, UTF_8), BUFFER_SIZE));
+    }
+
+    @Override
+    public void onContact(Contact contact) {
+        try {
+            write(contact);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Writes a contact as the next element of the array.
+     *
+     * @param contact   The contact to write.
+     * @throws IOException if writing to the stream fails.
+     */
+    public void write(Contact contact) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Writer is closed");
+        }
+
+        writer.write(count == 0 ? '[' : ',');
+        beginObject();
+        writeField("id", contact.getId());
+        writeField("displayName", contact.getDisplayName());
+        writeField("givenName", contact.getGivenName());
+        writeField("familyName", contact.getFamilyName());
+        writeField("middleName", contact.getMiddleName());
+        writeField("namePrefix", contact.getNamePrefix());
+        writeField("nameSuffix", contact.getNameSuffix());
+        writeField("phoneticGivenName", contact.getPhoneticGivenName());
+        writeField("phoneticMiddleName", contact.getPhoneticMiddleName());
+        writeField("phoneticFamilyName", contact.getPhoneticFamilyName());
+        writeField("nickname", contact.getNickname());
+        writeField("sortKey", contact.getSortKey());
+        writeField("section", contact.getSection());
+
+        List<PhoneNumber> phoneNumbers = contact.getPhoneNumbers();
+        beginArrayField("phoneNumbers");
+        for (int i = 0; i < phoneNumbers.size(); i++) {
+            PhoneNumber phoneNumber = phoneNumbers.get(i);
+            beginElement(i);
+            writeField("number", phoneNumber.getNumber());
+            writeField("type", phoneNumber.getType().name());
+            writeField("label", phoneNumber.getLabel());
+            writeField("normalizedNumber", phoneNumber.getNormalizedNumber());
+            writer.write('}');
+        }
+        writer.write(']');
+
+        writeField("photoUri", contact.getPhotoUri());
+
+        List<Email> emails = contact.getEmails();
+        beginArrayField("emails");
+        for (int i = 0; i < emails.size(); i++) {
+            Email email = emails.get(i);
+            beginElement(i);
+            writeField("address", email.getAddress());
+            writeField("type", email.getType().name());
+            writeField("label", email.getLabel());
+            writer.write('}');
+        }
+        writer.write(']');
+
+        List<Event> events = contact.getEvents();
+        beginArrayField("events");
+        for (int i = 0; i < events.size(); i++) {
+            Event event = events.get(i);
+            beginElement(i);
+            writeField("startDate", event.getStartDate());
+            writeField("type", event.getType().name());
+            writeField("label", event.getLabel());
+            writer.write('}');
+        }
+        writer.write(']');
+
+        writeField("companyName", contact.getCompanyName());
+        writeField("companyTitle", contact.getCompanyTitle());
+
+        List<String> websites = contact.getWebsites();
+        beginArrayField("websites");
+        for (int i = 0; i < websites.size(); i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+
+            writeString(websites.get(i));
+        }
+        writer.write(']');
+
+        List<Address> addresses = contact.getAddresses();
+        beginArrayField("addresses");
+        for (int i = 0; i < addresses.size(); i++) {
+            Address address = addresses.get(i);
+            beginElement(i);
+            writeField("formattedAddress", address.getFormattedAddress());
+            writeField("type", address.getType().name());
+            writeField("street", address.getStreet());
+            writeField("city", address.getCity());
+            writeField("region", address.getRegion());
+            writeField("postcode", address.getPostcode());
+            writeField("country", address.getCountry());
+            writeField("label", address.getLabel());
+            writer.write('}');
+        }
+        writer.write(']');
+
+        writeField("note", contact.getNote());
+        writeName("starred");
+        writer.write(contact.isStarred() ? "true" : "false");
+        writeField("timesContacted", (long) contact.getTimesContacted());
+        writeField("lastUpdated", contact.getLastUpdated());
+        writer.write('}');
+        count++;
+    }
+
+    /**
+     * Gets the number of contacts written.
+     *
+     * @return contact count.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Ends the array and flushes the stream, without closing it.
+     *
+     * @throws IOException if writing to the stream fails.
+     */
+    public void finish() throws IOException {
+        if (!closed) {
+            writer.write(count == 0 ? "[]" : "]");
+            closed = true;
+        }
+
+        writer.flush();
+    }
+
+    /**
+     * Ends the array and closes the stream.
+     *
+     * @throws IOException if writing to the stream fails.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Gets the IOException of a write failure inside {@link Query#forEach(Query.Callback)}.
+     *
+     * @param e The exception thrown by forEach.
+     * @return  The write failure, or null if e was not caused by one.
+     */
+    public static IOException unwrap(IllegalStateException e) {
+        return e.getCause() instanceof IOException ? (IOException) e.getCause() : null;
+    }
+
+    private void beginObject() throws IOException {
+        writer.write('{');
+        firstField = true;
+    }
+
+    private void beginElement(int index) throws IOException {
+        if (index > 0) {
+            writer.write(',');
+        }
+
+        beginObject();
+    }
+
+    private void beginArrayField(String name) throws IOException {
+        writeName(name);
+        writer.write('[');
+    }
+
+    private void writeName(String name) throws IOException {
+        if (!firstField) {
+            writer.write(',');
+        }
+
+        firstField = false;
+        writer.write('"');
+        writer.write(name);
+        writer.write("\":");
+    }
+
+    private void writeField(String name, String value) throws IOException {
+        if (value != null) {
+            writeName(name);
+            writeString(value);
+        }
+    }
+
+    private void writeField(String name, Long value) throws IOException {
+        if (value != null) {
+            writeName(name);
+            writer.write(Long.toString(value));
+        }
+    }
+
+    private void writeString(String value) throws IOException {
+        writer.write('"');
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            // line and paragraph separators are valid JSON, but not valid JavaScript.
+            if (ch >= 0x20 && ch != '"' && ch != '\\' && ch != '\u2028' && ch != '\u2029') {
+                continue;
+            }
+
+            writer.write(value, start, i - start);
+            start = i + 1;
+            switch (ch) {
+                case '"':
+                    writer.write("\\\"");
+                    break;
+                case '\\':
+                    writer.write("\\\\");
+                    break;
+                case '\n':
+                    writer.write("\\n");
+                    break;
+                case '\r':
+                    writer.write("\\r");
+                    break;
+                case '\t':
+                    writer.write("\\t");
+                    break;
+                default:
+                    writer.write("\\u");
+                    writer.write(HEX[ch >> 12 & 0xF]);
+                    writer.write(HEX[ch >> 8 & 0xF]);
+                    writer.write(HEX[ch >> 4 & 0xF]);
+                    writer.write(HEX[ch & 0xF]);
+            }
+        }
+
+        writer.write(value, start, value.length() - start);
+        writer.write('"');
+    }
+}
@@ -0,0 +1,480 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import android.annotation.SuppressLint;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.ContactsContract;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Loads contact photos downsampled to a requested size.
+ * Decoded photos are kept in an LRU memory cache bounded by bytes and, optionally, in a disk cache.
+ * Concurrent requests for the same photo and size share a single decode.
+ *
+ * Photo uris of thumbnails and contact ids do not change when a photo changes, so the caches must be
+ * dropped with {@link #invalidate()} when the contacts change. The loader of a {@link ContactsClient}
+ * is invalidated by the client. Disk cache entries written before the latest contact update are
+ * dropped when the disk cache is first used, for changes made while the application was not running.
+ */
+public final class ContactPhotoLoader {
+    private static final String TAG = ContactPhotoLoader.class.getSimpleName();
+    private static final int DEFAULT_THREADS = 2;
+    private static final int DISK_CACHE_QUALITY = 90;
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final Context context;
+    private final BoundedCache<String, Bitmap> memoryCache;
+    private final File diskCacheDir;
+    private final long diskCacheBytes;
+    private final ConcurrentMap<String, FutureTask<Bitmap>> inFlight = new ConcurrentHashMap<>();
+    private final ExecutorService executor = Executors.newFixedThreadPool(DEFAULT_THREADS);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // incremented by invalidate(), photos loaded before are not cached.
+    private volatile int generation = 0;
+    private boolean diskCacheChecked = false;
+
+    /**
+     * Receives photos loaded by {@link #load(String, int, int, Callback)}.
+     */
+    public interface Callback {
+        /**
+         * Called on the main thread when a photo was loaded.
+         *
+         * @param photoUri  The requested photo uri.
+         * @param bitmap    The photo, or null if it could not be loaded.
+         */
+        void onPhotoLoaded(String photoUri, Bitmap bitmap);
+    }
+
+    /**
+     * Creates a photo loader.
+     *
+     * @param context           context.
+     * @param memoryCacheBytes  Maximal number of bytes held by decoded photos in memory.
+     * @param diskCacheDir      Directory for downsampled photos, or null to disable the disk cache.
+     * @param diskCacheBytes    Maximal size of the disk cache in bytes.
+     */
+    public ContactPhotoLoader(Context context, int memoryCacheBytes, File diskCacheDir, long diskCacheBytes) {
+        this.context = context.getApplicationContext();
+        this.memoryCache = new BoundedCache<String, Bitmap>(memoryCacheBytes) {
+            @Override
+            long sizeOf(String key, Bitmap value) {
+                return (long) value.getRowBytes() * value.getHeight();
+            }
+        };
+        this.diskCacheDir = diskCacheDir;
+        this.diskCacheBytes = diskCacheBytes;
+    }
+
+    /**
+     * Gets a photo from the memory cache, without loading it.
+     *
+     * @param photoUri  The photo uri, as returned by {@link Contact#getPhotoUri()}.
+     * @param width     Requested width in pixels.
+     * @param height    Requested height in pixels.
+     * @return          The cached photo or null.
+     */
+    public Bitmap getCached(String photoUri, int width, int height) {
+        return memoryCache.get(cacheKey(photoUri, width, height));
+    }
+
+    /**
+     * Loads a photo, blocking until it is available. Do not call from the main thread.
+     *
+     * @param photoUri  The photo uri, as returned by {@link Contact#getPhotoUri()}.
+     * @param width     Requested width in pixels.
+     * @param height    Requested height in pixels.
+     * @return          The photo, or null if it could not be loaded.
+     */
+    public Bitmap load(String photoUri, int width, int height) {
+        return load(Uri.parse(photoUri), cacheKey(photoUri, width, height), width, height, true);
+    }
+
+    /**
+     * Loads a contact's photo thumbnail, blocking until it is available. Do not call from the main thread.
+     * Uses the photo uri of the contact if it was fetched, the contact id otherwise.
+     *
+     * @param contact   The contact.
+     * @param width     Requested width in pixels.
+     * @param height    Requested height in pixels.
+     * @return          The photo, or null if the contact has no photo, or neither a photo uri nor an id.
+     */
+    public Bitmap load(Contact contact, int width, int height) {
+        if (contact.getPhotoUri() != null) {
+            return load(contact.getPhotoUri(), width, height);
+        }
+
+        if (contact.getId() == null) {
+            return null;
+        }
+
+        Uri contactUri = ContentUris.withAppendedId(ContactsContract.Contacts.CONTENT_URI, contact.getId());
+        return load(contactUri, cacheKey("contact:" + contact.getId(), width, height), width, height, false);
+    }
+
+    /**
+     * Loads a photo in the background. If the photo is in the memory cache,
+     * the callback is called before this method returns.
+     *
+     * @param photoUri  The photo uri, as returned by {@link Contact#getPhotoUri()}.
+     * @param width     Requested width in pixels.
+     * @param height    Requested height in pixels.
+     * @param callback  Called on the main thread with the photo.
+     */
+    public void load(final String photoUri, final int width, final int height, final Callback callback) {
+        Bitmap cached = getCached(photoUri, width, height);
+        if (cached != null) {
+            callback.onPhotoLoaded(photoUri, cached);
+            return;
+        }
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap bitmap = load(photoUri, width, height);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onPhotoLoaded(photoUri, bitmap);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Removes all photos from the memory cache.
+     */
+    public void clearMemoryCache() {
+        memoryCache.evictAll();
+    }
+
+    /**
+     * Removes all photos from the memory and the disk cache, call when the contacts change.
+     * Photos that are loading are returned to their callers but not cached.
+     */
+    public void invalidate() {
+        synchronized (this) {
+            generation++;
+            if (diskCacheDir != null) {
+                deleteDiskCache(Long.MAX_VALUE);
+            }
+        }
+
+        inFlight.clear();
+        memoryCache.evictAll();
+    }
+
+    /**
+     * Stops the background threads of the loader. Photos must not be loaded in the background
+     * after this call, blocking loads and the caches can still be used.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private Bitmap load(final Uri uri, final String key, final int width, final int height,
+                        final boolean isPhotoUri) {
+        Bitmap bitmap = memoryCache.get(key);
+        if (bitmap != null) {
+            return bitmap;
+        }
+
+        FutureTask<Bitmap> task = new FutureTask<>(new Callable<Bitmap>() {
+            @Override
+            public Bitmap call() throws Exception {
+                return loadUncached(uri, key, width, height, isPhotoUri);
+            }
+        });
+
+        FutureTask<Bitmap> running = inFlight.putIfAbsent(key, task);
+        if (running == null) {
+            running = task;
+            try {
+                task.run();
+            } finally {
+                inFlight.remove(key, task);
+            }
+        }
+
+        try {
+            return running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            Log.w(TAG, "Failed to load photo " + uri, e.getCause());
+            return null;
+        }
+    }
+
+    private Bitmap loadUncached(Uri uri, String key, int width, int height, boolean isPhotoUri)
+            throws IOException {
+        int loadGeneration = generation;
+        File diskFile = diskCacheFile(key);
+        if (diskFile != null && diskFile.exists()) {
+            Bitmap bitmap = BitmapFactory.decodeFile(diskFile.getPath(), null);
+            if (bitmap != null) {
+                diskFile.setLastModified(System.currentTimeMillis());
+                memoryCache.put(key, bitmap);
+                return bitmap;
+            }
+        }
+
+        byte[] data = readPhoto(uri, isPhotoUri);
+        if (data == null) {
+            return null;
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, width, height);
+        options.inJustDecodeBounds = false;
+
+        Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (bitmap == null) {
+            return null;
+        }
+
+        if (loadGeneration != generation) {
+            // the photo may have changed while it was read.
+            return bitmap;
+        }
+
+        memoryCache.put(key, bitmap);
+        if (diskFile != null) {
+            writeToDisk(diskFile, bitmap);
+        }
+
+        return bitmap;
+    }
+
+    private byte[] readPhoto(Uri uri, boolean isPhotoUri) throws IOException {
+        InputStream in = isPhotoUri ? context.getContentResolver().openInputStream(uri) :
+                ContactsContract.Contacts.openContactPhotoInputStream(context.getContentResolver(), uri);
+        if (in == null) {
+            return null;
+        }
+
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    static int calculateInSampleSize(int srcWidth, int srcHeight, int reqWidth, int reqHeight) {
+        int inSampleSize = 1;
+        if (reqWidth <= 0 || reqHeight <= 0) {
+            return inSampleSize;
+        }
+
+        while (srcWidth / (inSampleSize * 2) >= reqWidth && srcHeight / (inSampleSize * 2) >= reqHeight) {
+            inSampleSize *= 2;
+        }
+
+        return inSampleSize;
+    }
+
+    private File diskCacheFile(String key) {
+        if (diskCacheDir == null) {
+            return null;
+        }
+
+        if (!diskCacheDir.exists() && !diskCacheDir.mkdirs()) {
+            return null;
+        }
+
+        checkDiskCache();
+
+        return new File(diskCacheDir, hash(key));
+    }
+
+    private void writeToDisk(File file, Bitmap bitmap) {
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            OutputStream out = new FileOutputStream(tmp);
+            try {
+                // JPEG drops the alpha channel.
+                bitmap.compress(bitmap.hasAlpha() ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG,
+                        DISK_CACHE_QUALITY, out);
+            } finally {
+                out.close();
+            }
+
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write photo to disk cache", e);
+            tmp.delete();
+        }
+
+        trimDiskCache();
+    }
+
+    /**
+     * Drops the disk cache entries written before the latest contact update, once per loader.
+     */
+    private synchronized void checkDiskCache() {
+        if (diskCacheChecked) {
+            return;
+        }
+
+        diskCacheChecked = true;
+        deleteDiskCache(findLastUpdate());
+    }
+
+    /**
+     * Gets the time of the latest contact update, or the current time if it is not known.
+     */
+    @SuppressLint("InlinedApi")
+    private long findLastUpdate() {
+        long now = System.currentTimeMillis();
+        if (android.os.Build.VERSION.SDK_INT < android.os.Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            // no update times, any photo may have changed.
+            return now;
+        }
+
+        Cursor c;
+        try {
+            c = context.getContentResolver().query(ContactsContract.Contacts.CONTENT_URI.buildUpon()
+                            .appendQueryParameter(ContactsContract.LIMIT_PARAM_KEY, "1")
+                            .build(),
+                    new String[]{ContactsContract.Contacts.CONTACT_LAST_UPDATED_TIMESTAMP},
+                    null,
+                    null,
+                    ContactsContract.Contacts.CONTACT_LAST_UPDATED_TIMESTAMP + " DESC");
+        } catch (SecurityException e) {
+            return now;
+        }
+
+        if (c == null) {
+            return now;
+        }
+
+        try {
+            return c.moveToFirst() ? c.getLong(0) : 0;
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Deletes the disk cache entries last written or read at or before the given time.
+     */
+    private synchronized void deleteDiskCache(long before) {
+        File[] files = diskCacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        for (File file : files) {
+            if (file.lastModified() <= before) {
+                file.delete();
+            }
+        }
+    }
+
+    private synchronized void trimDiskCache() {
+        File[] files = diskCacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+
+        if (total <= diskCacheBytes) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified();
+                long r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+
+        for (File file : files) {
+            if (total <= diskCacheBytes) {
+                break;
+            }
+
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+            }
+        }
+    }
+
+    private static String cacheKey(String photoUri, int width, int height) {
+        return photoUri + '@' + width + 'x' + height;
+    }
+
+    private static String hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+
+            return sb.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            return Integer.toHexString(key.hashCode());
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import android.widget.SectionIndexer;
+
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A fast scroll SectionIndexer over a list of contacts sorted by sort key, for example the result
+ * of a query ordered by {@link Contact.Field#SortKey}. Sections are the {@link Contact#getSection()} labels
+ * in the order they appear, computed in a single pass over the list.
+ */
+public final class ContactSectionIndexer implements SectionIndexer {
+    private final String[] sections;
+    private final int[] sectionPositions;
+    private final int[] positionSections;
+
+    /**
+     * Creates the index of a sorted list of contacts. Contacts must have been fetched with the
+     * SortKey or DisplayName field.
+     *
+     * @param contacts  Contacts sorted by sort key.
+     */
+    public ContactSectionIndexer(List<Contact> contacts) {
+        List<String> sectionList = new ArrayList<>();
+        List<Integer> positionList = new ArrayList<>();
+        positionSections = new int[contacts.size()];
+
+        Map<String, Integer> sectionIndexes = new HashMap<>();
+        for (int i = 0; i < contacts.size(); i++) {
+            String section = contacts.get(i).getSection();
+            if (section == null) {
+                section = "#";
+            }
+
+            // a label that appears again later, for example an accented letter, keeps its first section.
+            Integer index = sectionIndexes.get(section);
+            if (index == null) {
+                index = sectionList.size();
+                sectionIndexes.put(section, index);
+                sectionList.add(section);
+                positionList.add(i);
+            }
+
+            positionSections[i] = index;
+        }
+
+        sections = sectionList.toArray(new String[sectionList.size()]);
+        sectionPositions = new int[positionList.size()];
+        for (int i = 0; i < sectionPositions.length; i++) {
+            sectionPositions[i] = positionList.get(i);
+        }
+    }
+
+    /**
+     * Sorts contacts by their collation keys, without any locale aware string comparisons.
+     * Keys that were not computed when the contacts were fetched, for example of contacts fetched without
+     * the SortKey field or decoded by {@link ContactCodec}, are computed first with a single Collator.
+     * Contacts must have been fetched with the SortKey or DisplayName field.
+     *
+     * @param contacts  The contacts to sort.
+     */
+    public static void sort(List<Contact> contacts) {
+        Collator collator = Collator.getInstance();
+        for (Contact contact : contacts) {
+            contact.ensureSortKeys(collator);
+        }
+
+        Collections.sort(contacts, new Comparator<Contact>() {
+            @Override
+            public int compare(Contact lhs, Contact rhs) {
+                if (lhs.getCollationKey() == null || rhs.getCollationKey() == null) {
+                    return lhs.getCollationKey() == null ? (rhs.getCollationKey() == null ? 0 : 1) : -1;
+                }
+
+                return lhs.getCollationKey().compareTo(rhs.getCollationKey());
+            }
+        });
+    }
+
+    @Override
+    public Object[] getSections() {
+        return sections;
+    }
+
+    @Override
+    public int getPositionForSection(int section) {
+        if (sections.length == 0) {
+            return 0;
+        }
+
+        return sectionPositions[Math.max(0, Math.min(section, sections.length - 1))];
+    }
+
+    @Override
+    public int getSectionForPosition(int position) {
+        if (positionSections.length == 0) {
+            return 0;
+        }
+
+        return positionSections[Math.max(0, Math.min(position, positionSections.length - 1))];
+    }
+}
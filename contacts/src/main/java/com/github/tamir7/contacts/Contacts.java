@@ -18,18 +18,113 @@ package com.github.tamir7.contacts;
 
 import android.content.Context;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
 public final class Contacts {
-    private static Context context;
+    private static ContactsClient client;
 
     private Contacts() {}
 
     /**
-     * Initialize the Contacts library
+     * Initialize the Contacts library. Does nothing if the library is already initialized.
      *
      * @param context context
      */
-    public static void initialize(Context context) {
-        Contacts.context = context.getApplicationContext();
+    public static synchronized void initialize(Context context) {
+        if (client == null) {
+            client = new ContactsClient.Builder(context).build();
+        }
+    }
+
+    /**
+     * Initialize the Contacts library, and warm it up on a background thread.
+     * Does nothing if the library is already initialized.
+     * Requires the READ_CONTACTS permission, the warm up is skipped if it is not granted.
+     *
+     * @param context   context
+     * @param warmUp    The warm up to run.
+     */
+    public static synchronized void initialize(Context context, WarmUp warmUp) {
+        if (client == null) {
+            client = new ContactsClient.Builder(context).setWarmUp(warmUp).build();
+        }
+    }
+
+    /**
+     * Initialize the Contacts library with a configured client.
+     * The client that was previously used by the library is shut down, unless it is the given client.
+     *
+     * @param client The client that the static functions of this class delegate to.
+     */
+    public static synchronized void initialize(ContactsClient client) {
+        if (Contacts.client != null && Contacts.client != client) {
+            Contacts.client.shutdown();
+        }
+
+        Contacts.client = client;
+    }
+
+    /**
+     * Get the client that the static functions of this class delegate to.
+     *
+     * @return  The default ContactsClient.
+     */
+    public static synchronized ContactsClient getClient() {
+        if (client == null) {
+            throw new IllegalStateException("Contacts library not initialized");
+        }
+
+        return client;
+    }
+
+    /**
+     * Get the contact index loaded by the warm up.
+     *
+     * @return  The latest ContactIndex, or null if it was not requested or is still loading.
+     * @see ContactsClient#getContactIndex()
+     */
+    public static ContactIndex getContactIndex() {
+        return getClient().getContactIndex();
+    }
+
+    /**
+     * Finds the events that occur today or within the following days.
+     *
+     * @param type  The type of events to find, or null for all types.
+     * @param days  The number of days to search, 1 for today only.
+     * @return      The upcoming events, ordered by date.
+     * @see ContactsClient#upcomingEvents(Event.Type, int)
+     */
+    public static List<EventIndex.UpcomingEvent> upcomingEvents(Event.Type type, int days) {
+        return getClient().upcomingEvents(type, days);
+    }
+
+    /**
+     * Finds the contacts of many phone numbers at once, with their display names and photo uris.
+     *
+     * @param numbers   The phone numbers to find.
+     * @return          The contact of every number that was found, in the order of the numbers.
+     * @see ContactsClient#lookupNumbers(Collection, Contact.Field...)
+     */
+    public static Map<String, Contact> lookupNumbers(Collection<String> numbers) {
+        return getClient().lookupNumbers(numbers);
+    }
+
+    /**
+     * Normalizes a phone number to E.164.
+     *
+     * @param number    The phone number.
+     * @return          The E.164 number, or null if it could not be normalized.
+     * @see ContactsClient#normalizePhoneNumber(String)
+     */
+    public static String normalizePhoneNumber(String number) {
+        return getClient().normalizePhoneNumber(number);
     }
 
     /**
@@ -38,10 +133,99 @@ public final class Contacts {
      * @return  A new Query object.
      */
     public static Query getQuery() {
-        if (Contacts.context == null) {
-            throw new IllegalStateException("Contacts library not initialized");
-        }
+        return getClient().getQuery();
+    }
+
+    /**
+     * Get a new ContactEditor object to insert, update and delete contacts in batches.
+     * Requires the WRITE_CONTACTS permission.
+     *
+     * @return  A new ContactEditor object.
+     */
+    public static ContactEditor batch() {
+        return getClient().batch();
+    }
+
+    /**
+     * Writes all contacts as vCard 3.0 to the given stream.
+     *
+     * @param out   The stream to write to. It is flushed but not closed.
+     * @return      The number of exported contacts.
+     * @throws IOException if writing to the stream fails.
+     * @see ContactsClient#exportVCard(OutputStream, VCardVersion)
+     */
+    public static int exportVCard(OutputStream out) throws IOException {
+        return getClient().exportVCard(out);
+    }
+
+    /**
+     * Writes all contacts as vCards to the given stream.
+     *
+     * @param out       The stream to write to. It is flushed but not closed.
+     * @param version   The vCard version to write.
+     * @return          The number of exported contacts.
+     * @throws IOException if writing to the stream fails.
+     * @see ContactsClient#exportVCard(OutputStream, VCardVersion)
+     */
+    public static int exportVCard(OutputStream out, VCardVersion version) throws IOException {
+        return getClient().exportVCard(out, version);
+    }
+
+    /**
+     * Writes all contacts as a JSON array to the given stream.
+     *
+     * @param out   The stream to write UTF-8 to. It is flushed but not closed.
+     * @return      The number of exported contacts.
+     * @throws IOException if writing to the stream fails.
+     * @see ContactsClient#exportJson(Query, OutputStream)
+     */
+    public static int exportJson(OutputStream out) throws IOException {
+        return getClient().exportJson(out);
+    }
 
-        return new Query(context);
+    /**
+     * Writes the contacts of a query as a JSON array to the given stream.
+     *
+     * @param query The query of the contacts to write.
+     * @param out   The stream to write UTF-8 to. It is flushed but not closed.
+     * @return      The number of exported contacts.
+     * @throws IOException if writing to the stream fails.
+     * @see ContactsClient#exportJson(Query, OutputStream)
+     */
+    public static int exportJson(Query query, OutputStream out) throws IOException {
+        return getClient().exportJson(query, out);
+    }
+
+    /**
+     * Imports all vCards of the given stream as new local contacts.
+     *
+     * @param in    The stream to read. It is closed when the import ends.
+     * @return      A future holding the number of imported contacts.
+     * @see ContactsClient#importVCard(InputStream, ImportListener)
+     */
+    public static Future<Integer> importVCard(InputStream in) {
+        return getClient().importVCard(in);
+    }
+
+    /**
+     * Imports all vCards of the given stream as new local contacts on a background thread.
+     *
+     * @param in        The stream to read. It is closed when the import ends.
+     * @param listener  Receives progress updates on the import thread, may be null.
+     * @return          A future holding the number of imported contacts.
+     * @see ContactsClient#importVCard(InputStream, ImportListener)
+     */
+    public static Future<Integer> importVCard(InputStream in, ImportListener listener) {
+        return getClient().importVCard(in, listener);
+    }
+
+    /**
+     * Get the shared photo loader. Its memory cache uses up to an eighth of the heap
+     * and its disk cache up to 10MB of the application cache directory.
+     *
+     * @return  The shared ContactPhotoLoader.
+     */
+    public static ContactPhotoLoader getPhotoLoader() {
+        return getClient().getPhotoLoader();
     }
 }
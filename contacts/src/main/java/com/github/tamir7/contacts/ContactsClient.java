@@ -0,0 +1,625 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import android.Manifest;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.database.ContentObserver;
+import android.provider.ContactsContract;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A client of the contacts provider with its own threads, caches and statistics.
+ * The configuration of a client can not be changed after it is built. All methods of a client,
+ * and the queries it creates, can be used concurrently from multiple threads.
+ *
+ * {@link Contacts} delegates to a default client created by {@link Contacts#initialize(Context)}.
+ */
+public final class ContactsClient {
+    private static final String TAG = ContactsClient.class.getSimpleName();
+    private static final String PHOTO_CACHE_DIR = "contact-photos";
+    private static final long PHOTO_DISK_CACHE_BYTES = 10 * 1024 * 1024;
+
+    private final Context context;
+    private final int photoMemoryCacheBytes;
+    private final File photoDiskCacheDir;
+    private final long photoDiskCacheBytes;
+    private final QueryStats stats;
+    private final PhoneNormalizer phoneNormalizer;
+    private final boolean loadContactIndex;
+    private final boolean loadPhoneLookup;
+    private final boolean loadEventIndex;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final ExecutorService queryExecutor;
+    private final QueryCoalescer queryCoalescer = new QueryCoalescer();
+    private final QueryCache queryCache;
+    private volatile ContactPhotoLoader photoLoader;
+    private final Object eventIndexLock = new Object();
+    private ContentObserver contentObserver;
+    private volatile ContactIndex contactIndex;
+    private volatile EventIndex eventIndex;
+    private boolean reloadPending = false;
+    private boolean shutdown = false;
+
+    /**
+     * Builds a ContactsClient.
+     */
+    public static final class Builder {
+        private final Context context;
+        private int queryThreads = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+        private int photoMemoryCacheBytes = (int) Math.min(Runtime.getRuntime().maxMemory() / 8, Integer.MAX_VALUE);
+        private File photoDiskCacheDir;
+        private long photoDiskCacheBytes = PHOTO_DISK_CACHE_BYTES;
+        private boolean collectStats = false;
+        private WarmUp warmUp = null;
+        private String defaultRegion;
+        private boolean defaultRegionSet = false;
+        private int queryCacheEntries = 0;
+        private long queryCacheBytes = 0;
+        private long queryCacheTtlMillis = 0;
+
+        /**
+         * Creates a builder with the default configuration.
+         *
+         * @param context   context
+         */
+        public Builder(Context context) {
+            this.context = context.getApplicationContext();
+            this.photoDiskCacheDir = new File(this.context.getCacheDir(), PHOTO_CACHE_DIR);
+        }
+
+        /**
+         * Sets the number of threads used to run the parallel parts of queries.
+         * Defaults to the number of processors, between 2 and 4.
+         *
+         * @param queryThreads  The number of threads.
+         * @return this, so you can chain this call.
+         */
+        public Builder setQueryThreads(int queryThreads) {
+            if (queryThreads < 1) {
+                throw new IllegalArgumentException("Query threads must be positive");
+            }
+
+            this.queryThreads = queryThreads;
+            return this;
+        }
+
+        /**
+         * Sets the size of the photo memory cache. Defaults to an eighth of the heap.
+         *
+         * @param bytes Maximal number of bytes held by decoded photos in memory.
+         * @return this, so you can chain this call.
+         */
+        public Builder setPhotoMemoryCacheBytes(int bytes) {
+            this.photoMemoryCacheBytes = bytes;
+            return this;
+        }
+
+        /**
+         * Sets the photo disk cache. Defaults to 10MB of the application cache directory.
+         *
+         * @param dir   Directory for downsampled photos, or null to disable the disk cache.
+         * @param bytes Maximal size of the disk cache in bytes.
+         * @return this, so you can chain this call.
+         */
+        public Builder setPhotoDiskCache(File dir, long bytes) {
+            this.photoDiskCacheDir = dir;
+            this.photoDiskCacheBytes = bytes;
+            return this;
+        }
+
+        /**
+         * Collect statistics of all provider queries of the client, see {@link ContactsClient#getStats()}.
+         *
+         * @return this, so you can chain this call.
+         */
+        public Builder collectStats() {
+            this.collectStats = true;
+            return this;
+        }
+
+        /**
+         * Sets the region that phone numbers without a country code are interpreted in, when the provider
+         * did not normalize them. Defaults to the region of the network, the SIM or the default locale.
+         *
+         * @param region    ISO 3166 region code, such as "US", or null to only normalize international numbers.
+         * @return this, so you can chain this call.
+         */
+        public Builder setDefaultRegion(String region) {
+            this.defaultRegion = region;
+            this.defaultRegionSet = true;
+            return this;
+        }
+
+        /**
+         * Caches the results of {@link Query#find()} for the queries of the client. Queries with the same
+         * constraints, included fields and sort order are answered from the cache, regardless of the order
+         * of the operands of their conditions. All results are dropped when the contacts change, at once
+         * for changes made with {@link #batch()} and otherwise when the change is observed. The cache is
+         * disabled by {@link #shutdown()}. Results are not cached by default.
+         *
+         * @param maxEntries    The maximal number of cached results, or 0 to not cache results.
+         * @param maxBytes      The maximal estimated memory of the cached results.
+         * @param ttlMillis     The time a result is used for, or 0 to use it until the contacts change.
+         * @return this, so you can chain this call.
+         */
+        public Builder setQueryCache(int maxEntries, long maxBytes, long ttlMillis) {
+            if (maxEntries < 0 || (maxEntries > 0 && maxBytes <= 0) || ttlMillis < 0) {
+                throw new IllegalArgumentException("Invalid query cache bounds");
+            }
+
+            this.queryCacheEntries = maxEntries;
+            this.queryCacheBytes = maxBytes;
+            this.queryCacheTtlMillis = ttlMillis;
+            return this;
+        }
+
+        /**
+         * Warm up the client in the background when it is built.
+         * Requires the READ_CONTACTS permission, the warm up is skipped if it is not granted.
+         *
+         * @param warmUp    The warm up to run, or null for none.
+         * @return this, so you can chain this call.
+         */
+        public Builder setWarmUp(WarmUp warmUp) {
+            this.warmUp = warmUp;
+            return this;
+        }
+
+        /**
+         * Builds the client.
+         *
+         * @return  A new ContactsClient.
+         */
+        public ContactsClient build() {
+            return new ContactsClient(this);
+        }
+    }
+
+    private ContactsClient(Builder builder) {
+        this.context = builder.context;
+        this.photoMemoryCacheBytes = builder.photoMemoryCacheBytes;
+        this.photoDiskCacheDir = builder.photoDiskCacheDir;
+        this.photoDiskCacheBytes = builder.photoDiskCacheBytes;
+        this.stats = builder.collectStats ? new QueryStats() : null;
+        this.phoneNormalizer = new PhoneNormalizer(builder.defaultRegionSet ? builder.defaultRegion :
+                PhoneNormalizer.detectRegion(context));
+        this.loadContactIndex = builder.warmUp != null && builder.warmUp.isContactIndex();
+        this.loadPhoneLookup = builder.warmUp != null && builder.warmUp.isPhoneLookup();
+        this.loadEventIndex = builder.warmUp != null && builder.warmUp.isEventIndex();
+        this.queryExecutor = Executors.newFixedThreadPool(builder.queryThreads);
+        this.queryCache = builder.queryCacheEntries == 0 ? null :
+                new QueryCache(builder.queryCacheEntries, builder.queryCacheBytes, builder.queryCacheTtlMillis);
+
+        if (builder.warmUp != null) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    warmUp();
+                }
+            });
+        }
+    }
+
+    /**
+     * Get a new Query object to find contacts.
+     *
+     * @return  A new Query object.
+     */
+    public Query getQuery() {
+        // running queries must not be joined after the contacts change.
+        registerContentObserver();
+        return new Query(context, queryExecutor, stats, phoneNormalizer, queryCoalescer, queryCache);
+    }
+
+    /**
+     * Get a new ContactEditor object to insert, update and delete contacts in batches.
+     * Requires the WRITE_CONTACTS permission.
+     *
+     * @return  A new ContactEditor object.
+     */
+    public ContactEditor batch() {
+        return new ContactEditor(context, new Runnable() {
+            @Override
+            public void run() {
+                invalidateQueries();
+            }
+        });
+    }
+
+    /**
+     * Writes all contacts as vCard 3.0 to the given stream.
+     *
+     * @param out   The stream to write to. It is flushed but not closed.
+     * @return      The number of exported contacts.
+     * @throws IOException if writing to the stream fails.
+     * @see #exportVCard(OutputStream, VCardVersion)
+     */
+    public int exportVCard(OutputStream out) throws IOException {
+        return exportVCard(out, VCardVersion.V3_0);
+    }
+
+    /**
+     * Writes all contacts as vCards to the given stream.
+     * Contacts are streamed from the provider cursor and written one at a time, so the export runs in
+     * constant memory and output starts with the first contact.
+     *
+     * @param out       The stream to write to. It is flushed but not closed.
+     * @param version   The vCard version to write.
+     * @return          The number of exported contacts.
+     * @throws IOException if writing to the stream fails.
+     */
+    public int exportVCard(OutputStream out, VCardVersion version) throws IOException {
+        VCardWriter writer = new VCardWriter(out, version);
+        try {
+            getQuery().forEach(writer);
+        } catch (IllegalStateException e) {
+            IOException cause = VCardWriter.unwrap(e);
+            if (cause != null) {
+                throw cause;
+            }
+
+            throw e;
+        }
+
+        writer.flush();
+        return writer.getCount();
+    }
+
+    /**
+     * Writes all contacts as a JSON array to the given stream.
+     *
+     * @param out   The stream to write UTF-8 to. It is flushed but not closed.
+     * @return      The number of exported contacts.
+     * @throws IOException if writing to the stream fails.
+     * @see #exportJson(Query, OutputStream)
+     */
+    public int exportJson(OutputStream out) throws IOException {
+        return exportJson(getQuery(), out);
+    }
+
+    /**
+     * Writes the contacts of a query as a JSON array to the given stream.
+     * Contacts are streamed from the provider cursor and written one at a time, so the export runs in
+     * constant memory and output starts with the first contact, for example as an upload body.
+     *
+     * @param query The query of the contacts to write.
+     * @param out   The stream to write UTF-8 to. It is flushed but not closed.
+     * @return      The number of exported contacts.
+     * @throws IOException if writing to the stream fails.
+     * @see ContactJsonWriter
+     */
+    public int exportJson(Query query, OutputStream out) throws IOException {
+        ContactJsonWriter writer = new ContactJsonWriter(out);
+        try {
+            query.forEach(writer);
+        } catch (IllegalStateException e) {
+            IOException cause = ContactJsonWriter.unwrap(e);
+            if (cause != null) {
+                throw cause;
+            }
+
+            throw e;
+        }
+
+        writer.finish();
+        return writer.getCount();
+    }
+
+    /**
+     * Imports all vCards of the given stream as new local contacts.
+     *
+     * @param in    The stream to read. It is closed when the import ends.
+     * @return      A future holding the number of imported contacts.
+     * @see #importVCard(InputStream, ImportListener)
+     */
+    public Future<Integer> importVCard(InputStream in) {
+        return importVCard(in, null);
+    }
+
+    /**
+     * Imports all vCards of the given stream as new local contacts on a background thread.
+     * The stream is parsed incrementally and contacts are inserted in bounded batches,
+     * so memory usage does not depend on the size of the input.
+     * Requires the WRITE_CONTACTS permission.
+     *
+     * @param in        The stream to read. It is closed when the import ends.
+     * @param listener  Receives progress updates on the import thread, may be null.
+     * @return          A future holding the number of imported contacts.
+     */
+    public Future<Integer> importVCard(InputStream in, ImportListener listener) {
+        return executor.submit(new VCardImporter(in, batch(), listener));
+    }
+
+    /**
+     * Get the photo loader of this client, created on first use.
+     * Its caches are invalidated when the contacts change.
+     *
+     * @return  The client's ContactPhotoLoader.
+     */
+    public synchronized ContactPhotoLoader getPhotoLoader() {
+        if (photoLoader == null) {
+            photoLoader = new ContactPhotoLoader(context, photoMemoryCacheBytes, photoDiskCacheDir,
+                    photoDiskCacheBytes);
+            registerContentObserver();
+        }
+
+        return photoLoader;
+    }
+
+    /**
+     * Get the contact index loaded by the warm up. The returned index is not modified,
+     * a new index is loaded in the background after the contacts change.
+     *
+     * @return  The latest ContactIndex, or null if it was not requested or is still loading.
+     */
+    public ContactIndex getContactIndex() {
+        return contactIndex;
+    }
+
+    /**
+     * Get the event index, loading it on the calling thread on first use unless the warm up loaded it.
+     * The returned index is not modified, a new index is loaded in the background after the contacts change.
+     * Requires the READ_CONTACTS permission.
+     *
+     * @return  The latest EventIndex.
+     */
+    public EventIndex getEventIndex() {
+        EventIndex index = eventIndex;
+        if (index != null) {
+            return index;
+        }
+
+        synchronized (eventIndexLock) {
+            if (eventIndex == null) {
+                eventIndex = EventIndex.load(context);
+                registerContentObserver();
+            }
+
+            return eventIndex;
+        }
+    }
+
+    /**
+     * Finds the events that occur today or within the following days, from the event index.
+     * Requires the READ_CONTACTS permission.
+     *
+     * @param type  The type of events to find, or null for all types.
+     * @param days  The number of days to search, 1 for today only.
+     * @return      The upcoming events, ordered by date.
+     * @see EventIndex#upcoming(Event.Type, int)
+     */
+    public List<EventIndex.UpcomingEvent> upcomingEvents(Event.Type type, int days) {
+        return getEventIndex().upcoming(type, days);
+    }
+
+    /**
+     * Finds the contacts of many phone numbers at once, for example to show the names of a call log,
+     * with their display names and photo uris.
+     *
+     * @param numbers   The phone numbers to find.
+     * @return          The contact of every number that was found, in the order of the numbers.
+     * @see #lookupNumbers(Collection, Contact.Field...)
+     */
+    public Map<String, Contact> lookupNumbers(Collection<String> numbers) {
+        return lookupNumbers(numbers, Contact.Field.DisplayName, Contact.Field.PhotoUri);
+    }
+
+    /**
+     * Finds the contacts of many phone numbers at once. If the warm up loaded the phone lookup table,
+     * numbers are resolved from the {@link ContactIndex}. Otherwise numbers are matched by their E.164
+     * form in chunked provider queries, and numbers that are not found that way in one pass over the
+     * phone numbers that the provider did not normalize. The matching contacts are then fetched with
+     * a single query. A number of several contacts is resolved to one of them.
+     * Requires the READ_CONTACTS permission.
+     *
+     * @param numbers   The phone numbers to find.
+     * @param fields    The fields of the returned contacts.
+     * @return          The contact of every number that was found, in the order of the numbers.
+     */
+    public Map<String, Contact> lookupNumbers(Collection<String> numbers, Contact.Field... fields) {
+        Map<String, Long> contactIds;
+        ContactIndex index = contactIndex;
+        if (index != null && index.hasPhoneLookup()) {
+            contactIds = new HashMap<>();
+            for (String number : numbers) {
+                Set<Long> ids = number == null ? null : index.findByPhoneNumber(number);
+                if (ids != null && !ids.isEmpty()) {
+                    contactIds.put(number, ids.iterator().next());
+                }
+            }
+        } else {
+            contactIds = new PhoneNumberLookup(context, phoneNormalizer, stats).resolve(numbers);
+        }
+
+        Map<Long, Contact> contacts = new HashMap<>();
+        if (!contactIds.isEmpty()) {
+            Query query = getQuery().include(fields);
+            for (Contact contact : query.find(new ArrayList<>(new HashSet<>(contactIds.values())))) {
+                contacts.put(contact.getId(), contact);
+            }
+        }
+
+        Map<String, Contact> result = new LinkedHashMap<>();
+        for (String number : numbers) {
+            Long contactId = contactIds.get(number);
+            Contact contact = contactId == null ? null : contacts.get(contactId);
+            if (contact != null) {
+                result.put(number, contact);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Normalizes a phone number to E.164, as done for the phone numbers that the provider did not normalize.
+     * Numbers without a country code are interpreted in the client's default region.
+     *
+     * @param number    The phone number.
+     * @return          The E.164 number, or null if it could not be normalized.
+     */
+    public String normalizePhoneNumber(String number) {
+        return phoneNormalizer.normalize(number);
+    }
+
+    /**
+     * Get the statistics of all provider queries executed by queries of this client.
+     *
+     * @return  The client's QueryStats, or null if the client was not built to collect statistics.
+     */
+    public QueryStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Get the statistics of the query result cache of this client.
+     *
+     * @return  A snapshot of the cache statistics, or null if the client was not built with a query cache.
+     */
+    public QueryCacheStats getQueryCacheStats() {
+        return queryCache == null ? null : queryCache.getStats();
+    }
+
+    /**
+     * Stops the background threads of the client. Queries that run in parallel and imports
+     * must not be started after this call. Other queries still run, but their results are no longer cached.
+     */
+    public synchronized void shutdown() {
+        shutdown = true;
+        if (contentObserver != null) {
+            context.getContentResolver().unregisterContentObserver(contentObserver);
+            contentObserver = null;
+        }
+
+        // without the observer cached results would never be invalidated again.
+        if (queryCache != null) {
+            queryCache.disable();
+        }
+
+        if (photoLoader != null) {
+            photoLoader.shutdown();
+        }
+
+        executor.shutdown();
+        queryExecutor.shutdown();
+    }
+
+    private void warmUp() {
+        if (context.checkCallingOrSelfPermission(Manifest.permission.READ_CONTACTS) !=
+                PackageManager.PERMISSION_GRANTED) {
+            Log.i(TAG, "Skipping warm up, READ_CONTACTS is not granted");
+            return;
+        }
+
+        try {
+            // starts the provider process and loads the query classes.
+            getQuery().exists();
+
+            if (loadContactIndex) {
+                contactIndex = ContactIndex.load(context, loadPhoneLookup ? phoneNormalizer : null);
+                registerContentObserver();
+            }
+
+            if (loadEventIndex) {
+                getEventIndex();
+            }
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Failed to warm up", e);
+        }
+    }
+
+    private synchronized void registerContentObserver() {
+        if (shutdown || contentObserver != null) {
+            return;
+        }
+
+        contentObserver = new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                invalidateQueries();
+                ContactPhotoLoader loader = photoLoader;
+                if (loader != null) {
+                    loader.invalidate();
+                }
+
+                scheduleReload();
+            }
+        };
+
+        context.getContentResolver().registerContentObserver(ContactsContract.AUTHORITY_URI, true,
+                contentObserver);
+    }
+
+    // the observer is notified asynchronously, writes of this client invalidate at once.
+    private void invalidateQueries() {
+        queryCoalescer.invalidate();
+        if (queryCache != null) {
+            queryCache.invalidate();
+        }
+    }
+
+    private synchronized void scheduleReload() {
+        if (reloadPending || shutdown) {
+            return;
+        }
+
+        reloadPending = true;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (ContactsClient.this) {
+                    reloadPending = false;
+                }
+
+                if (contactIndex != null) {
+                    try {
+                        contactIndex = ContactIndex.load(context, loadPhoneLookup ? phoneNormalizer : null);
+                    } catch (RuntimeException e) {
+                        Log.w(TAG, "Failed to reload contact index", e);
+                    }
+                }
+
+                EventIndex index = eventIndex;
+                if (index != null) {
+                    try {
+                        eventIndex = index.refresh(context);
+                    } catch (RuntimeException e) {
+                        Log.w(TAG, "Failed to refresh event index", e);
+                    }
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import java.util.List;
+
+/**
+ * A stable 64 bit hash of the content of a contact: its names, phone numbers, emails, addresses, events,
+ * organization, websites and note. Device specific values, such as ids, photo uris, normalized numbers,
+ * sort keys, starred and contact counts, are not part of the content.
+ *
+ * Strings are hashed as UTF-16 code units with 64 bit FNV-1a, prefixed by their length (-1 for null).
+ * Phone numbers, emails, addresses, events and websites are sets, so each element is hashed on its own,
+ * finalized with {@link #mix(long)}, and the element hashes are summed.
+ */
+final class ContentHash {
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private long hash = FNV_OFFSET;
+
+    private ContentHash() {}
+
+    static long of(Contact contact) {
+        ContentHash hash = new ContentHash()
+                .add(contact.getDisplayName())
+                .add(contact.getGivenName())
+                .add(contact.getFamilyName())
+                .add(contact.getMiddleName())
+                .add(contact.getNamePrefix())
+                .add(contact.getNameSuffix())
+                .add(contact.getPhoneticGivenName())
+                .add(contact.getPhoneticMiddleName())
+                .add(contact.getPhoneticFamilyName())
+                .add(contact.getNickname())
+                .add(contact.getCompanyName())
+                .add(contact.getCompanyTitle())
+                .add(contact.getNote());
+
+        long phoneNumbers = 0;
+        for (PhoneNumber phoneNumber : contact.getPhoneNumbers()) {
+            phoneNumbers += new ContentHash()
+                    .add(phoneNumber.getNumber())
+                    .add(phoneNumber.getType().name())
+                    .add(phoneNumber.getLabel())
+                    .finish();
+        }
+
+        long emails = 0;
+        for (Email email : contact.getEmails()) {
+            emails += new ContentHash()
+                    .add(email.getAddress())
+                    .add(email.getType().name())
+                    .add(email.getLabel())
+                    .finish();
+        }
+
+        long addresses = 0;
+        for (Address address : contact.getAddresses()) {
+            addresses += new ContentHash()
+                    .add(address.getFormattedAddress())
+                    .add(address.getType().name())
+                    .add(address.getStreet())
+                    .add(address.getCity())
+                    .add(address.getRegion())
+                    .add(address.getPostcode())
+                    .add(address.getCountry())
+                    .add(address.getLabel())
+                    .finish();
+        }
+
+        long events = 0;
+        for (Event event : contact.getEvents()) {
+            events += new ContentHash()
+                    .add(event.getStartDate())
+                    .add(event.getType().name())
+                    .add(event.getLabel())
+                    .finish();
+        }
+
+        return hash.add(phoneNumbers)
+                .add(emails)
+                .add(addresses)
+                .add(events)
+                .add(addAll(contact.getWebsites()))
+                .finish();
+    }
+
+    private static long addAll(List<String> values) {
+        long sum = 0;
+        for (String value : values) {
+            sum += new ContentHash().add(value).finish();
+        }
+
+        return sum;
+    }
+
+    /**
+     * The finalizer of SplitMix64, which spreads every input bit over the whole output.
+     */
+    static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+        value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+        return value ^ (value >>> 31);
+    }
+
+    private ContentHash add(String value) {
+        if (value == null) {
+            return add(-1);
+        }
+
+        add(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            addUnit(value.charAt(i));
+        }
+
+        return this;
+    }
+
+    private ContentHash add(long value) {
+        for (int shift = 48; shift >= 0; shift -= 16) {
+            addUnit((int) (value >>> shift) & 0xFFFF);
+        }
+
+        return this;
+    }
+
+    private void addUnit(int unit) {
+        hash = (hash ^ unit) * FNV_PRIME;
+    }
+
+    private long finish() {
+        return mix(hash);
+    }
+}
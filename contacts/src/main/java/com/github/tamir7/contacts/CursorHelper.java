@@ -16,14 +16,24 @@
 
 package com.github.tamir7.contacts;
 
+import android.annotation.SuppressLint;
 import android.database.Cursor;
 import android.provider.ContactsContract;
 
 class CursorHelper {
     private final Cursor c;
+    private final PhoneNormalizer phoneNormalizer;
 
     CursorHelper(Cursor c) {
+        this(c, null);
+    }
+
+    /**
+     * @param phoneNormalizer   Normalizes the phone numbers that the provider did not normalize, or null.
+     */
+    CursorHelper(Cursor c, PhoneNormalizer phoneNormalizer) {
         this.c = c;
+        this.phoneNormalizer = phoneNormalizer;
     }
 
     Long getContactId() {
@@ -46,6 +56,38 @@ class CursorHelper {
         return getString(c, ContactsContract.CommonDataKinds.StructuredName.FAMILY_NAME);
     }
 
+    String getMiddleName() {
+        return getString(c, ContactsContract.CommonDataKinds.StructuredName.MIDDLE_NAME);
+    }
+
+    String getNamePrefix() {
+        return getString(c, ContactsContract.CommonDataKinds.StructuredName.PREFIX);
+    }
+
+    String getNameSuffix() {
+        return getString(c, ContactsContract.CommonDataKinds.StructuredName.SUFFIX);
+    }
+
+    String getPhoneticGivenName() {
+        return getString(c, ContactsContract.CommonDataKinds.StructuredName.PHONETIC_GIVEN_NAME);
+    }
+
+    String getPhoneticMiddleName() {
+        return getString(c, ContactsContract.CommonDataKinds.StructuredName.PHONETIC_MIDDLE_NAME);
+    }
+
+    String getPhoneticFamilyName() {
+        return getString(c, ContactsContract.CommonDataKinds.StructuredName.PHONETIC_FAMILY_NAME);
+    }
+
+    String getNickname() {
+        return getString(c, ContactsContract.CommonDataKinds.Nickname.NAME);
+    }
+
+    String getSortKey() {
+        return getString(c, ContactsContract.Data.SORT_KEY_PRIMARY);
+    }
+
     String getCompanyName() {
         return getString(c, ContactsContract.CommonDataKinds.Organization.COMPANY);
     }
@@ -96,6 +138,10 @@ class CursorHelper {
             normalizedNumber = getString(c, ContactsContract.CommonDataKinds.Phone.NORMALIZED_NUMBER);
         }
 
+        if (normalizedNumber == null && phoneNormalizer != null) {
+            normalizedNumber = phoneNormalizer.normalize(number);
+        }
+
         Integer typeValue = getInt(c, ContactsContract.CommonDataKinds.Phone.TYPE);
         PhoneNumber.Type type = typeValue == null ? PhoneNumber.Type.UNKNOWN :
                 PhoneNumber.Type.fromValue(typeValue);
@@ -122,6 +168,20 @@ class CursorHelper {
         return new Email(address, getString(c, ContactsContract.CommonDataKinds.Email.LABEL));
     }
 
+    Boolean getStarred() {
+        Integer starred = getInt(c, ContactsContract.Data.STARRED);
+        return starred == null ? null : starred != 0;
+    }
+
+    Integer getTimesContacted() {
+        return getInt(c, ContactsContract.Data.TIMES_CONTACTED);
+    }
+
+    @SuppressLint("InlinedApi")
+    Long getLastUpdated() {
+        return getLong(c, ContactsContract.Data.CONTACT_LAST_UPDATED_TIMESTAMP);
+    }
+
     String getPhotoUri() {
         return getString(c, ContactsContract.Data.PHOTO_URI);
     }
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import android.database.AbstractWindowedCursor;
+import android.database.Cursor;
+import android.database.CursorWindow;
+import android.database.CursorWrapper;
+
+/**
+ * Tracks the rows read from a single provider cursor.
+ * Cursors returned by a content provider in another process are filled one CursorWindow at a time,
+ * a window fill is detected whenever the window of the underlying windowed cursor moves.
+ */
+final class CursorTracker {
+    private final QueryStats stats;
+    private final QueryStats clientStats;
+    private final long start = System.nanoTime();
+    private boolean unwrapped = false;
+    private AbstractWindowedCursor windowedCursor;
+    private CursorWindow window;
+    private int windowStart = -1;
+    private int rows = 0;
+    private int windowFills = 0;
+    private int firstWindowRows = 0;
+    private long estimatedBytes = 0;
+
+    /**
+     * @param stats         Receives the tracked statistics when the cursor is finished, or null.
+     * @param clientStats   Also receives the tracked statistics, or null.
+     */
+    CursorTracker(QueryStats stats, QueryStats clientStats) {
+        this.stats = stats;
+        this.clientStats = clientStats;
+    }
+
+    /**
+     * Called for every row read, after the cursor was moved to it.
+     */
+    void onRow(Cursor c) {
+        rows++;
+        if (!unwrapped) {
+            windowedCursor = unwrap(c);
+            unwrapped = true;
+        }
+
+        if (windowedCursor != null) {
+            CursorWindow currentWindow = windowedCursor.getWindow();
+            if (currentWindow != null &&
+                    (currentWindow != window || currentWindow.getStartPosition() != windowStart)) {
+                window = currentWindow;
+                windowStart = currentWindow.getStartPosition();
+                windowFills++;
+                if (windowFills == 1) {
+                    firstWindowRows = currentWindow.getNumRows();
+                }
+            }
+        }
+
+        if (stats != null || clientStats != null) {
+            estimatedBytes += QueryStats.estimateRowBytes(c);
+        }
+    }
+
+    /**
+     * Called once after the cursor was read.
+     */
+    void finish() {
+        long elapsedNanos = System.nanoTime() - start;
+        if (stats != null) {
+            stats.record(rows, windowFills, estimatedBytes, elapsedNanos);
+        }
+
+        if (clientStats != null) {
+            clientStats.record(rows, windowFills, estimatedBytes, elapsedNanos);
+        }
+    }
+
+    int getRows() {
+        return rows;
+    }
+
+    int getWindowFills() {
+        return windowFills;
+    }
+
+    /**
+     * The number of rows of the first window, which is the number of rows that fit in a window
+     * if the cursor needed more than one.
+     */
+    int getFirstWindowRows() {
+        return firstWindowRows;
+    }
+
+    private static AbstractWindowedCursor unwrap(Cursor c) {
+        while (c instanceof CursorWrapper) {
+            c = ((CursorWrapper) c).getWrappedCursor();
+        }
+
+        return c instanceof AbstractWindowedCursor ? (AbstractWindowedCursor) c : null;
+    }
+}
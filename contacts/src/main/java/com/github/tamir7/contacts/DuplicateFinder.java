@@ -0,0 +1,368 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import android.telephony.PhoneNumberUtils;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds clusters of contacts that are likely duplicates of each other.
+ * Instead of comparing every pair of contacts, contacts are grouped into blocks by keys derived from
+ * their phone numbers, email addresses and names, and only contacts that share a block are scored.
+ * Blocks larger than the maximal block size, such as a very common name, carry little signal and are
+ * skipped, so the running time grows close to linearly with the number of contacts.
+ *
+ * Contacts should be fetched with the DisplayName, GivenName, FamilyName, PhoneticGivenName,
+ * PhoneticFamilyName, PhoneNumber and Email fields.
+ */
+public final class DuplicateFinder {
+    // the number of trailing digits of phone number block keys, as in caller id matching.
+    private static final int PHONE_KEY_DIGITS = 7;
+    private static final float PHONE_SCORE = 0.6f;
+    private static final float EMAIL_SCORE = 0.6f;
+    private static final float NAME_SCORE = 0.4f;
+    // scores are combined in float, a score equal to the threshold must not fall below it by rounding.
+    private static final float SCORE_TOLERANCE = 1e-6f;
+
+    private float threshold = 0.5f;
+    private int maxBlockSize = 50;
+
+    /**
+     * A cluster of contacts that are likely duplicates of each other.
+     */
+    public static final class Cluster {
+        private final List<Contact> contacts;
+        private final float score;
+
+        private Cluster(List<Contact> contacts, float score) {
+            this.contacts = Collections.unmodifiableList(contacts);
+            this.score = score;
+        }
+
+        /**
+         * Gets the contacts of the cluster.
+         *
+         * @return contacts, at least two.
+         */
+        public List<Contact> getContacts() {
+            return contacts;
+        }
+
+        /**
+         * Gets the highest score of a pair of contacts in the cluster.
+         *
+         * @return score between 0 and 1.
+         */
+        public float getScore() {
+            return score;
+        }
+    }
+
+    // the keys of a contact, computed once.
+    private static final class Keys {
+        private final Contact contact;
+        private final List<String> phoneNumbers = new ArrayList<>();
+        private final Set<String> emails = new HashSet<>();
+        private final String name;
+
+        Keys(Contact contact) {
+            this.contact = contact;
+            for (PhoneNumber phoneNumber : contact.getPhoneNumbers()) {
+                String number = phoneNumber.getNormalizedNumber() != null ?
+                        phoneNumber.getNormalizedNumber() : phoneNumber.getNumber();
+                if (number != null) {
+                    phoneNumbers.add(number);
+                }
+            }
+
+            for (Email email : contact.getEmails()) {
+                if (email.getAddress() != null) {
+                    emails.add(email.getAddress().trim().toLowerCase(Locale.US));
+                }
+            }
+
+            this.name = nameKey(contact);
+        }
+    }
+
+    /**
+     * Sets the minimal score of a pair of contacts to be considered duplicates. Defaults to 0.5.
+     * A shared phone number or email address scores 0.6, the same name scores 0.4,
+     * and the scores of a pair are combined as independent evidence.
+     *
+     * @param threshold Score above 0, at most 1.
+     * @return this, so you can chain this call.
+     */
+    public DuplicateFinder setThreshold(float threshold) {
+        if (threshold <= 0 || threshold > 1) {
+            throw new IllegalArgumentException("Threshold must be above 0 and at most 1");
+        }
+
+        this.threshold = threshold;
+        return this;
+    }
+
+    /**
+     * Sets the maximal number of contacts in a block, larger blocks are not scored. Defaults to 50.
+     *
+     * @param maxBlockSize  The maximal block size.
+     * @return this, so you can chain this call.
+     */
+    public DuplicateFinder setMaxBlockSize(int maxBlockSize) {
+        if (maxBlockSize < 2) {
+            throw new IllegalArgumentException("Max block size must be at least 2");
+        }
+
+        this.maxBlockSize = maxBlockSize;
+        return this;
+    }
+
+    /**
+     * Finds the duplicate clusters of the given contacts.
+     *
+     * @param contacts  The contacts to search.
+     * @return          The clusters, highest score first.
+     */
+    public List<Cluster> find(List<Contact> contacts) {
+        Keys[] keys = new Keys[contacts.size()];
+        Map<String, List<Integer>> blocks = new HashMap<>();
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = new Keys(contacts.get(i));
+            for (String number : keys[i].phoneNumbers) {
+                String key = phoneBlockKey(number);
+                if (key != null) {
+                    addToBlock(blocks, "p:" + key, i);
+                }
+            }
+
+            for (String email : keys[i].emails) {
+                addToBlock(blocks, "e:" + email, i);
+            }
+
+            if (keys[i].name != null) {
+                addToBlock(blocks, "n:" + keys[i].name, i);
+            }
+        }
+
+        int[] parents = new int[keys.length];
+        float[] scores = new float[keys.length];
+        for (int i = 0; i < parents.length; i++) {
+            parents[i] = i;
+        }
+
+        Set<Long> scoredPairs = new HashSet<>();
+        for (List<Integer> block : blocks.values()) {
+            if (block.size() < 2 || block.size() > maxBlockSize) {
+                continue;
+            }
+
+            for (int i = 0; i < block.size(); i++) {
+                for (int j = i + 1; j < block.size(); j++) {
+                    int a = block.get(i);
+                    int b = block.get(j);
+                    if (a == b || !scoredPairs.add(((long) Math.min(a, b) << 32) | Math.max(a, b))) {
+                        continue;
+                    }
+
+                    float score = score(keys[a], keys[b]);
+                    if (score >= threshold - SCORE_TOLERANCE) {
+                        union(parents, scores, a, b, score);
+                    }
+                }
+            }
+        }
+
+        return buildClusters(keys, parents, scores);
+    }
+
+    private static void addToBlock(Map<String, List<Integer>> blocks, String key, int index) {
+        List<Integer> block = blocks.get(key);
+        if (block == null) {
+            block = new ArrayList<>(2);
+            blocks.put(key, block);
+        }
+
+        // a contact may have the same key twice, for example two formats of one number.
+        if (block.isEmpty() || block.get(block.size() - 1) != index) {
+            block.add(index);
+        }
+    }
+
+    private static float score(Keys a, Keys b) {
+        float distinct = 1;
+        if (sharePhoneNumber(a, b)) {
+            distinct *= 1 - PHONE_SCORE;
+        }
+
+        if (!Collections.disjoint(a.emails, b.emails)) {
+            distinct *= 1 - EMAIL_SCORE;
+        }
+
+        if (a.name != null && a.name.equals(b.name)) {
+            distinct *= 1 - NAME_SCORE;
+        }
+
+        return 1 - distinct;
+    }
+
+    private static boolean sharePhoneNumber(Keys a, Keys b) {
+        for (String first : a.phoneNumbers) {
+            for (String second : b.phoneNumbers) {
+                if (PhoneNumberUtils.compare(first, second)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    private static int find(int[] parents, int i) {
+        while (parents[i] != i) {
+            parents[i] = parents[parents[i]];
+            i = parents[i];
+        }
+
+        return i;
+    }
+
+    // merges the clusters of a and b, the root of a cluster holds its highest pair score.
+    private static void union(int[] parents, float[] scores, int a, int b, float score) {
+        int rootA = find(parents, a);
+        int rootB = find(parents, b);
+        if (rootA != rootB) {
+            parents[rootB] = rootA;
+            scores[rootA] = Math.max(scores[rootA], scores[rootB]);
+        }
+
+        scores[rootA] = Math.max(scores[rootA], score);
+    }
+
+    private static List<Cluster> buildClusters(Keys[] keys, int[] parents, float[] scores) {
+        Map<Integer, List<Contact>> members = new HashMap<>();
+        for (int i = 0; i < keys.length; i++) {
+            int root = find(parents, i);
+            if (scores[root] == 0) {
+                // not a duplicate of any contact.
+                continue;
+            }
+
+            List<Contact> cluster = members.get(root);
+            if (cluster == null) {
+                cluster = new ArrayList<>(2);
+                members.put(root, cluster);
+            }
+
+            cluster.add(keys[i].contact);
+        }
+
+        List<Cluster> clusters = new ArrayList<>(members.size());
+        for (Map.Entry<Integer, List<Contact>> entry : members.entrySet()) {
+            if (entry.getValue().size() > 1) {
+                clusters.add(new Cluster(entry.getValue(), scores[entry.getKey()]));
+            }
+        }
+
+        Collections.sort(clusters, new Comparator<Cluster>() {
+            @Override
+            public int compare(Cluster lhs, Cluster rhs) {
+                if (lhs.score != rhs.score) {
+                    return lhs.score > rhs.score ? -1 : 1;
+                }
+
+                return rhs.contacts.size() - lhs.contacts.size();
+            }
+        });
+
+        return clusters;
+    }
+
+    private static String phoneBlockKey(String number) {
+        StringBuilder digits = new StringBuilder(PHONE_KEY_DIGITS);
+        for (int i = number.length() - 1; i >= 0 && digits.length() < PHONE_KEY_DIGITS; i--) {
+            char ch = number.charAt(i);
+            if (ch >= '0' && ch <= '9') {
+                digits.append(ch);
+            }
+        }
+
+        return digits.length() < PHONE_KEY_DIGITS ? null : digits.toString();
+    }
+
+    // the name tokens without accents, case and punctuation, sorted so that word order does not matter.
+    private static String nameKey(Contact contact) {
+        String name;
+        if (contact.getPhoneticGivenName() != null || contact.getPhoneticFamilyName() != null) {
+            name = join(contact.getPhoneticGivenName(), contact.getPhoneticFamilyName());
+        } else if (contact.getGivenName() != null || contact.getFamilyName() != null) {
+            name = join(contact.getGivenName(), contact.getFamilyName());
+        } else {
+            name = contact.getDisplayName();
+        }
+
+        if (name == null) {
+            return null;
+        }
+
+        String normalized = Normalizer.normalize(name, Normalizer.Form.NFD);
+        StringBuilder letters = new StringBuilder(normalized.length());
+        for (int i = 0; i < normalized.length(); i++) {
+            char ch = normalized.charAt(i);
+            if (Character.isLetterOrDigit(ch)) {
+                letters.append(Character.toLowerCase(ch));
+            } else if (Character.isWhitespace(ch) || ch == ',' || ch == '.' || ch == '-') {
+                letters.append(' ');
+            }
+        }
+
+        String[] tokens = letters.toString().trim().split(" +");
+        if (tokens.length == 0 || tokens[0].isEmpty()) {
+            return null;
+        }
+
+        Arrays.sort(tokens);
+        StringBuilder key = new StringBuilder();
+        for (String token : tokens) {
+            if (key.length() > 0) {
+                key.append(' ');
+            }
+
+            key.append(token);
+        }
+
+        return key.toString();
+    }
+
+    private static String join(String first, String second) {
+        if (first == null) {
+            return second;
+        }
+
+        return second == null ? first : first + " " + second;
+    }
+}
@@ -16,13 +16,15 @@
 
 package com.github.tamir7.contacts;
 
+import android.os.Parcel;
+import android.os.Parcelable;
 import android.provider.ContactsContract;
 
 /**
  * Represents an Email.
  *
  */
-public class Email {
+public class Email implements Parcelable {
     private final String address;
     private final Type type;
     private final String label;
@@ -51,15 +53,54 @@ public class Email {
                     return UNKNOWN;
             }
         }
+
+        int toValue() {
+            switch (this) {
+                case CUSTOM:
+                    return ContactsContract.CommonDataKinds.Email.TYPE_CUSTOM;
+                case HOME:
+                    return ContactsContract.CommonDataKinds.Email.TYPE_HOME;
+                case WORK:
+                    return ContactsContract.CommonDataKinds.Email.TYPE_WORK;
+                case OTHER:
+                    return ContactsContract.CommonDataKinds.Email.TYPE_OTHER;
+                case MOBILE:
+                    return ContactsContract.CommonDataKinds.Email.TYPE_MOBILE;
+                default:
+                    return ContactsContract.CommonDataKinds.Email.TYPE_OTHER;
+            }
+        }
     }
 
-    Email(String address, Type type) {
+    /**
+     * Creates an email of a predefined type.
+     *
+     * @param address   The email address.
+     * @param type      The type of the email.
+     * @throws IllegalArgumentException if the address or type is null.
+     */
+    public Email(String address, Type type) {
+        if (address == null || type == null) {
+            throw new IllegalArgumentException("Email address and type must not be null");
+        }
+
         this.address = address;
         this.type = type;
         this.label = null;
     }
 
-    Email(String address, String label) {
+    /**
+     * Creates an email of type CUSTOM with the given label.
+     *
+     * @param address   The email address.
+     * @param label     The custom label.
+     * @throws IllegalArgumentException if the address is null.
+     */
+    public Email(String address, String label) {
+        if (address == null) {
+            throw new IllegalArgumentException("Email address must not be null");
+        }
+
         this.address = address;
         this.type = Type.CUSTOM;
         this.label = label;
@@ -92,6 +133,34 @@ public class Email {
         return label;
     }
 
+    static Email create(String address, Type type, String label) {
+        return type == Type.CUSTOM ? new Email(address, label) : new Email(address, type);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeString(address);
+        dest.writeInt(type.ordinal());
+        dest.writeString(label);
+    }
+
+    public static final Creator<Email> CREATOR = new Creator<Email>() {
+        @Override
+        public Email createFromParcel(Parcel source) {
+            return create(source.readString(), Type.values()[source.readInt()], source.readString());
+        }
+
+        @Override
+        public Email[] newArray(int size) {
+            return new Email[size];
+        }
+    };
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
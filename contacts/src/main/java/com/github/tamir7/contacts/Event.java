@@ -16,16 +16,20 @@
 
 package com.github.tamir7.contacts;
 
+import android.os.Parcel;
+import android.os.Parcelable;
 import android.provider.ContactsContract;
 
 /**
  * Represents an Event.
  *
  */
-public class Event {
+public class Event implements Parcelable {
     private final String startDate;
     private final Type type;
     private final String label;
+    // year << 9 | month << 5 | day, parsed once from the start date. 0 if the date could not be parsed.
+    private final int date;
 
     public enum Type {
         CUSTOM,
@@ -48,18 +52,57 @@ public class Event {
                     return UNKNOWN;
             }
         }
+
+        int toValue() {
+            switch (this) {
+                case CUSTOM:
+                    return ContactsContract.CommonDataKinds.Event.TYPE_CUSTOM;
+                case ANNIVERSARY:
+                    return ContactsContract.CommonDataKinds.Event.TYPE_ANNIVERSARY;
+                case OTHER:
+                    return ContactsContract.CommonDataKinds.Event.TYPE_OTHER;
+                case BIRTHDAY:
+                    return ContactsContract.CommonDataKinds.Event.TYPE_BIRTHDAY;
+                default:
+                    return ContactsContract.CommonDataKinds.Event.TYPE_OTHER;
+            }
+        }
     }
 
-    Event(String startDate, Type type) {
+    /**
+     * Creates an event of a predefined type.
+     *
+     * @param startDate The event start date, as stored by the contacts provider.
+     * @param type      The type of the event.
+     * @throws IllegalArgumentException if the start date or type is null.
+     */
+    public Event(String startDate, Type type) {
+        if (startDate == null || type == null) {
+            throw new IllegalArgumentException("Event start date and type must not be null");
+        }
+
         this.startDate = startDate;
         this.type = type;
         this.label = null;
+        this.date = parseDate(startDate);
     }
 
-    Event(String startDate, String label) {
+    /**
+     * Creates an event of type CUSTOM with the given label.
+     *
+     * @param startDate The event start date, as stored by the contacts provider.
+     * @param label     The custom label.
+     * @throws IllegalArgumentException if the start date is null.
+     */
+    public Event(String startDate, String label) {
+        if (startDate == null) {
+            throw new IllegalArgumentException("Event start date must not be null");
+        }
+
         this.startDate = startDate;
         this.type = Type.CUSTOM;
         this.label = label;
+        this.date = parseDate(startDate);
     }
 
     /**
@@ -71,6 +114,47 @@ public class Event {
         return startDate;
     }
 
+    /**
+     * Whether the start date was parsed into a month and day.
+     * Supported formats are yyyy-MM-dd, --MM-dd and yyyyMMdd, optionally followed by a time.
+     *
+     * @return true if the month and day are known.
+     */
+    public boolean hasDate() {
+        return date != 0;
+    }
+
+    /**
+     * Gets the year of the start date.
+     *
+     * @return year, or 0 if the start date has no year or could not be parsed.
+     */
+    public int getYear() {
+        return date >>> 9;
+    }
+
+    /**
+     * Gets the month of the start date.
+     *
+     * @return month between 1 and 12, or 0 if the start date could not be parsed.
+     */
+    public int getMonth() {
+        return (date >>> 5) & 0xF;
+    }
+
+    /**
+     * Gets the day of month of the start date.
+     *
+     * @return day between 1 and 31, or 0 if the start date could not be parsed.
+     */
+    public int getDayOfMonth() {
+        return date & 0x1F;
+    }
+
+    int getPackedDate() {
+        return date;
+    }
+
     /**
      * Gets the type of event.
      *
@@ -89,6 +173,90 @@ public class Event {
         return label;
     }
 
+    static int parseDate(String startDate) {
+        if (startDate == null) {
+            return 0;
+        }
+
+        int year = 0;
+        int i;
+        if (startDate.startsWith("--")) {
+            i = 2;
+        } else {
+            year = parseDigits(startDate, 0, 4);
+            if (year <= 0) {
+                return 0;
+            }
+
+            i = 4;
+        }
+
+        if (year > 0 && i < startDate.length() && startDate.charAt(i) == '-') {
+            i++;
+        }
+
+        int month = parseDigits(startDate, i, 2);
+        i += 2;
+        if (i < startDate.length() && startDate.charAt(i) == '-') {
+            i++;
+        }
+
+        int day = parseDigits(startDate, i, 2);
+        i += 2;
+        if (month < 1 || month > 12 || day < 1 || day > 31 ||
+                (i < startDate.length() && Character.isDigit(startDate.charAt(i)))) {
+            return 0;
+        }
+
+        return year << 9 | month << 5 | day;
+    }
+
+    private static int parseDigits(String s, int start, int count) {
+        if (start + count > s.length()) {
+            return -1;
+        }
+
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            char ch = s.charAt(i);
+            if (ch < '0' || ch > '9') {
+                return -1;
+            }
+
+            value = value * 10 + ch - '0';
+        }
+
+        return value;
+    }
+
+    static Event create(String startDate, Type type, String label) {
+        return type == Type.CUSTOM ? new Event(startDate, label) : new Event(startDate, type);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeString(startDate);
+        dest.writeInt(type.ordinal());
+        dest.writeString(label);
+    }
+
+    public static final Creator<Event> CREATOR = new Creator<Event>() {
+        @Override
+        public Event createFromParcel(Parcel source) {
+            return create(source.readString(), Type.values()[source.readInt()], source.readString());
+        }
+
+        @Override
+        public Event[] newArray(int size) {
+            return new Event[size];
+        }
+    };
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
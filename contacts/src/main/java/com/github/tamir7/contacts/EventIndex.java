@@ -0,0 +1,322 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.ContactsContract;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An in memory snapshot of the events of all contacts, indexed by day of year, so upcoming birthdays
+ * and anniversaries are found without querying the provider or parsing dates.
+ * The snapshot is immutable, {@link ContactsClient#getEventIndex()} returns a new one after the contacts change.
+ * Where the provider reports update times (Jelly Bean MR2+), a new snapshot only queries the events
+ * of the contacts that changed.
+ */
+public final class EventIndex {
+    // a leap year, so that February 29 has its own day.
+    private static final int[] DAYS_IN_MONTH = {31, 29, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+    private static final int[] MONTH_OFFSETS = new int[12];
+    private static final int DAYS_IN_YEAR = 366;
+    private static final Entry[] NO_ENTRIES = new Entry[0];
+
+    static {
+        for (int i = 1; i < 12; i++) {
+            MONTH_OFFSETS[i] = MONTH_OFFSETS[i - 1] + DAYS_IN_MONTH[i - 1];
+        }
+    }
+
+    private final Map<Long, List<Entry>> contactEntries;
+    private final Entry[][] days;
+    private final long loadTime;
+
+    private static final class Entry {
+        private final long contactId;
+        private final String displayName;
+        private final Event event;
+
+        Entry(long contactId, String displayName, Event event) {
+            this.contactId = contactId;
+            this.displayName = displayName;
+            this.event = event;
+        }
+    }
+
+    /**
+     * An event of a contact that occurs within the requested number of days.
+     */
+    public static final class UpcomingEvent {
+        private final long contactId;
+        private final String displayName;
+        private final Event event;
+        private final int daysUntil;
+
+        private UpcomingEvent(Entry entry, int daysUntil) {
+            this.contactId = entry.contactId;
+            this.displayName = entry.displayName;
+            this.event = entry.event;
+            this.daysUntil = daysUntil;
+        }
+
+        /**
+         * Gets the id of the contact.
+         *
+         * @return contact id.
+         */
+        public long getContactId() {
+            return contactId;
+        }
+
+        /**
+         * Gets the display name of the contact.
+         *
+         * @return display name.
+         */
+        public String getDisplayName() {
+            return displayName;
+        }
+
+        /**
+         * Gets the event.
+         *
+         * @return event.
+         */
+        public Event getEvent() {
+            return event;
+        }
+
+        /**
+         * Gets the number of days until the next occurrence of the event, 0 if it is today.
+         *
+         * @return days until the event.
+         */
+        public int getDaysUntil() {
+            return daysUntil;
+        }
+    }
+
+    private EventIndex(Map<Long, List<Entry>> contactEntries, long loadTime) {
+        this.contactEntries = contactEntries;
+        this.loadTime = loadTime;
+
+        int[] counts = new int[DAYS_IN_YEAR];
+        for (List<Entry> entries : contactEntries.values()) {
+            for (Entry entry : entries) {
+                counts[dayOfYear(entry.event)]++;
+            }
+        }
+
+        days = new Entry[DAYS_IN_YEAR][];
+        for (int i = 0; i < DAYS_IN_YEAR; i++) {
+            days[i] = counts[i] == 0 ? NO_ENTRIES : new Entry[counts[i]];
+            counts[i] = 0;
+        }
+
+        for (List<Entry> entries : contactEntries.values()) {
+            for (Entry entry : entries) {
+                int day = dayOfYear(entry.event);
+                days[day][counts[day]++] = entry;
+            }
+        }
+    }
+
+    static EventIndex load(Context context) {
+        long loadTime = System.currentTimeMillis();
+        Map<Long, List<Entry>> contactEntries = new HashMap<>();
+        loadEntries(context, eventsWhere(), contactEntries);
+        return new EventIndex(contactEntries, loadTime);
+    }
+
+    /**
+     * Loads a new snapshot with the changes since this snapshot was loaded.
+     *
+     * @return The new snapshot, or this one if no contact changed.
+     */
+    @SuppressLint("InlinedApi")
+    EventIndex refresh(Context context) {
+        if (android.os.Build.VERSION.SDK_INT < android.os.Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            // no update times, every contact may have changed.
+            return load(context);
+        }
+
+        long refreshTime = System.currentTimeMillis();
+        Set<Long> changedIds = queryIds(context, ContactsContract.Contacts.CONTENT_URI,
+                ContactsContract.Contacts._ID,
+                Where.greaterThanOrEqual(ContactsContract.Contacts.CONTACT_LAST_UPDATED_TIMESTAMP, loadTime));
+        Set<Long> deletedIds = queryIds(context, ContactsContract.DeletedContacts.CONTENT_URI,
+                ContactsContract.DeletedContacts.CONTACT_ID,
+                Where.greaterThanOrEqual(ContactsContract.DeletedContacts.CONTACT_DELETED_TIMESTAMP, loadTime));
+
+        if (changedIds.isEmpty() && deletedIds.isEmpty()) {
+            return this;
+        }
+
+        Map<Long, List<Entry>> next = new HashMap<>(contactEntries);
+        next.keySet().removeAll(changedIds);
+        next.keySet().removeAll(deletedIds);
+        if (!changedIds.isEmpty()) {
+            loadEntries(context, eventsWhere().and(Where.in(ContactsContract.Data.CONTACT_ID,
+                    new ArrayList<>(changedIds))), next);
+        }
+
+        return new EventIndex(next, refreshTime);
+    }
+
+    private static Where eventsWhere() {
+        return Where.equalTo(ContactsContract.Data.MIMETYPE,
+                ContactsContract.CommonDataKinds.Event.CONTENT_ITEM_TYPE);
+    }
+
+    private static void loadEntries(Context context, Where where, Map<Long, List<Entry>> contactEntries) {
+        Cursor c = context.getContentResolver().query(ContactsContract.Data.CONTENT_URI,
+                new String[]{ContactsContract.Data.CONTACT_ID, ContactsContract.Data.DISPLAY_NAME,
+                        ContactsContract.CommonDataKinds.Event.START_DATE,
+                        ContactsContract.CommonDataKinds.Event.TYPE,
+                        ContactsContract.CommonDataKinds.Event.LABEL},
+                where.toString(),
+                null,
+                null);
+
+        if (c != null) {
+            CursorHelper helper = new CursorHelper(c);
+            while (c.moveToNext()) {
+                Event event = helper.getEvent();
+                if (event == null || !isIndexable(event)) {
+                    continue;
+                }
+
+                long contactId = c.getLong(0);
+                List<Entry> entries = contactEntries.get(contactId);
+                if (entries == null) {
+                    entries = new ArrayList<>(1);
+                    contactEntries.put(contactId, entries);
+                }
+
+                entries.add(new Entry(contactId, c.getString(1), event));
+            }
+
+            c.close();
+        }
+    }
+
+    private static Set<Long> queryIds(Context context, Uri uri, String column, Where where) {
+        Set<Long> ids = new HashSet<>();
+        Cursor c = context.getContentResolver().query(uri, new String[]{column}, where.toString(), null, null);
+        if (c != null) {
+            while (c.moveToNext()) {
+                ids.add(c.getLong(0));
+            }
+
+            c.close();
+        }
+
+        return ids;
+    }
+
+    /**
+     * Gets the number of indexed events.
+     *
+     * @return event count.
+     */
+    public int size() {
+        int size = 0;
+        for (Entry[] entries : days) {
+            size += entries.length;
+        }
+
+        return size;
+    }
+
+    /**
+     * Finds the events that occur today or within the following days, ordered by date.
+     * Events on February 29 occur on February 28 in years that are not leap years.
+     * Events without a parsable start date are not indexed.
+     *
+     * @param type  The type of events to find, or null for all types.
+     * @param days  The number of days to search, 1 for today only. At most a year is searched.
+     * @return      The upcoming events.
+     */
+    public List<UpcomingEvent> upcoming(Event.Type type, int days) {
+        return upcoming(type, days, Calendar.getInstance());
+    }
+
+    List<UpcomingEvent> upcoming(Event.Type type, int days, Calendar today) {
+        List<UpcomingEvent> upcoming = new ArrayList<>();
+        int year = today.get(Calendar.YEAR);
+        int month = today.get(Calendar.MONTH) + 1;
+        int day = today.get(Calendar.DAY_OF_MONTH);
+        boolean[] visited = new boolean[DAYS_IN_YEAR];
+
+        for (int i = 0; i < days; i++) {
+            int dayOfYear = MONTH_OFFSETS[month - 1] + day - 1;
+            if (visited[dayOfYear]) {
+                break;
+            }
+
+            visited[dayOfYear] = true;
+            collect(this.days[dayOfYear], type, i, upcoming);
+            if (month == 2 && day == 28 && !isLeapYear(year)) {
+                visited[dayOfYear + 1] = true;
+                collect(this.days[dayOfYear + 1], type, i, upcoming);
+            }
+
+            if (day < DAYS_IN_MONTH[month - 1] && !(month == 2 && day == 28 && !isLeapYear(year))) {
+                day++;
+            } else if (month < 12) {
+                day = 1;
+                month++;
+            } else {
+                day = 1;
+                month = 1;
+                year++;
+            }
+        }
+
+        return Collections.unmodifiableList(upcoming);
+    }
+
+    private static void collect(Entry[] entries, Event.Type type, int daysUntil, List<UpcomingEvent> upcoming) {
+        for (Entry entry : entries) {
+            if (type == null || entry.event.getType() == type) {
+                upcoming.add(new UpcomingEvent(entry, daysUntil));
+            }
+        }
+    }
+
+    private static boolean isIndexable(Event event) {
+        return event.hasDate() && event.getDayOfMonth() <= DAYS_IN_MONTH[event.getMonth() - 1];
+    }
+
+    private static int dayOfYear(Event event) {
+        return MONTH_OFFSETS[event.getMonth() - 1] + event.getDayOfMonth() - 1;
+    }
+
+    private static boolean isLeapYear(int year) {
+        return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+    }
+}
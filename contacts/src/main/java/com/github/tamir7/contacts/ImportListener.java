@@ -0,0 +1,29 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+/**
+ * Receives progress updates of a vCard import.
+ */
+public interface ImportListener {
+    /**
+     * Called on the import thread every time a batch of contacts was written to the provider.
+     *
+     * @param imported  The number of contacts imported so far.
+     */
+    void onProgress(int imported);
+}
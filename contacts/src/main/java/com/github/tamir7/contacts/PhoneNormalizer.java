@@ -0,0 +1,222 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import android.content.Context;
+import android.telephony.TelephonyManager;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Normalizes phone numbers to E.164 without a network or a full phone number library,
+ * for numbers that the provider did not normalize.
+ * Numbers are interpreted with a compact table of the calling code, trunk prefix, international
+ * prefixes and national number lengths of common regions. Numbers that can not be interpreted
+ * unambiguously, such as local numbers without an area code, are not normalized.
+ * Results are memoized by raw number, so repeated numbers are not parsed again.
+ */
+final class PhoneNormalizer {
+    private static final int CACHE_SIZE = 4096;
+    // marks a number that could not be normalized in the cache.
+    private static final String NONE = "";
+    private static final int MIN_E164_DIGITS = 7;
+    private static final int MAX_E164_DIGITS = 15;
+
+    // region, calling code, trunk prefix, international prefixes, national number length range.
+    private static final String[] REGIONS = {
+            "US 1 1 011 10-10", "CA 1 1 011 10-10", "PR 1 1 011 10-10",
+            "GB 44 0 00 9-10", "IE 353 0 00 7-9", "DE 49 0 00 6-13", "FR 33 0 00 9-9",
+            "IT 39 - 00 6-11", "ES 34 - 00 9-9", "PT 351 - 00 9-9", "NL 31 0 00 9-9",
+            "BE 32 0 00 8-9", "CH 41 0 00 9-9", "AT 43 0 00 4-13", "SE 46 0 00 7-10",
+            "NO 47 - 00 8-8", "DK 45 - 00 8-8", "FI 358 0 00 5-12", "PL 48 - 00 9-9",
+            "CZ 420 - 00 9-9", "HU 36 06 00 8-9", "RO 40 0 00 9-9", "GR 30 - 00 10-10",
+            "RU 7 8 810 10-10", "KZ 7 8 810 10-10", "UA 380 0 00 9-9", "TR 90 0 00 10-10",
+            "IL 972 0 00 8-9", "AE 971 0 00 8-9", "SA 966 0 00 9-9", "EG 20 0 00 8-10",
+            "ZA 27 0 00 9-9", "NG 234 0 009 8-10", "KE 254 0 000 9-9", "IN 91 0 00 10-10",
+            "PK 92 0 00 9-10", "BD 880 0 00 8-10", "CN 86 0 00 9-11", "HK 852 - 001 8-8",
+            "TW 886 0 002 8-9", "JP 81 0 010 9-10", "KR 82 0 001/002 8-10", "SG 65 - 000 8-8",
+            "MY 60 0 00 8-10", "ID 62 0 001/007 8-12", "TH 66 0 001 8-9", "VN 84 0 00 9-10",
+            "PH 63 0 00 8-10", "AU 61 0 0011 9-9", "NZ 64 0 00 8-10", "BR 55 0 00 10-11",
+            "MX 52 - 00 10-10", "AR 54 0 00 10-11", "CL 56 - 00 9-9", "CO 57 - 00 10-10",
+            "PE 51 0 00 8-9",
+    };
+
+    private static final Map<String, Region> regions = new HashMap<>();
+    private static final Map<String, Region> callingCodes = new HashMap<>();
+
+    static {
+        for (String entry : REGIONS) {
+            String[] fields = entry.split(" ");
+            String[] lengths = fields[4].split("-");
+            Region region = new Region(fields[1], fields[2].equals("-") ? "" : fields[2],
+                    fields[3].split("/"), Integer.parseInt(lengths[0]), Integer.parseInt(lengths[1]));
+            regions.put(fields[0], region);
+            if (!callingCodes.containsKey(region.callingCode)) {
+                callingCodes.put(region.callingCode, region);
+            }
+        }
+    }
+
+    private final String defaultRegion;
+    private final Region region;
+    private final BoundedCache<String, String> cache = new BoundedCache<>(CACHE_SIZE);
+
+    private static final class Region {
+        private final String callingCode;
+        private final String trunkPrefix;
+        private final String[] internationalPrefixes;
+        private final int minLength;
+        private final int maxLength;
+
+        Region(String callingCode, String trunkPrefix, String[] internationalPrefixes, int minLength,
+               int maxLength) {
+            this.callingCode = callingCode;
+            this.trunkPrefix = trunkPrefix;
+            this.internationalPrefixes = internationalPrefixes;
+            this.minLength = minLength;
+            this.maxLength = maxLength;
+        }
+
+        boolean isValidLength(int length) {
+            return length >= minLength && length <= maxLength;
+        }
+    }
+
+    /**
+     * @param defaultRegion ISO 3166 code of the region numbers without a country code are dialed from,
+     *                      or null to only normalize international numbers.
+     */
+    PhoneNormalizer(String defaultRegion) {
+        this.defaultRegion = defaultRegion == null ? null : defaultRegion.toUpperCase(Locale.US);
+        this.region = this.defaultRegion == null ? null : regions.get(this.defaultRegion);
+    }
+
+    /**
+     * Gets the region of the network, or of the SIM, or of the default locale.
+     */
+    static String detectRegion(Context context) {
+        TelephonyManager telephonyManager =
+                (TelephonyManager) context.getSystemService(Context.TELEPHONY_SERVICE);
+        if (telephonyManager != null) {
+            String region = telephonyManager.getNetworkCountryIso();
+            if (region == null || region.length() != 2) {
+                region = telephonyManager.getSimCountryIso();
+            }
+
+            if (region != null && region.length() == 2) {
+                return region.toUpperCase(Locale.US);
+            }
+        }
+
+        String country = Locale.getDefault().getCountry();
+        return country.length() == 2 ? country : null;
+    }
+
+    String getDefaultRegion() {
+        return defaultRegion;
+    }
+
+    /**
+     * Normalizes a phone number to E.164.
+     *
+     * @param number    The phone number as entered.
+     * @return          The E.164 number, or null if the number could not be normalized.
+     */
+    String normalize(String number) {
+        if (number == null) {
+            return null;
+        }
+
+        String normalized = cache.get(number);
+        if (normalized == null) {
+            normalized = parse(number);
+            cache.put(number, normalized == null ? NONE : normalized);
+        }
+
+        return normalized == null || normalized.equals(NONE) ? null : normalized;
+    }
+
+    private String parse(String number) {
+        StringBuilder digits = new StringBuilder(number.length());
+        boolean plus = false;
+        for (int i = 0; i < number.length(); i++) {
+            char ch = number.charAt(i);
+            if (ch >= '0' && ch <= '9') {
+                digits.append(ch);
+            } else if (ch == '+' && digits.length() == 0 && !plus) {
+                plus = true;
+            } else if (ch == ',' || ch == ';' || ch == 'x' || ch == 'X' || ch == 'e' || ch == 'E') {
+                // an extension or pause, as in 555-1234 x12 or 555-1234;12.
+                if (digits.length() == 0) {
+                    return null;
+                }
+
+                break;
+            } else if (ch != ' ' && ch != '-' && ch != '.' && ch != '(' && ch != ')' && ch != '/' &&
+                    ch != '\u00a0') {
+                return null;
+            }
+        }
+
+        if (plus) {
+            return parseInternational(digits.toString());
+        }
+
+        if (region == null) {
+            return null;
+        }
+
+        String national = digits.toString();
+        for (String prefix : region.internationalPrefixes) {
+            if (national.startsWith(prefix) && national.length() > prefix.length() + MIN_E164_DIGITS) {
+                return parseInternational(national.substring(prefix.length()));
+            }
+        }
+
+        String nationalNumber = stripTrunkPrefix(region, national);
+        return nationalNumber == null ? null : "+" + region.callingCode + nationalNumber;
+    }
+
+    private static String parseInternational(String digits) {
+        if (digits.length() < MIN_E164_DIGITS || digits.length() > MAX_E164_DIGITS) {
+            return null;
+        }
+
+        for (int length = 1; length <= 3; length++) {
+            Region region = callingCodes.get(digits.substring(0, length));
+            if (region != null) {
+                // a trunk prefix written after the calling code, as in +44 (0)20 7946 0000.
+                String nationalNumber = stripTrunkPrefix(region, digits.substring(length));
+                return nationalNumber == null ? null : "+" + region.callingCode + nationalNumber;
+            }
+        }
+
+        // a calling code that is not in the table.
+        return "+" + digits;
+    }
+
+    private static String stripTrunkPrefix(Region region, String number) {
+        if (!region.trunkPrefix.isEmpty() && number.startsWith(region.trunkPrefix) &&
+                region.isValidLength(number.length() - region.trunkPrefix.length())) {
+            return number.substring(region.trunkPrefix.length());
+        }
+
+        return region.isValidLength(number.length()) ? number : null;
+    }
+}
@@ -16,12 +16,14 @@
 
 package com.github.tamir7.contacts;
 
+import android.os.Parcel;
+import android.os.Parcelable;
 import android.provider.ContactsContract;
 
 /**
  * Represents a phone number
  */
-public class PhoneNumber {
+public class PhoneNumber implements Parcelable {
     private final String number;
     private final Type type;
     private final String label;
@@ -99,9 +101,84 @@ public class PhoneNumber {
                     return UNKNOWN;
             }
         }
+
+        int toValue() {
+            switch (this) {
+                case CUSTOM:
+                    return ContactsContract.CommonDataKinds.Phone.TYPE_CUSTOM;
+                case HOME:
+                    return ContactsContract.CommonDataKinds.Phone.TYPE_HOME;
+                case MOBILE:
+                    return ContactsContract.CommonDataKinds.Phone.TYPE_MOBILE;
+                case WORK:
+                    return ContactsContract.CommonDataKinds.Phone.TYPE_WORK;
+                case FAX_WORK:
+                    return ContactsContract.CommonDataKinds.Phone.TYPE_FAX_WORK;
+                case FAX_HOME:
+                    return ContactsContract.CommonDataKinds.Phone.TYPE_FAX_HOME;
+                case PAGER:
+                    return ContactsContract.CommonDataKinds.Phone.TYPE_PAGER;
+                case OTHER:
+                    return ContactsContract.CommonDataKinds.Phone.TYPE_OTHER;
+                case CALLBACK:
+                    return ContactsContract.CommonDataKinds.Phone.TYPE_CALLBACK;
+                case CAR:
+                    return ContactsContract.CommonDataKinds.Phone.TYPE_CAR;
+                case COMPANY_MAIN:
+                    return ContactsContract.CommonDataKinds.Phone.TYPE_COMPANY_MAIN;
+                case ISDN:
+                    return ContactsContract.CommonDataKinds.Phone.TYPE_ISDN;
+                case MAIN:
+                    return ContactsContract.CommonDataKinds.Phone.TYPE_MAIN;
+                case OTHER_FAX:
+                    return ContactsContract.CommonDataKinds.Phone.TYPE_OTHER_FAX;
+                case RADIO:
+                    return ContactsContract.CommonDataKinds.Phone.TYPE_RADIO;
+                case TELEX:
+                    return ContactsContract.CommonDataKinds.Phone.TYPE_TELEX;
+                case TTY_TDD:
+                    return ContactsContract.CommonDataKinds.Phone.TYPE_TTY_TDD;
+                case WORK_MOBILE:
+                    return ContactsContract.CommonDataKinds.Phone.TYPE_WORK_MOBILE;
+                case WORK_PAGER:
+                    return ContactsContract.CommonDataKinds.Phone.TYPE_WORK_PAGER;
+                case ASSISTANT:
+                    return ContactsContract.CommonDataKinds.Phone.TYPE_ASSISTANT;
+                case MMS:
+                    return ContactsContract.CommonDataKinds.Phone.TYPE_MMS;
+                default:
+                    return ContactsContract.CommonDataKinds.Phone.TYPE_OTHER;
+            }
+        }
+    }
+
+    /**
+     * Creates a phone number of a predefined type.
+     *
+     * @param number    The phone number.
+     * @param type      The type of the phone number.
+     * @throws IllegalArgumentException if the number or type is null.
+     */
+    public PhoneNumber(String number, Type type) {
+        this(number, type, null);
+    }
+
+    /**
+     * Creates a phone number of type CUSTOM with the given label.
+     *
+     * @param number    The phone number.
+     * @param label     The custom label.
+     * @throws IllegalArgumentException if the number is null.
+     */
+    public PhoneNumber(String number, String label) {
+        this(number, label, null);
     }
 
     PhoneNumber(String number, Type type, String normalizedNumber) {
+        if (number == null || type == null) {
+            throw new IllegalArgumentException("Phone number and type must not be null");
+        }
+
         this.number = number;
         this.type = type;
         this.label = null;
@@ -109,12 +186,21 @@ public class PhoneNumber {
     }
 
     PhoneNumber(String number, String label, String normalizedNumber) {
+        if (number == null) {
+            throw new IllegalArgumentException("Phone number must not be null");
+        }
+
         this.number = number;
         this.type = Type.CUSTOM;
         this.label = label;
         this.normalizedNumber = normalizedNumber;
     }
 
+    static PhoneNumber create(String number, Type type, String label, String normalizedNumber) {
+        return type == Type.CUSTOM ? new PhoneNumber(number, label, normalizedNumber) :
+                new PhoneNumber(number, type, normalizedNumber);
+    }
+
     /**
      * Gets the phone number.
      *
@@ -151,6 +237,32 @@ public class PhoneNumber {
         return type;
     }
 
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeString(number);
+        dest.writeInt(type.ordinal());
+        dest.writeString(label);
+        dest.writeString(normalizedNumber);
+    }
+
+    public static final Creator<PhoneNumber> CREATOR = new Creator<PhoneNumber>() {
+        @Override
+        public PhoneNumber createFromParcel(Parcel source) {
+            return create(source.readString(), Type.values()[source.readInt()], source.readString(),
+                    source.readString());
+        }
+
+        @Override
+        public PhoneNumber[] newArray(int size) {
+            return new PhoneNumber[size];
+        }
+    };
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.database.Cursor;
+import android.provider.ContactsContract;
+import android.telephony.PhoneNumberUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Resolves many phone numbers to contact ids with a few provider queries.
+ * Numbers are first matched exactly against the normalized numbers of the provider, in chunks.
+ * The remaining numbers are matched in a single pass over the phone rows that the provider did not
+ * normalize, or over all phone rows if some numbers could not be normalized either.
+ */
+final class PhoneNumberLookup {
+    private static final int CHUNK_SIZE = 500;
+
+    private final Context context;
+    private final PhoneNormalizer phoneNormalizer;
+    private final QueryStats clientStats;
+    private final Map<String, Long> contactIds = new HashMap<>();
+    // the numbers to find by their E.164 form.
+    private final Map<String, List<String>> normalizedNumbers = new HashMap<>();
+    // the numbers that could not be normalized, by their lookup key.
+    private final Map<String, List<String>> unnormalizedNumbers = new HashMap<>();
+
+    PhoneNumberLookup(Context context, PhoneNormalizer phoneNormalizer, QueryStats clientStats) {
+        this.context = context;
+        this.phoneNormalizer = phoneNormalizer;
+        this.clientStats = clientStats;
+    }
+
+    /**
+     * @return The contact id of every number that was found. A number of several contacts is resolved
+     *         to one of them.
+     */
+    Map<String, Long> resolve(Collection<String> numbers) {
+        for (String number : new LinkedHashSet<>(numbers)) {
+            if (number == null) {
+                continue;
+            }
+
+            String normalizedNumber = phoneNormalizer.normalize(number);
+            if (normalizedNumber != null) {
+                add(normalizedNumbers, normalizedNumber, number);
+            } else {
+                String key = ContactIndex.lookupKey(number);
+                if (key != null) {
+                    add(unnormalizedNumbers, key, number);
+                }
+            }
+        }
+
+        boolean providerNormalizes =
+                android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.JELLY_BEAN;
+        if (providerNormalizes && !normalizedNumbers.isEmpty()) {
+            findNormalized();
+        }
+
+        if (!normalizedNumbers.isEmpty() || !unnormalizedNumbers.isEmpty()) {
+            // numbers that could not be normalized may match normalized rows as well.
+            scan(providerNormalizes && unnormalizedNumbers.isEmpty());
+        }
+
+        return contactIds;
+    }
+
+    @SuppressLint("InlinedApi")
+    private void findNormalized() {
+        List<String> keys = new ArrayList<>(normalizedNumbers.keySet());
+        Set<String> foundKeys = new HashSet<>();
+        for (int start = 0; start < keys.size(); start += CHUNK_SIZE) {
+            List<String> chunk = keys.subList(start, Math.min(keys.size(), start + CHUNK_SIZE));
+            Where where = phoneWhere().and(
+                    Where.in(ContactsContract.CommonDataKinds.Phone.NORMALIZED_NUMBER, chunk));
+            Cursor c = query(new String[]{ContactsContract.Data.CONTACT_ID,
+                    ContactsContract.CommonDataKinds.Phone.NORMALIZED_NUMBER}, where);
+            if (c == null) {
+                continue;
+            }
+
+            CursorTracker tracker = new CursorTracker(null, clientStats);
+            while (c.moveToNext()) {
+                tracker.onRow(c);
+                String key = c.getString(1);
+                found(normalizedNumbers.get(key), c.getLong(0));
+                foundKeys.add(key);
+            }
+
+            c.close();
+            tracker.finish();
+        }
+
+        normalizedNumbers.keySet().removeAll(foundKeys);
+    }
+
+    /**
+     * Matches the remaining numbers against phone rows, normalizing the rows that the provider did not.
+     *
+     * @param unnormalizedRowsOnly  Only scan rows without a provider normalized number.
+     */
+    @SuppressLint("InlinedApi")
+    private void scan(boolean unnormalizedRowsOnly) {
+        Where where = phoneWhere();
+        if (unnormalizedRowsOnly) {
+            where = where.and(Where.isNull(ContactsContract.CommonDataKinds.Phone.NORMALIZED_NUMBER));
+        }
+
+        Cursor c = query(new String[]{ContactsContract.Data.CONTACT_ID,
+                ContactsContract.CommonDataKinds.Phone.NUMBER}, where);
+        if (c == null) {
+            return;
+        }
+
+        CursorTracker tracker = new CursorTracker(null, clientStats);
+        while (c.moveToNext()) {
+            tracker.onRow(c);
+            String number = c.getString(1);
+            if (number == null) {
+                continue;
+            }
+
+            long contactId = c.getLong(0);
+            String normalizedNumber = phoneNormalizer.normalize(number);
+            if (normalizedNumber != null) {
+                found(normalizedNumbers.get(normalizedNumber), contactId);
+            }
+
+            String key = ContactIndex.lookupKey(number);
+            List<String> candidates = key == null ? null : unnormalizedNumbers.get(key);
+            if (candidates != null) {
+                for (String candidate : candidates) {
+                    if (PhoneNumberUtils.compare(candidate, number)) {
+                        found(candidate, contactId);
+                    }
+                }
+            }
+        }
+
+        c.close();
+        tracker.finish();
+    }
+
+    private void found(List<String> numbers, long contactId) {
+        if (numbers != null) {
+            for (String number : numbers) {
+                found(number, contactId);
+            }
+        }
+    }
+
+    private void found(String number, long contactId) {
+        if (!contactIds.containsKey(number)) {
+            contactIds.put(number, contactId);
+        }
+    }
+
+    private Cursor query(String[] projection, Where where) {
+        return context.getContentResolver().query(ContactsContract.Data.CONTENT_URI, projection,
+                where.toString(), null, null);
+    }
+
+    private static Where phoneWhere() {
+        return Where.equalTo(ContactsContract.Data.MIMETYPE,
+                ContactsContract.CommonDataKinds.Phone.CONTENT_ITEM_TYPE);
+    }
+
+    private static void add(Map<String, List<String>> map, String key, String number) {
+        List<String> numbers = map.get(key);
+        if (numbers == null) {
+            numbers = new ArrayList<>(1);
+            map.put(key, numbers);
+        }
+
+        numbers.add(number);
+    }
+}
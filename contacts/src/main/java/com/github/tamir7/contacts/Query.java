@@ -18,30 +18,105 @@ package com.github.tamir7.contacts;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.net.Uri;
 import android.provider.ContactsContract;
 
+import java.text.Collator;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * The Query class defines a query that is used to fetch Contact objects.
+ * A query can be built and executed from multiple threads. Executing a query uses a copy of the
+ * constraints at the time of the call, so modifying the query does not affect running executions.
  */
 public final class Query {
+    private static final int INITIAL_PAGE_SIZE = 100;
+    private static final int MIN_PAGE_SIZE = 10;
+    private static final int MAX_PAGE_SIZE = 2000;
+    private static final double PAGE_FILL_RATIO = 0.9;
+    private static final int STREAM_PAGE_SIZE = 500;
+
+    // fields that widen the projection of every query, only fetched when included explicitly.
+    private static final Set<Contact.Field> EXPLICIT_FIELDS = new HashSet<>(Arrays.asList(
+            Contact.Field.SortKey, Contact.Field.Starred, Contact.Field.TimesContacted, Contact.Field.LastUpdated));
+
     private final Context context;
-    private final Map<String, Where> mimeWhere = new HashMap<>();
-    private Where defaultWhere = null;
+    private final ExecutorService executor;
+    private final QueryStats clientStats;
+    private final PhoneNormalizer phoneNormalizer;
+    private final QueryCoalescer coalescer;
+    private final QueryCache cache;
+    private Condition condition = null;
+    private final List<Where> accounts = new ArrayList<>();
     private Set<Contact.Field> include = new HashSet<>();
     private List<Query> innerQueries;
+    private final List<String> sortOrder = new ArrayList<>();
+    private boolean narrowProjection = false;
+    private boolean paged = false;
+    private int partitions = 0;
+    private QueryStats stats = null;
+
+    /**
+     * Sort direction of {@link Query#orderBy(Contact.Field, Order)}.
+     */
+    public enum Order {
+        ASCENDING(" ASC"),
+        DESCENDING(" DESC");
+
+        private final String value;
+
+        Order(String value) {
+            this.value = value;
+        }
+
+        @Override
+        public String toString() {
+            return value;
+        }
+    }
+
+    /**
+     * Receives contacts streamed by {@link Query#forEach(Callback)}.
+     */
+    public interface Callback {
+        /**
+         * Called for every contact that satisfies the query.
+         *
+         * @param contact A fully assembled contact.
+         */
+        void onContact(Contact contact);
+    }
 
-    Query(Context context) {
+    /**
+     * @param coalescer Runs identical concurrent executions of {@link #find()} once, or null.
+     * @param cache     Caches the results of {@link #find()}, or null. Only used with a coalescer.
+     */
+    Query(Context context, ExecutorService executor, QueryStats clientStats, PhoneNormalizer phoneNormalizer,
+          QueryCoalescer coalescer, QueryCache cache) {
         this.context = context;
+        this.executor = executor;
+        this.clientStats = clientStats;
+        this.phoneNormalizer = phoneNormalizer;
+        this.coalescer = coalescer;
+        this.cache = cache;
         include.addAll(Arrays.asList(Contact.Field.values()));
+        include.removeAll(EXPLICIT_FIELDS);
     }
 
     /**
@@ -52,8 +127,7 @@ public final class Query {
      * @return          this, so you can chain this call.
      */
     public Query whereContains(Contact.Field field, Object value) {
-        addNewConstraint(field, Where.contains(field.getColumn(), value));
-        return this;
+        return where(Condition.contains(field, value));
     }
 
     /**
@@ -64,8 +138,7 @@ public final class Query {
      * @return          this, so you can chain this call.
      */
     public Query whereStartsWith(Contact.Field field, Object value) {
-        addNewConstraint(field, Where.startsWith(field.getColumn(), value));
-        return this;
+        return where(Condition.startsWith(field, value));
     }
 
     /**
@@ -76,8 +149,7 @@ public final class Query {
      * @return          this, so you can chain this call.
      */
     public Query whereEqualTo(Contact.Field field, Object value) {
-        addNewConstraint(field, Where.equalTo(field.getColumn(), value));
-        return this;
+        return where(Condition.equalTo(field, value));
     }
 
 
@@ -89,8 +161,30 @@ public final class Query {
      * @return          this, so you can chain this call.
      */
     public Query whereNotEqualTo(Contact.Field field, Object value) {
-        addNewConstraint(field, Where.notEqualTo(field.getColumn(), value));
-        return this;
+        return where(Condition.notEqualTo(field, value));
+    }
+
+    /**
+     * Add a constraint to the query for finding values that equal one of the provided values.
+     * All values are matched by a single provider query, instead of one query per value.
+     *
+     * @param field     The field that the value to match is stored in.
+     * @param values    The values that the field value must be one of.
+     * @return          this, so you can chain this call.
+     */
+    public Query whereIn(Contact.Field field, Collection<?> values) {
+        return where(Condition.in(field, values));
+    }
+
+    /**
+     * Add a constraint to the query for finding values that equal none of the provided values.
+     *
+     * @param field     The field that the value to match is stored in.
+     * @param values    The values that the field value must NOT be one of.
+     * @return          this, so you can chain this call.
+     */
+    public Query whereNotIn(Contact.Field field, Collection<?> values) {
+        return where(Condition.notIn(field, values));
     }
 
     /**
@@ -99,7 +193,61 @@ public final class Query {
      * @return this, so you can chain this call.
      */
     public Query hasPhoneNumber() {
-        defaultWhere = addWhere(defaultWhere, Where.notEqualTo(ContactsContract.Data.HAS_PHONE_NUMBER, 0));
+        return where(Condition.contactLevel(Where.notEqualTo(ContactsContract.Data.HAS_PHONE_NUMBER, 0)));
+    }
+
+    /**
+     * Restrict the query to the data of the given account. Contacts that are aggregated from several
+     * accounts are returned with the data of the given account only.
+     * Calling this function multiple times includes the data of all given accounts.
+     * Calling this function on the inner queries of {@link #or(List)} has no effect.
+     *
+     * @param accountType   The account type, for example "com.google", or null for local contacts.
+     * @param accountName   The account name, or null for local contacts.
+     * @return this, so you can chain this call.
+     */
+    public synchronized Query inAccount(String accountType, String accountName) {
+        accounts.add(equalToOrNull(ContactsContract.RawContacts.ACCOUNT_TYPE, accountType)
+                .and(equalToOrNull(ContactsContract.RawContacts.ACCOUNT_NAME, accountName)));
+        return this;
+    }
+
+    /**
+     * Restrict the return contacts to members of the given group.
+     *
+     * @param groupId   The id of the group, as in ContactsContract.Groups._ID.
+     * @return this, so you can chain this call.
+     */
+    public Query inGroup(long groupId) {
+        return where(Condition.inGroup(groupId));
+    }
+
+    /**
+     * Restrict the return contacts to starred (favorite) contacts.
+     *
+     * @return this, so you can chain this call.
+     */
+    public Query starred() {
+        return where(Condition.contactLevel(Where.notEqualTo(ContactsContract.Data.STARRED, 0)));
+    }
+
+    /**
+     * Restrict the return contacts to contacts in visible groups, as shown by the contacts app.
+     *
+     * @return this, so you can chain this call.
+     */
+    public Query visibleOnly() {
+        return where(Condition.contactLevel(Where.notEqualTo(ContactsContract.Data.IN_VISIBLE_GROUP, 0)));
+    }
+
+    /**
+     * Add a constraint to the query. Constraints added by multiple calls must all be satisfied.
+     *
+     * @param condition The condition that contacts must satisfy.
+     * @return          this, so you can chain this call.
+     */
+    public synchronized Query where(Condition condition) {
+        this.condition = Condition.and(this.condition, condition);
         return this;
     }
 
@@ -107,127 +255,608 @@ public final class Query {
      * Constructs a query that is the or of the given queries.
      * Previous calls to include are disregarded for the inner queries.
      * Calling those functions on the returned query will have the desired effect.
-     * Calling where* functions on the return query is not permitted.
+     * Constraints of the returned query must be satisfied in addition to the 'or' of the given queries.
+     * Nested queries can be expressed with {@link Condition} and {@link #where(Condition)}.
      *
      * @param queries The list of Queries to 'or' together.
      * @return A query that is the 'or' of the passed in queries.
      */
-    public Query or(List<Query> queries) {
-        innerQueries = queries;
+    public synchronized Query or(List<Query> queries) {
+        innerQueries = new ArrayList<>(queries);
         return this;
     }
 
     /**
      * Restrict the fields of returned Contacts to only include the provided fields.
+     * By default all fields except SortKey, Starred, TimesContacted and LastUpdated are included,
+     * those are only fetched if included by this function.
      *
      * @param fields The array of keys to include in the result.
      * @return this, so you can chain this call.
      */
-    public Query include(Contact.Field... fields) {
+    public synchronized Query include(Contact.Field... fields) {
         include.clear();
         include.addAll(Arrays.asList(fields));
         return this;
     }
 
+    /**
+     * Sort the results by the given field. The sort is executed by the contacts provider.
+     * Calling this function multiple times adds secondary sort keys.
+     * Results are sorted by display name unless this function is called.
+     * Supported fields are ContactId, DisplayName, GivenName and SortKey (given name first sort key),
+     * FamilyName (family name first sort key), Starred, TimesContacted and LastUpdated (Jelly Bean MR2+).
+     *
+     * @param field     The field to sort by.
+     * @param order     The sort direction.
+     * @return this, so you can chain this call.
+     */
+    public synchronized Query orderBy(Contact.Field field, Order order) {
+        sortOrder.add(getSortColumn(field) + order);
+        return this;
+    }
+
+    /**
+     * Fetch every included MIME type with its own query, projecting only the columns of that type,
+     * instead of one query projecting the columns of all included fields on every row.
+     * The queries run in parallel and are merged by contact id, the contact level fields and the order
+     * are then read from the contacts table with one row per contact. Narrow rows fit more rows into each
+     * cursor window, which reduces the data copied from the contacts provider when many fields are included.
+     *
+     * @return this, so you can chain this call.
+     */
+    public synchronized Query narrowProjection() {
+        narrowProjection = true;
+        return this;
+    }
+
+    /**
+     * Fetch the contacts in pages, each in its own provider query, instead of in a single query.
+     * Pages are sized to fit the data of a page into a single cursor window: the page size grows
+     * while pages fit, and shrinks to the number of rows that fit in one window when a page overflows.
+     * This avoids repeatedly refilling windows when loading many contacts on low memory devices.
+     * Pages are always fetched with a wide projection, {@link #narrowProjection()} is ignored.
+     *
+     * @return this, so you can chain this call.
+     */
+    public synchronized Query paged() {
+        paged = true;
+        return this;
+    }
+
+    /**
+     * Fetch and assemble the contacts in parallel, with one partition per available processor.
+     *
+     * @return this, so you can chain this call.
+     * @see #parallel(int)
+     */
+    public Query parallel() {
+        return parallel(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Fetch and assemble the contacts in parallel. The contact id space is split into ranges holding
+     * an equal number of contacts, and every range is queried and assembled independently on the
+     * query threads. The results are merged in the sort order of the query.
+     * Takes precedence over {@link #paged()} and {@link #narrowProjection()}.
+     *
+     * @param partitions    The number of id ranges.
+     * @return this, so you can chain this call.
+     */
+    public synchronized Query parallel(int partitions) {
+        if (partitions < 1) {
+            throw new IllegalArgumentException("Partitions must be positive");
+        }
+
+        this.partitions = partitions;
+        return this;
+    }
+
+    /**
+     * Collect statistics of the provider queries executed by this query into the given object.
+     *
+     * @param stats The object to collect statistics into, or null to stop collecting.
+     * @return this, so you can chain this call.
+     */
+    public synchronized Query collectStats(QueryStats stats) {
+        this.stats = stats;
+        return this;
+    }
+
+    /**
+     * Observes the contacts that satisfy this query. The query runs once right away and again after
+     * the contacts provider changes, reporting only the contacts that were added, removed or changed.
+     * Modifying the query after this call does not affect the observer.
+     *
+     * @param listener  Receives the changes on the main thread.
+     * @return A started QueryObserver. Call {@link QueryObserver#stop()} to stop observing.
+     */
+    public QueryObserver observe(QueryObserver.Listener listener) {
+        QueryObserver observer = new QueryObserver(context, snapshot(), listener);
+        observer.start();
+        return observer;
+    }
+
     /**
      * Retrieves a list of contacts that satisfy this query.
+     * If an identical query of the same client is already running, for example when several components
+     * query the contacts after the same change, this call waits for it and shares its contacts instead of
+     * querying the provider again. Queries are identical if they have the same constraints, included
+     * fields and sort order. If the client caches query results, see
+     * {@link ContactsClient.Builder#setQueryCache(int, long, long)}, identical queries are answered from
+     * the cache until the contacts change. A call that shares the contacts of another one, or is answered
+     * from the cache, does not collect statistics.
      *
      * @return A list of all contacts obeying the conditions set in this query.
      */
     public List<Contact> find() {
-        List<Long> ids = new ArrayList<>();
+        final Query query = snapshot();
+        if (coalescer == null) {
+            return query.find(query.resolveIds());
+        }
 
-        if (innerQueries != null) {
-            for (Query query : innerQueries) {
-                ids.addAll(query.findInner());
+        final String fingerprint = query.fingerprint();
+        if (cache != null) {
+            List<Contact> contacts = cache.get(fingerprint);
+            if (contacts != null) {
+                return new ArrayList<>(contacts);
             }
-        } else {
-            if (mimeWhere.isEmpty()) {
-                return find(null);
+        }
+
+        return coalescer.find(fingerprint, new Callable<List<Contact>>() {
+            @Override
+            public List<Contact> call() throws Exception {
+                if (cache == null) {
+                    return query.find(query.resolveIds());
+                }
+
+                long generation = cache.getGeneration();
+                List<Contact> contacts = query.find(query.resolveIds());
+                cache.put(fingerprint, contacts, generation);
+                return contacts;
             }
+        });
+    }
 
-            for (Map.Entry<String, Where> entry : mimeWhere.entrySet()) {
-                ids = findIds(ids, entry.getKey(), entry.getValue());
+    /**
+     * Streams the contacts that satisfy this query to the given callback, one contact at a time.
+     * Contacts are assembled directly from the cursor in contact id order, so memory usage does not
+     * grow with the number of results. If {@link #orderBy(Contact.Field, Order)} was called, the ids are
+     * resolved in the sort order first and the contacts are fetched and delivered in pages of that order.
+     *
+     * @param callback The callback that receives the contacts.
+     */
+    public void forEach(Callback callback) {
+        snapshot().stream(callback);
+    }
+
+    private void stream(Callback callback) {
+        List<Long> ids = resolveIds();
+        if (ids != null && ids.isEmpty()) {
+            return;
+        }
+
+        if (!sortOrder.isEmpty()) {
+            streamOrdered(ids, callback);
+            return;
+        }
+
+        CursorTracker tracker = new CursorTracker(stats, clientStats);
+        Cursor c = queryData(buildProjection(), addWhere(buildDataWhere(ids), buildWhereFromInclude()),
+                ContactsContract.RawContacts.CONTACT_ID);
+        if (c == null) {
+            return;
+        }
+
+        Collator collator = newSortKeyCollator();
+        try {
+            Contact contact = null;
+            while (c.moveToNext()) {
+                tracker.onRow(c);
+                CursorHelper helper = new CursorHelper(c, phoneNormalizer);
+                Long contactId = helper.getContactId();
+                if (contact == null || !contactId.equals(contact.getId())) {
+                    if (contact != null) {
+                        deliver(contact, collator, callback);
+                    }
+
+                    contact = new Contact();
+                    contact.setId(contactId);
+                }
+
+                updateContact(contact, helper);
+            }
+
+            if (contact != null) {
+                deliver(contact, collator, callback);
+            }
+        } finally {
+            c.close();
+            tracker.finish();
+        }
+    }
+
+    private void streamOrdered(List<Long> ids, Callback callback) {
+        List<Long> orderedIds = findOrderedIds(ids);
+        Collator collator = newSortKeyCollator();
+        for (int offset = 0; offset < orderedIds.size(); offset += STREAM_PAGE_SIZE) {
+            List<Long> page = orderedIds.subList(offset, Math.min(offset + STREAM_PAGE_SIZE, orderedIds.size()));
+            for (Contact contact : findWide(page, new CursorTracker(stats, clientStats))) {
+                deliver(contact, collator, callback);
             }
         }
+    }
 
-        return find(ids);
+    /**
+     * Copies the constraints of this query, with the inner queries of or() folded into the condition.
+     * The copy is only used by the executing thread.
+     */
+    private synchronized Query snapshot() {
+        Query query = new Query(context, executor, clientStats, phoneNormalizer, coalescer, cache);
+        query.condition = buildCondition();
+        query.accounts.addAll(accounts);
+        query.include = new HashSet<>(include);
+        query.sortOrder.addAll(sortOrder);
+        query.narrowProjection = narrowProjection;
+        query.paged = paged;
+        query.partitions = partitions;
+        query.stats = stats;
+        return query;
     }
 
-    private List<Long> findIds(List<Long> ids, String mimeType, Where innerWhere) {
-        String[] projection = { ContactsContract.RawContacts.CONTACT_ID};
-        Where where = Where.equalTo(ContactsContract.Data.MIMETYPE, mimeType);
-        where = addWhere(where, innerWhere);
-        if (!ids.isEmpty()) {
-            where = addWhere(where, Where.in(ContactsContract.RawContacts.CONTACT_ID, new ArrayList<Object>(ids)));
+    /**
+     * Gets a string that is equal for snapshots that return the same contacts: the canonical form of the
+     * condition, the accounts, the included fields and the sort order. The order of the operands of ANDs
+     * and ORs, of the accounts and of the included fields does not matter.
+     * How the contacts are fetched, such as {@link #paged()}, does not change the result.
+     */
+    String fingerprint() {
+        List<String> fields = new ArrayList<>(include.size());
+        for (Contact.Field field : include) {
+            fields.add(field.name());
         }
 
-        Cursor c = context.getContentResolver().query(ContactsContract.Data.CONTENT_URI,
-                projection,
-                where.toString(),
-                null,
-                ContactsContract.RawContacts.CONTACT_ID);
+        List<String> scope = new ArrayList<>(accounts.size());
+        for (Where account : accounts) {
+            scope.add(account.toString());
+        }
+
+        Collections.sort(fields);
+        Collections.sort(scope);
+        StringBuilder fingerprint = new StringBuilder();
+        fingerprint.append(condition == null ? "" : condition.toCanonicalString()).append('\n')
+                .append(scope).append('\n')
+                .append(fields).append('\n')
+                .append(sortOrder);
+        return fingerprint.toString();
+    }
+
+    private List<Long> resolveIds() {
+        Condition condition = buildCondition();
+        if (condition == null || condition.isContactLevel()) {
+            // no id resolution needed, the condition is applied to the data query itself.
+            return null;
+        }
+
+        return new ArrayList<>(new QueryPlanner(context, buildScope(), stats, clientStats).findIds(condition));
+    }
+
+    private Condition buildCondition() {
+        if (innerQueries == null) {
+            return condition;
+        }
+
+        List<Condition> conditions = new ArrayList<>();
+        for (Query query : innerQueries) {
+            Condition innerCondition = query.snapshot().condition;
+            if (innerCondition == null) {
+                // an inner query without constraints matches all contacts.
+                return condition;
+            }
+
+            conditions.add(innerCondition);
+        }
+
+        return Condition.and(condition, Condition.or(conditions.toArray(new Condition[conditions.size()])));
+    }
+
+    private Where buildContactLevelWhere() {
+        Condition condition = buildCondition();
+        return addWhere(condition == null ? null : condition.toWhere(), buildScope());
+    }
+
+    private Where buildScope() {
+        return accounts.isEmpty() ? null : Where.or(accounts);
+    }
+
+    private static Where equalToOrNull(String key, String value) {
+        return value == null ? Where.isNull(key) : Where.equalTo(key, value);
+    }
 
-        List<Long> returnIds = new ArrayList<>();
+    /**
+     * Counts the contacts that satisfy this query, without fetching the contacts.
+     * Only the ids of the matching contacts are read from the contacts provider, from the same data rows
+     * {@link #find()} assembles the contacts from, so the count equals the size of its result.
+     *
+     * @return The number of contacts obeying the conditions set in this query.
+     */
+    public int count() {
+        return snapshot().countContacts();
+    }
 
+    /**
+     * Checks whether any contact satisfies this query, without fetching the contacts.
+     *
+     * @return true if at least one contact obeys the conditions set in this query.
+     */
+    public boolean exists() {
+        return snapshot().anyContact();
+    }
+
+    private static void deliver(Contact contact, Collator collator, Callback callback) {
+        finishAssembly(contact, collator);
+        callback.onContact(contact);
+    }
+
+    /**
+     * Computes the derived values of an assembled contact.
+     *
+     * @param collator  The collator of the sort keys, or null if they are not computed.
+     */
+    private static void finishAssembly(Contact contact, Collator collator) {
+        if (collator != null) {
+            contact.computeSortKeys(collator);
+        }
+
+        contact.computeContentHash();
+    }
+
+    private int countContacts() {
+        return findContactIds().size();
+    }
+
+    private boolean anyContact() {
+        List<Long> ids = resolveIds();
+        if (ids != null && ids.isEmpty()) {
+            return false;
+        }
+
+        Cursor c = queryContactIds(ContactsContract.Data.CONTENT_URI.buildUpon()
+                .appendQueryParameter(ContactsContract.LIMIT_PARAM_KEY, "1")
+                .build(), ids);
+
+        if (c == null) {
+            return false;
+        }
+
+        try {
+            return c.moveToFirst();
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Resolves the ids of all contacts that satisfy this query, without fetching the contacts.
+     * These are the contacts {@link #find(List)} returns: resolved ids are filtered by the included fields.
+     */
+    Set<Long> findContactIds() {
+        List<Long> ids = resolveIds();
+        Set<Long> contactIds = new HashSet<>();
+        if (ids != null && ids.isEmpty()) {
+            return contactIds;
+        }
+
+        CursorTracker tracker = new CursorTracker(stats, clientStats);
+        Cursor c = queryContactIds(ContactsContract.Data.CONTENT_URI, ids);
         if (c != null) {
             while (c.moveToNext()) {
-                CursorHelper helper = new CursorHelper(c);
-                returnIds.add(helper.getContactId());
+                tracker.onRow(c);
+                contactIds.add(c.getLong(0));
             }
 
             c.close();
         }
 
-        return returnIds;
+        tracker.finish();
+        return contactIds;
     }
 
-    private List<Long> findInner() {
-        List<Long> ids = new ArrayList<>();
+    /**
+     * @param ids   The resolved ids, or null if the condition is applied to the data rows.
+     */
+    private Cursor queryContactIds(Uri uri, List<Long> ids) {
+        return context.getContentResolver().query(uri,
+                new String[]{ContactsContract.RawContacts.CONTACT_ID},
+                addWhere(buildDataWhere(ids), buildWhereFromInclude()).toString(),
+                null,
+                null);
+    }
 
-        if (mimeWhere.isEmpty()) {
-            Cursor c = context.getContentResolver().query(ContactsContract.Data.CONTENT_URI,
-                    new String[]{ContactsContract.RawContacts.CONTACT_ID},
-                    defaultWhere.toString(),
-                    null,
-                    ContactsContract.RawContacts.CONTACT_ID);
-            if (c != null) {
-                while (c.moveToNext()) {
-                    CursorHelper helper = new CursorHelper(c);
-                    ids.add(helper.getContactId());
-                }
+    List<Contact> find(List<Long> ids) {
+        if (ids != null && ids.isEmpty()) {
+            return new ArrayList<>();
+        }
 
-                c.close();
-            }
+        List<Contact> contacts;
+        if (partitions > 1) {
+            contacts = findParallel(ids);
+        } else if (paged) {
+            contacts = findPaged(ids);
+        } else if (narrowProjection) {
+            contacts = findNarrow(ids);
         } else {
-            for (Map.Entry<String, Where> entry : mimeWhere.entrySet()) {
-                ids = findIds(ids, entry.getKey(), entry.getValue());
+            contacts = findWide(ids, new CursorTracker(stats, clientStats));
+        }
+
+        Collator collator = newSortKeyCollator();
+        for (Contact contact : contacts) {
+            finishAssembly(contact, collator);
+        }
+
+        return contacts;
+    }
+
+    /**
+     * Creates the collator for the sort keys of assembled contacts, or null if SortKey is not included.
+     * Without it the keys are computed when first used. Collators are not thread safe, every execution
+     * uses its own.
+     */
+    private Collator newSortKeyCollator() {
+        if (!include.contains(Contact.Field.SortKey)) {
+            return null;
+        }
+
+        return Collator.getInstance();
+    }
+
+    private List<Contact> findPaged(List<Long> ids) {
+        List<Long> orderedIds = findOrderedIds(ids);
+        List<Contact> contacts = new ArrayList<>();
+        int pageSize = INITIAL_PAGE_SIZE;
+        int maxPageSize = MAX_PAGE_SIZE;
+        int offset = 0;
+
+        while (offset < orderedIds.size()) {
+            List<Long> page = orderedIds.subList(offset, Math.min(offset + pageSize, orderedIds.size()));
+            CursorTracker tracker = new CursorTracker(stats, clientStats);
+            contacts.addAll(findWide(page, tracker));
+            offset += page.size();
+
+            if (tracker.getWindowFills() > 1) {
+                // the page overflowed its window, never grow past the contacts that fit in one window again.
+                double rowsPerContact = (double) tracker.getRows() / page.size();
+                maxPageSize = Math.max(MIN_PAGE_SIZE,
+                        (int) (tracker.getFirstWindowRows() * PAGE_FILL_RATIO / rowsPerContact));
+                pageSize = maxPageSize;
+            } else if (page.size() == pageSize) {
+                pageSize = Math.min(maxPageSize, pageSize * 2);
             }
         }
-        return ids;
+
+        return contacts;
     }
 
-    private List<Contact> find(List<Long> ids) {
-        Where where;
-        if (ids == null) {
-            where = defaultWhere;
-        } else if (ids.isEmpty()) {
+    private List<Contact> findParallel(final List<Long> ids) {
+        List<Long> orderedIds = findOrderedIds(ids);
+        if (orderedIds.isEmpty()) {
             return new ArrayList<>();
-        } else {
-            where = Where.in(ContactsContract.RawContacts.CONTACT_ID, new ArrayList<>(ids));
         }
 
-        Cursor c = context.getContentResolver().query(ContactsContract.Data.CONTENT_URI,
-                buildProjection(),
-                addWhere(where, buildWhereFromInclude()).toString(),
-                null,
-                ContactsContract.Data.DISPLAY_NAME);
+        List<Long> sortedIds = new ArrayList<>(orderedIds);
+        Collections.sort(sortedIds);
+
+        int partitionCount = Math.min(partitions, sortedIds.size());
+        List<Where> partitionWheres = new ArrayList<>(partitionCount);
+        for (int i = 0; i < partitionCount; i++) {
+            List<Long> partition = sortedIds.subList(i * sortedIds.size() / partitionCount,
+                    (i + 1) * sortedIds.size() / partitionCount);
+            if (ids == null) {
+                // all contacts of the range match, select by range instead of listing the ids.
+                Where range = Where.greaterThanOrEqual(ContactsContract.RawContacts.CONTACT_ID, partition.get(0))
+                        .and(Where.lessThanOrEqual(ContactsContract.RawContacts.CONTACT_ID,
+                                partition.get(partition.size() - 1)));
+                partitionWheres.add(addWhere(range, buildContactLevelWhere()));
+            } else {
+                partitionWheres.add(buildDataWhere(partition));
+            }
+        }
 
+        // every partition assembles its own contacts, the calling thread takes the first one.
+        List<Future<Map<Long, Contact>>> futures = new ArrayList<>();
+        for (final Where where : partitionWheres.subList(1, partitionWheres.size())) {
+            futures.add(executor.submit(new Callable<Map<Long, Contact>>() {
+                @Override
+                public Map<Long, Contact> call() throws Exception {
+                    return assemble(where);
+                }
+            }));
+        }
+
+        Map<Long, Contact> contactsMap = assemble(partitionWheres.get(0));
+        for (Future<Map<Long, Contact>> future : futures) {
+            contactsMap.putAll(getResult(future));
+        }
+
+        List<Contact> contacts = new ArrayList<>(contactsMap.size());
+        for (Long id : orderedIds) {
+            Contact contact = contactsMap.get(id);
+            if (contact != null) {
+                contacts.add(contact);
+            }
+        }
+
+        return contacts;
+    }
+
+    private Map<Long, Contact> assemble(Where where) {
+        Map<Long, Contact> contactsMap = new HashMap<>();
+        CursorTracker tracker = new CursorTracker(stats, clientStats);
+        Cursor c = queryData(buildProjection(), addWhere(where, buildWhereFromInclude()), null);
+        if (c != null) {
+            while (c.moveToNext()) {
+                tracker.onRow(c);
+                CursorHelper helper = new CursorHelper(c, phoneNormalizer);
+                Long contactId = helper.getContactId();
+                Contact contact = contactsMap.get(contactId);
+                if (contact == null) {
+                    contact = new Contact();
+                    contact.setId(contactId);
+                    contactsMap.put(contactId, contact);
+                }
+
+                updateContact(contact, helper);
+            }
+
+            c.close();
+        }
+
+        tracker.finish();
+        return contactsMap;
+    }
+
+    private static <T> T getResult(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while fetching contacts", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to fetch contacts", e.getCause());
+        }
+    }
+
+    /**
+     * Resolves the ids of the contacts to fetch, in the sort order of the query.
+     */
+    private List<Long> findOrderedIds(List<Long> ids) {
+        Set<Long> orderedIds = new LinkedHashSet<>();
+        CursorTracker tracker = new CursorTracker(stats, clientStats);
+        Cursor c = queryData(new String[]{ContactsContract.RawContacts.CONTACT_ID},
+                addWhere(buildDataWhere(ids), buildWhereFromInclude()), buildSortOrder());
+
+        if (c != null) {
+            while (c.moveToNext()) {
+                tracker.onRow(c);
+                orderedIds.add(c.getLong(0));
+            }
+
+            c.close();
+        }
+
+        tracker.finish();
+        return new ArrayList<>(orderedIds);
+    }
+
+    private List<Contact> findWide(List<Long> ids, CursorTracker tracker) {
         Map<Long, Contact> contactsMap = new LinkedHashMap<>();
+        Cursor c = queryData(buildProjection(), addWhere(buildDataWhere(ids), buildWhereFromInclude()),
+                buildSortOrder());
 
         if (c != null) {
             while (c.moveToNext()) {
-                CursorHelper helper = new CursorHelper(c);
+                tracker.onRow(c);
+                CursorHelper helper = new CursorHelper(c, phoneNormalizer);
                 Long contactId = helper.getContactId();
                 Contact contact = contactsMap.get(contactId);
                 if (contact == null) {
@@ -242,9 +871,163 @@ public final class Query {
             c.close();
         }
 
+        tracker.finish();
         return new ArrayList<>(contactsMap.values());
     }
 
+    private List<Contact> findNarrow(List<Long> ids) {
+        Where where = buildDataWhere(ids);
+
+        // every MIME type query only touches the fields of its own type, so they can assemble
+        // the same contacts concurrently. Together they determine which contacts match.
+        final ConcurrentMap<Long, Contact> contactsMap = new ConcurrentHashMap<>();
+        List<Future<Void>> futures = new ArrayList<>();
+        for (Map.Entry<String, Set<String>> entry : buildMimeTypeProjections().entrySet()) {
+            final String[] projection = entry.getValue().toArray(new String[entry.getValue().size()]);
+            final Where mimeTypeWhere = addWhere(where, Where.equalTo(ContactsContract.Data.MIMETYPE, entry.getKey()));
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    fillData(projection, mimeTypeWhere, contactsMap);
+                    return null;
+                }
+            }));
+        }
+
+        for (Future<Void> future : futures) {
+            getResult(future);
+        }
+
+        if (contactsMap.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        // the contact level columns and the order come from the contacts table, one row per contact.
+        List<Contact> contacts = new ArrayList<>(contactsMap.size());
+        CursorTracker tracker = new CursorTracker(stats, clientStats);
+        Cursor c = context.getContentResolver().query(ContactsContract.Contacts.CONTENT_URI,
+                buildContactProjection(),
+                Where.in(ContactsContract.Contacts._ID, new ArrayList<>(contactsMap.keySet())).toString(),
+                null,
+                buildContactsSortOrder());
+
+        if (c != null) {
+            int idIndex = c.getColumnIndex(ContactsContract.Contacts._ID);
+            while (c.moveToNext()) {
+                tracker.onRow(c);
+                Contact contact = contactsMap.get(c.getLong(idIndex));
+                if (contact != null) {
+                    updateContactLevel(contact, new CursorHelper(c, phoneNormalizer));
+                    contacts.add(contact);
+                }
+            }
+
+            c.close();
+        }
+
+        tracker.finish();
+        return contacts;
+    }
+
+    private void fillData(String[] projection, Where where, ConcurrentMap<Long, Contact> contactsMap) {
+        CursorTracker tracker = new CursorTracker(stats, clientStats);
+        Cursor c = queryData(projection, where, null);
+        if (c != null) {
+            while (c.moveToNext()) {
+                tracker.onRow(c);
+                CursorHelper helper = new CursorHelper(c, phoneNormalizer);
+                Long contactId = helper.getContactId();
+                Contact contact = contactsMap.get(contactId);
+                if (contact == null) {
+                    Contact newContact = new Contact();
+                    newContact.setId(contactId);
+                    contact = contactsMap.putIfAbsent(contactId, newContact);
+                    if (contact == null) {
+                        contact = newContact;
+                    }
+                }
+
+                updateData(contact, helper);
+            }
+
+            c.close();
+        }
+
+        tracker.finish();
+    }
+
+    private Where buildDataWhere(List<Long> ids) {
+        if (ids == null) {
+            return buildContactLevelWhere();
+        }
+
+        return addWhere(Where.in(ContactsContract.RawContacts.CONTACT_ID, new ArrayList<>(ids)), buildScope());
+    }
+
+    private Cursor queryData(String[] projection, Where where, String sortOrder) {
+        return context.getContentResolver().query(ContactsContract.Data.CONTENT_URI,
+                projection,
+                where.toString(),
+                null,
+                sortOrder);
+    }
+
+    private String buildSortOrder() {
+        if (sortOrder.isEmpty()) {
+            return ContactsContract.Data.DISPLAY_NAME;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (String column : sortOrder) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+
+            sb.append(column);
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * The sort order of the query on {@link ContactsContract.Contacts#CONTENT_URI}, where the contact id is _id.
+     */
+    private String buildContactsSortOrder() {
+        String contactId = ContactsContract.RawContacts.CONTACT_ID;
+        StringBuilder sb = new StringBuilder();
+        for (String column : buildSortOrder().split(", ")) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+
+            if (column.startsWith(contactId)) {
+                sb.append(ContactsContract.Contacts._ID).append(column.substring(contactId.length()));
+            } else {
+                sb.append(column);
+            }
+        }
+
+        return sb.toString();
+    }
+
+    private static String getSortColumn(Contact.Field field) {
+        switch (field) {
+            case ContactId:
+            case DisplayName:
+            case Starred:
+            case TimesContacted:
+            case LastUpdated:
+                return field.getColumn();
+            case GivenName:
+            case SortKey:
+                return ContactsContract.Data.SORT_KEY_PRIMARY;
+            case FamilyName:
+                return ContactsContract.Data.SORT_KEY_ALTERNATIVE;
+            default:
+                throw new IllegalArgumentException("Can not order by " + field);
+        }
+    }
+
     private Where buildWhereFromInclude() {
         Set<String> mimes = new HashSet<>();
         for (Contact.Field field : include) {
@@ -255,26 +1038,45 @@ public final class Query {
         return Where.in(ContactsContract.Data.MIMETYPE, new ArrayList<Object>(mimes));
     }
 
-    private void addNewConstraint(Contact.Field field, Where where)  {
-        if (field.getMimeType() == null) {
-            defaultWhere = addWhere(defaultWhere, where);
-        } else {
-            Where existingWhere = mimeWhere.get(field.getMimeType());
-            mimeWhere.put(field.getMimeType(), addWhere(existingWhere, where));
-        }
+    private void updateContact(Contact contact, CursorHelper helper) {
+        updateContactLevel(contact, helper);
+        updateData(contact, helper);
     }
 
-    private void updateContact(Contact contact, CursorHelper helper) {
+    private void updateContactLevel(Contact contact, CursorHelper helper) {
         String displayName = helper.getDisplayName();
         if (displayName != null) {
             contact.addDisplayName(displayName);
         }
 
+        String sortKey = helper.getSortKey();
+        if (sortKey != null) {
+            contact.addSortKey(sortKey);
+        }
+
         String photoUri = helper.getPhotoUri();
         if (photoUri != null) {
             contact.addPhotoUri(photoUri);
         }
 
+        Boolean starred = helper.getStarred();
+        if (starred != null) {
+            contact.addStarred(starred);
+        }
+
+        Integer timesContacted = helper.getTimesContacted();
+        if (timesContacted != null) {
+            contact.addTimesContacted(timesContacted);
+        }
+
+        Long lastUpdated = helper.getLastUpdated();
+        if (lastUpdated != null) {
+            contact.addLastUpdated(lastUpdated);
+        }
+
+    }
+
+    private void updateData(Contact contact, CursorHelper helper) {
         String mimeType = helper.getMimeType();
         switch (mimeType) {
             case ContactsContract.CommonDataKinds.Phone.CONTENT_ITEM_TYPE:
@@ -305,6 +1107,42 @@ public final class Query {
                 if (familyName != null) {
                     contact.addFamilyName(familyName);
                 }
+
+                String middleName = helper.getMiddleName();
+                if (middleName != null) {
+                    contact.addMiddleName(middleName);
+                }
+
+                String namePrefix = helper.getNamePrefix();
+                if (namePrefix != null) {
+                    contact.addNamePrefix(namePrefix);
+                }
+
+                String nameSuffix = helper.getNameSuffix();
+                if (nameSuffix != null) {
+                    contact.addNameSuffix(nameSuffix);
+                }
+
+                String phoneticGivenName = helper.getPhoneticGivenName();
+                if (phoneticGivenName != null) {
+                    contact.addPhoneticGivenName(phoneticGivenName);
+                }
+
+                String phoneticMiddleName = helper.getPhoneticMiddleName();
+                if (phoneticMiddleName != null) {
+                    contact.addPhoneticMiddleName(phoneticMiddleName);
+                }
+
+                String phoneticFamilyName = helper.getPhoneticFamilyName();
+                if (phoneticFamilyName != null) {
+                    contact.addPhoneticFamilyName(phoneticFamilyName);
+                }
+                break;
+            case ContactsContract.CommonDataKinds.Nickname.CONTENT_ITEM_TYPE:
+                String nickname = helper.getNickname();
+                if (nickname != null) {
+                    contact.addNickname(nickname);
+                }
                 break;
             case ContactsContract.CommonDataKinds.Organization.CONTENT_ITEM_TYPE:
                 String companyName = helper.getCompanyName();
@@ -347,14 +1185,62 @@ public final class Query {
             projection.add(field.getColumn());
         }
 
-        for (Contact.AbstractField field : include) {
-            projection.add(field.getColumn());
+        for (Contact.Field field : include) {
+            if (isSupported(field)) {
+                projection.add(field.getColumn());
+            }
         }
 
         return projection.toArray(new String[projection.size()]);
     }
 
-    private Where addWhere(Where where, Where otherWhere) {
-        return where == null ? otherWhere : where.and(otherWhere);
+    /**
+     * The projection of the contact level fields on {@link ContactsContract.Contacts#CONTENT_URI}.
+     */
+    private String[] buildContactProjection() {
+        Set<String> projection = new HashSet<>();
+        projection.add(ContactsContract.Contacts._ID);
+
+        for (Contact.Field field : include) {
+            if (field.getMimeType() == null && isSupported(field)) {
+                projection.add(field.getColumn());
+            }
+        }
+
+        return projection.toArray(new String[projection.size()]);
+    }
+
+    private Map<String, Set<String>> buildMimeTypeProjections() {
+        Map<String, Set<String>> projections = new HashMap<>();
+        for (Contact.Field field : include) {
+            if (field.getMimeType() == null) {
+                continue;
+            }
+
+            Set<String> projection = projections.get(field.getMimeType());
+            if (projection == null) {
+                projection = new HashSet<>();
+                projection.add(ContactsContract.RawContacts.CONTACT_ID);
+                projection.add(ContactsContract.Data.MIMETYPE);
+                projections.put(field.getMimeType(), projection);
+            }
+
+            projection.add(field.getColumn());
+        }
+
+        return projections;
+    }
+
+    private static boolean isSupported(Contact.Field field) {
+        return field != Contact.Field.LastUpdated ||
+                android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.JELLY_BEAN_MR2;
+    }
+
+    private static Where addWhere(Where where, Where otherWhere) {
+        if (where == null) {
+            return otherWhere;
+        }
+
+        return otherWhere == null ? where : where.and(otherWhere);
     }
 }
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import java.util.List;
+
+/**
+ * Caches the results of {@link Query#find()} by query fingerprint, bounded by the number of results and
+ * their estimated memory, evicting the least recently used results first. Results expire after a time
+ * to live, and are all dropped by {@link #invalidate()} when the contacts change or are written by the client.
+ */
+final class QueryCache {
+    // rough heap sizes of the objects of an assembled contact, strings add two bytes per char.
+    private static final int CONTACT_BYTES = 160;
+    private static final int VALUE_BYTES = 48;
+    private static final int STRING_BYTES = 40;
+
+    private final BoundedCache<String, Result> results;
+    private final long ttlNanos;
+    private long generation = 0;
+    private boolean disabled = false;
+    private long hitCount = 0;
+    private long missCount = 0;
+    private long expiredCount = 0;
+    private long invalidationCount = 0;
+
+    private static final class Result {
+        private final List<Contact> contacts;
+        private final long bytes;
+        private final long loadNanos;
+
+        Result(List<Contact> contacts, long bytes, long loadNanos) {
+            this.contacts = contacts;
+            this.bytes = bytes;
+            this.loadNanos = loadNanos;
+        }
+    }
+
+    /**
+     * @param maxEntries    The maximal number of cached results.
+     * @param maxBytes      The maximal estimated memory of the cached results.
+     * @param ttlMillis     The time results are used for, or 0 to use them until the contacts change.
+     */
+    QueryCache(int maxEntries, long maxBytes, long ttlMillis) {
+        if (ttlMillis < 0) {
+            throw new IllegalArgumentException("ttlMillis must not be negative");
+        }
+
+        this.results = new BoundedCache<String, Result>(maxBytes, maxEntries) {
+            @Override
+            long sizeOf(String key, Result value) {
+                return value.bytes;
+            }
+        };
+
+        this.ttlNanos = ttlMillis * 1000000;
+    }
+
+    /**
+     * Gets a cached result.
+     *
+     * @return  The cached contacts, shared with other callers, or null.
+     */
+    List<Contact> get(String fingerprint) {
+        Result result = results.get(fingerprint);
+        synchronized (this) {
+            if (disabled) {
+                return null;
+            }
+
+            if (result != null && ttlNanos > 0 && System.nanoTime() - result.loadNanos > ttlNanos) {
+                results.remove(fingerprint);
+                expiredCount++;
+                result = null;
+            }
+
+            if (result == null) {
+                missCount++;
+                return null;
+            }
+
+            hitCount++;
+            return result.contacts;
+        }
+    }
+
+    /**
+     * Gets the generation to pass to {@link #put(String, List, long)}, read before the query executes.
+     */
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Caches a result, unless the contacts changed since the query started.
+     *
+     * @param generation    The generation when the query started.
+     */
+    void put(String fingerprint, List<Contact> contacts, long generation) {
+        Result result = new Result(contacts, estimateBytes(fingerprint, contacts), System.nanoTime());
+        synchronized (this) {
+            if (!disabled && generation == this.generation) {
+                results.put(fingerprint, result);
+            }
+        }
+    }
+
+    /**
+     * Drops all results, called when the contacts change.
+     */
+    synchronized void invalidate() {
+        generation++;
+        invalidationCount++;
+        results.evictAll();
+    }
+
+    /**
+     * Drops all results and caches no more, called when the client shuts down and stops observing the contacts.
+     */
+    synchronized void disable() {
+        disabled = true;
+        invalidate();
+    }
+
+    synchronized QueryCacheStats getStats() {
+        return new QueryCacheStats(hitCount, missCount, results.evictionCount(), expiredCount, invalidationCount,
+                results.count(), results.size());
+    }
+
+    private static long estimateBytes(String fingerprint, List<Contact> contacts) {
+        long bytes = estimateBytes(fingerprint);
+        for (Contact contact : contacts) {
+            bytes += CONTACT_BYTES + estimateBytes(contact.getDisplayName()) + estimateBytes(contact.getGivenName()) +
+                    estimateBytes(contact.getFamilyName()) + estimateBytes(contact.getMiddleName()) +
+                    estimateBytes(contact.getNamePrefix()) + estimateBytes(contact.getNameSuffix()) +
+                    estimateBytes(contact.getPhoneticGivenName()) + estimateBytes(contact.getPhoneticMiddleName()) +
+                    estimateBytes(contact.getPhoneticFamilyName()) + estimateBytes(contact.getNickname()) +
+                    estimateBytes(contact.getSortKey()) + estimateBytes(contact.getPhotoUri()) +
+                    estimateBytes(contact.getCompanyName()) + estimateBytes(contact.getCompanyTitle()) +
+                    estimateBytes(contact.getNote());
+
+            for (PhoneNumber phoneNumber : contact.getPhoneNumbers()) {
+                bytes += VALUE_BYTES + estimateBytes(phoneNumber.getNumber()) +
+                        estimateBytes(phoneNumber.getNormalizedNumber()) + estimateBytes(phoneNumber.getLabel());
+            }
+
+            for (Email email : contact.getEmails()) {
+                bytes += VALUE_BYTES + estimateBytes(email.getAddress()) + estimateBytes(email.getLabel());
+            }
+
+            for (Event event : contact.getEvents()) {
+                bytes += VALUE_BYTES + estimateBytes(event.getStartDate()) + estimateBytes(event.getLabel());
+            }
+
+            for (Address address : contact.getAddresses()) {
+                bytes += VALUE_BYTES + estimateBytes(address.getFormattedAddress()) +
+                        estimateBytes(address.getStreet()) + estimateBytes(address.getCity()) +
+                        estimateBytes(address.getRegion()) + estimateBytes(address.getPostcode()) +
+                        estimateBytes(address.getCountry()) + estimateBytes(address.getLabel());
+            }
+
+            for (String website : contact.getWebsites()) {
+                bytes += estimateBytes(website);
+            }
+        }
+
+        return bytes;
+    }
+
+    private static long estimateBytes(String s) {
+        return s == null ? 0 : STRING_BYTES + 2L * s.length();
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+/**
+ * A snapshot of the statistics of the query result cache of a client,
+ * see {@link ContactsClient#getQueryCacheStats()}. Counts accumulate from when the client was built.
+ */
+public final class QueryCacheStats {
+    private final long hitCount;
+    private final long missCount;
+    private final long evictionCount;
+    private final long expiredCount;
+    private final long invalidationCount;
+    private final int entryCount;
+    private final long estimatedBytes;
+
+    QueryCacheStats(long hitCount, long missCount, long evictionCount, long expiredCount,
+                    long invalidationCount, int entryCount, long estimatedBytes) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+        this.expiredCount = expiredCount;
+        this.invalidationCount = invalidationCount;
+        this.entryCount = entryCount;
+        this.estimatedBytes = estimatedBytes;
+    }
+
+    /**
+     * Gets the number of queries answered from the cache.
+     *
+     * @return hit count.
+     */
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Gets the number of queries that were not in the cache, including expired ones.
+     *
+     * @return miss count.
+     */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Gets the ratio of hits to all lookups.
+     *
+     * @return hit rate, or 0 if nothing was looked up.
+     */
+    public double getHitRate() {
+        long lookups = hitCount + missCount;
+        return lookups == 0 ? 0 : (double) hitCount / lookups;
+    }
+
+    /**
+     * Gets the number of results evicted to stay within the entry count and byte bounds.
+     *
+     * @return eviction count.
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Gets the number of results dropped because they were older than the time to live.
+     *
+     * @return expired count.
+     */
+    public long getExpiredCount() {
+        return expiredCount;
+    }
+
+    /**
+     * Gets the number of times the cache was cleared because the contacts changed.
+     *
+     * @return invalidation count.
+     */
+    public long getInvalidationCount() {
+        return invalidationCount;
+    }
+
+    /**
+     * Gets the number of cached results.
+     *
+     * @return entry count.
+     */
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * Gets the estimated memory held by the cached results.
+     *
+     * @return estimated bytes.
+     */
+    public long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "QueryCacheStats{hits=" + hitCount + ", misses=" + missCount + ", evictions=" + evictionCount +
+                ", expired=" + expiredCount + ", invalidations=" + invalidationCount +
+                ", entries=" + entryCount + ", bytes=" + estimatedBytes + "}";
+    }
+}
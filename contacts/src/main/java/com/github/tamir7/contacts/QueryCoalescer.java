@@ -0,0 +1,86 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Runs identical queries that execute at the same time once. The first caller of a query fingerprint
+ * runs the query on its own thread, later callers of the same fingerprint wait for that execution and
+ * share its contacts. Every caller gets its own list, so sorting or filtering the result is not shared.
+ *
+ * Executions that started before the contacts changed are not joined after {@link #invalidate()}.
+ */
+final class QueryCoalescer {
+    private final ConcurrentMap<String, FutureTask<List<Contact>>> executions = new ConcurrentHashMap<>();
+
+    /**
+     * Runs the query, or joins the running execution of the same fingerprint.
+     *
+     * @param fingerprint   The fingerprint of the query, see {@link Query#fingerprint()}.
+     * @param query         Executes the query.
+     * @return              The contacts.
+     */
+    List<Contact> find(String fingerprint, Callable<List<Contact>> query) {
+        FutureTask<List<Contact>> task = new FutureTask<>(query);
+        FutureTask<List<Contact>> running = executions.putIfAbsent(fingerprint, task);
+        if (running == null) {
+            try {
+                task.run();
+            } finally {
+                executions.remove(fingerprint, task);
+            }
+
+            running = task;
+        }
+
+        return new ArrayList<>(getResult(running));
+    }
+
+    /**
+     * Makes later callers start new executions, called when the contacts change.
+     */
+    void invalidate() {
+        executions.clear();
+    }
+
+    private static List<Contact> getResult(FutureTask<List<Contact>> task) {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while fetching contacts", e);
+        } catch (ExecutionException e) {
+            // the failure of the query itself is thrown to every caller.
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+
+            throw new IllegalStateException("Failed to fetch contacts", e.getCause());
+        }
+    }
+}
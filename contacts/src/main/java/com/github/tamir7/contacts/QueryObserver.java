@@ -0,0 +1,287 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.provider.ContactsContract;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Observes the results of a {@link Query}.
+ * Bursts of provider change notifications are debounced into a single refresh. A refresh resolves
+ * the matching contact ids, and only fetches contacts that were added or, where the provider reports
+ * update times (Jelly Bean MR2+), updated since the previous refresh.
+ */
+public final class QueryObserver {
+    private static final String TAG = QueryObserver.class.getSimpleName();
+    private static final long DEBOUNCE_MILLIS = 500;
+    private static final long MAX_DELAY_MILLIS = 5000;
+
+    private final Context context;
+    private final Query query;
+    private final Listener listener;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private HandlerThread thread;
+    private Handler handler;
+    private ContentObserver contentObserver;
+    private Map<Long, Contact> snapshot = null;
+    private long lastRefresh = 0;
+    private long firstPendingChange = 0;
+
+    /**
+     * Receives the changes of an observed query.
+     */
+    public interface Listener {
+        /**
+         * Called on the main thread with the first results of the query and every time they change.
+         *
+         * @param diff  The changes since the previous call.
+         */
+        void onChange(Diff diff);
+    }
+
+    /**
+     * The difference between two consecutive results of an observed query.
+     */
+    public static final class Diff {
+        private final boolean initial;
+        private final List<Contact> added;
+        private final List<Contact> removed;
+        private final List<Contact> changed;
+
+        Diff(boolean initial, List<Contact> added, List<Contact> removed, List<Contact> changed) {
+            this.initial = initial;
+            this.added = Collections.unmodifiableList(added);
+            this.removed = Collections.unmodifiableList(removed);
+            this.changed = Collections.unmodifiableList(changed);
+        }
+
+        /**
+         * Whether this is the first result of the query, in which case all contacts are added.
+         *
+         * @return true for the first result.
+         */
+        public boolean isInitial() {
+            return initial;
+        }
+
+        /**
+         * Gets the contacts that started satisfying the query.
+         *
+         * @return added contacts.
+         */
+        public List<Contact> getAdded() {
+            return added;
+        }
+
+        /**
+         * Gets the last known version of the contacts that no longer satisfy the query.
+         *
+         * @return removed contacts.
+         */
+        public List<Contact> getRemoved() {
+            return removed;
+        }
+
+        /**
+         * Gets the new version of contacts whose data changed.
+         *
+         * @return changed contacts.
+         */
+        public List<Contact> getChanged() {
+            return changed;
+        }
+
+        /**
+         * Whether there are no changes.
+         *
+         * @return true if nothing was added, removed or changed.
+         */
+        public boolean isEmpty() {
+            return added.isEmpty() && removed.isEmpty() && changed.isEmpty();
+        }
+    }
+
+    QueryObserver(Context context, Query query, Listener listener) {
+        this.context = context;
+        this.query = query;
+        this.listener = listener;
+    }
+
+    synchronized void start() {
+        thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        contentObserver = new ContentObserver(handler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                scheduleRefresh();
+            }
+        };
+
+        context.getContentResolver().registerContentObserver(ContactsContract.AUTHORITY_URI, true,
+                contentObserver);
+        handler.post(refresh);
+    }
+
+    /**
+     * Stops observing. No changes are reported after this call returns.
+     */
+    public synchronized void stop() {
+        if (thread == null) {
+            return;
+        }
+
+        context.getContentResolver().unregisterContentObserver(contentObserver);
+        handler.removeCallbacks(refresh);
+        thread.quit();
+        thread = null;
+    }
+
+    private synchronized boolean isStopped() {
+        return thread == null;
+    }
+
+    private void scheduleRefresh() {
+        long now = SystemClock.uptimeMillis();
+        if (firstPendingChange == 0) {
+            firstPendingChange = now;
+        }
+
+        // debounce, but refresh at least every MAX_DELAY_MILLIS during a notification storm.
+        long delay = Math.min(DEBOUNCE_MILLIS, Math.max(0, firstPendingChange + MAX_DELAY_MILLIS - now));
+        handler.removeCallbacks(refresh);
+        handler.postDelayed(refresh, delay);
+    }
+
+    private final Runnable refresh = new Runnable() {
+        @Override
+        public void run() {
+            firstPendingChange = 0;
+            try {
+                final Diff diff = computeDiff();
+                if (diff.isInitial() || !diff.isEmpty()) {
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (!isStopped()) {
+                                listener.onChange(diff);
+                            }
+                        }
+                    });
+                }
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Failed to refresh observed query", e);
+            }
+        }
+    };
+
+    private Diff computeDiff() {
+        long refreshStart = System.currentTimeMillis();
+        if (snapshot == null) {
+            List<Contact> contacts = query.find();
+            snapshot = new HashMap<>();
+            for (Contact contact : contacts) {
+                snapshot.put(contact.getId(), contact);
+            }
+
+            lastRefresh = refreshStart;
+            return new Diff(true, contacts, new ArrayList<Contact>(), new ArrayList<Contact>());
+        }
+
+        Set<Long> ids = query.findContactIds();
+        Map<Long, Contact> next = new HashMap<>(snapshot);
+        List<Contact> removed = new ArrayList<>();
+        for (Map.Entry<Long, Contact> entry : snapshot.entrySet()) {
+            if (!ids.contains(entry.getKey())) {
+                removed.add(entry.getValue());
+                next.remove(entry.getKey());
+            }
+        }
+
+        Set<Long> fetchIds = new HashSet<>();
+        for (Long id : ids) {
+            if (!snapshot.containsKey(id)) {
+                fetchIds.add(id);
+            }
+        }
+
+        fetchIds.addAll(findUpdatedIds(ids));
+
+        List<Contact> added = new ArrayList<>();
+        List<Contact> changed = new ArrayList<>();
+        if (!fetchIds.isEmpty()) {
+            for (Contact contact : query.find(new ArrayList<>(fetchIds))) {
+                Contact previous = next.put(contact.getId(), contact);
+                if (previous == null) {
+                    added.add(contact);
+                } else if (!previous.hasSameContent(contact)) {
+                    changed.add(contact);
+                }
+            }
+        }
+
+        snapshot = next;
+        lastRefresh = refreshStart;
+        return new Diff(false, added, removed, changed);
+    }
+
+    @SuppressLint("InlinedApi")
+    private Set<Long> findUpdatedIds(Set<Long> ids) {
+        if (android.os.Build.VERSION.SDK_INT < android.os.Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            // no update times, every contact may have changed.
+            return ids;
+        }
+
+        Set<Long> updatedIds = new HashSet<>();
+        Cursor c = context.getContentResolver().query(ContactsContract.Contacts.CONTENT_URI,
+                new String[]{ContactsContract.Contacts._ID},
+                Where.greaterThanOrEqual(ContactsContract.Contacts.CONTACT_LAST_UPDATED_TIMESTAMP,
+                        lastRefresh).toString(),
+                null,
+                null);
+
+        if (c != null) {
+            while (c.moveToNext()) {
+                long id = c.getLong(0);
+                if (ids.contains(id)) {
+                    updatedIds.add(id);
+                }
+            }
+
+            c.close();
+        }
+
+        return updatedIds;
+    }
+}
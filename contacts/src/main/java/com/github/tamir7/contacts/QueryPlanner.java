@@ -0,0 +1,191 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.ContactsContract;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Resolves the ids of the contacts satisfying a {@link Condition} in as few provider queries as possible.
+ * Pushable sub trees are executed as a single selection. Under an AND, conditions on the same MIME type
+ * share one selection and contact level conditions are added to every selection; under an OR, all
+ * pushable conditions share one selection. The id sets of the selections are then combined in memory.
+ */
+final class QueryPlanner {
+    private final Context context;
+    private final Where scope;
+    private final QueryStats stats;
+    private final QueryStats clientStats;
+
+    /**
+     * @param context       context.
+     * @param scope         Restricts the data rows of every selection, or null.
+     * @param stats         Collects statistics of the executed queries, or null.
+     * @param clientStats   Also collects statistics of the executed queries, or null.
+     */
+    QueryPlanner(Context context, Where scope, QueryStats stats, QueryStats clientStats) {
+        this.context = context;
+        this.scope = scope;
+        this.stats = stats;
+        this.clientStats = clientStats;
+    }
+
+    Set<Long> findIds(Condition condition) {
+        if (condition.isPushable()) {
+            return query(condition.toWhere());
+        }
+
+        if (condition instanceof Condition.And) {
+            return findIds((Condition.And) condition);
+        }
+
+        if (condition instanceof Condition.Or) {
+            return findIds((Condition.Or) condition);
+        }
+
+        Set<Long> ids = findAllIds();
+        ids.removeAll(findIds(((Condition.Not) condition).child));
+        return ids;
+    }
+
+    private Set<Long> findIds(Condition.And and) {
+        List<Condition> contactLevel = new ArrayList<>();
+        Map<String, List<Condition>> byMimeType = new LinkedHashMap<>();
+        List<Condition> multiMimeType = new ArrayList<>();
+        List<Condition> complex = new ArrayList<>();
+
+        for (Condition child : and.children) {
+            if (!child.isPushable()) {
+                complex.add(child);
+            } else if (child.getMimeTypes().isEmpty()) {
+                contactLevel.add(child);
+            } else if (child.getMimeTypes().size() == 1) {
+                String mimeType = child.getMimeTypes().iterator().next();
+                List<Condition> group = byMimeType.get(mimeType);
+                if (group == null) {
+                    group = new ArrayList<>();
+                    byMimeType.put(mimeType, group);
+                }
+
+                group.add(child);
+            } else {
+                multiMimeType.add(child);
+            }
+        }
+
+        List<List<Condition>> selections = new ArrayList<>(byMimeType.values());
+        for (Condition condition : multiMimeType) {
+            List<Condition> selection = new ArrayList<>();
+            selection.add(condition);
+            selections.add(selection);
+        }
+
+        if (selections.isEmpty() && !contactLevel.isEmpty()) {
+            selections.add(new ArrayList<Condition>());
+        }
+
+        Set<Long> ids = null;
+        for (List<Condition> selection : selections) {
+            selection.addAll(contactLevel);
+            ids = intersect(ids, query(new Condition.And(selection).toWhere()));
+            if (ids.isEmpty()) {
+                return ids;
+            }
+        }
+
+        for (Condition condition : complex) {
+            ids = intersect(ids, findIds(condition));
+            if (ids.isEmpty()) {
+                return ids;
+            }
+        }
+
+        return ids;
+    }
+
+    private Set<Long> findIds(Condition.Or or) {
+        List<Condition> pushable = new ArrayList<>();
+        Set<Long> ids = new HashSet<>();
+
+        for (Condition child : or.children) {
+            if (child.isPushable()) {
+                pushable.add(child);
+            } else {
+                ids.addAll(findIds(child));
+            }
+        }
+
+        if (!pushable.isEmpty()) {
+            ids.addAll(query(new Condition.Or(pushable).toWhere()));
+        }
+
+        return ids;
+    }
+
+    private Set<Long> query(Where where) {
+        return queryIds(ContactsContract.Data.CONTENT_URI, ContactsContract.RawContacts.CONTACT_ID,
+                scope == null ? where : where.and(scope));
+    }
+
+    private Set<Long> findAllIds() {
+        if (scope != null) {
+            return queryIds(ContactsContract.Data.CONTENT_URI, ContactsContract.RawContacts.CONTACT_ID, scope);
+        }
+
+        return queryIds(ContactsContract.Contacts.CONTENT_URI, ContactsContract.Contacts._ID, null);
+    }
+
+    private Set<Long> queryIds(Uri uri, String column, Where where) {
+        CursorTracker tracker = new CursorTracker(stats, clientStats);
+        Cursor c = context.getContentResolver().query(uri,
+                new String[]{column},
+                where == null ? null : where.toString(),
+                null,
+                null);
+
+        Set<Long> ids = new HashSet<>();
+        if (c != null) {
+            while (c.moveToNext()) {
+                tracker.onRow(c);
+                ids.add(c.getLong(0));
+            }
+
+            c.close();
+        }
+
+        tracker.finish();
+        return ids;
+    }
+
+    private static Set<Long> intersect(Set<Long> ids, Set<Long> otherIds) {
+        if (ids == null) {
+            return otherIds;
+        }
+
+        ids.retainAll(otherIds);
+        return ids;
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import android.database.Cursor;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Collects statistics of the provider queries executed by a {@link Query}.
+ * Attach with {@link Query#collectStats(QueryStats)}. Statistics accumulate over all executions of
+ * the query until {@link #reset()} is called.
+ *
+ * The estimated bytes follow the layout of a CursorWindow: a row slot, a field slot per column and the
+ * UTF-8 encoded strings and blobs of the row. This is roughly the amount of data copied from the
+ * contacts provider process for the rows read. Window fills count the CursorWindows filled by the
+ * provider, each of them is a separate Binder transaction.
+ */
+public final class QueryStats {
+    private static final int ROW_SLOT_BYTES = 4;
+    private static final int FIELD_SLOT_BYTES = 12;
+
+    private int queryCount;
+    private long rowCount;
+    private long windowFills;
+    private long estimatedBytes;
+    private long elapsedNanos;
+    private Listener listener;
+
+    /**
+     * Receives the statistics of every provider query, as it finishes.
+     */
+    public interface Listener {
+        /**
+         * Called on the thread that executed the provider query.
+         *
+         * @param rows              The number of rows read.
+         * @param windowFills       The number of cursor windows filled by the provider.
+         * @param estimatedBytes    The estimated bytes of the rows read.
+         * @param elapsedMillis     The time spent executing the query and reading its rows.
+         */
+        void onProviderQuery(int rows, int windowFills, long estimatedBytes, long elapsedMillis);
+    }
+
+    /**
+     * Sets a listener that is notified of every provider query.
+     *
+     * @param listener  The listener, or null to remove it.
+     * @return this, so you can chain this call.
+     */
+    public synchronized QueryStats setListener(Listener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * Gets the number of provider queries executed.
+     *
+     * @return query count.
+     */
+    public synchronized int getQueryCount() {
+        return queryCount;
+    }
+
+    /**
+     * Gets the number of cursor rows read.
+     *
+     * @return row count.
+     */
+    public synchronized long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Gets the number of cursor windows filled by the contacts provider.
+     *
+     * @return window fill count.
+     */
+    public synchronized long getWindowFills() {
+        return windowFills;
+    }
+
+    /**
+     * Gets the average number of rows per cursor window.
+     *
+     * @return rows per window, or 0 if no window was filled.
+     */
+    public synchronized double getRowsPerWindow() {
+        return windowFills == 0 ? 0 : (double) rowCount / windowFills;
+    }
+
+    /**
+     * Gets the estimated number of bytes of all cursor rows read.
+     *
+     * @return estimated bytes.
+     */
+    public synchronized long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    /**
+     * Gets the total time spent executing queries and reading their rows.
+     *
+     * @return elapsed milliseconds.
+     */
+    public synchronized long getElapsedMillis() {
+        return elapsedNanos / 1000000;
+    }
+
+    /**
+     * Clears all statistics.
+     */
+    public synchronized void reset() {
+        queryCount = 0;
+        rowCount = 0;
+        windowFills = 0;
+        estimatedBytes = 0;
+        elapsedNanos = 0;
+    }
+
+    void record(int rows, int windowFills, long estimatedBytes, long elapsedNanos) {
+        Listener listener;
+        synchronized (this) {
+            queryCount++;
+            rowCount += rows;
+            this.windowFills += windowFills;
+            this.estimatedBytes += estimatedBytes;
+            this.elapsedNanos += elapsedNanos;
+            listener = this.listener;
+        }
+
+        if (listener != null) {
+            listener.onProviderQuery(rows, windowFills, estimatedBytes, elapsedNanos / 1000000);
+        }
+    }
+
+    static long estimateRowBytes(Cursor c) {
+        int columns = c.getColumnCount();
+        long bytes = ROW_SLOT_BYTES + (long) FIELD_SLOT_BYTES * columns;
+        for (int i = 0; i < columns; i++) {
+            switch (c.getType(i)) {
+                case Cursor.FIELD_TYPE_STRING:
+                    bytes += utf8Length(c.getString(i)) + 1;
+                    break;
+                case Cursor.FIELD_TYPE_BLOB:
+                    bytes += c.getBlob(i).length;
+                    break;
+            }
+        }
+
+        return bytes;
+    }
+
+    private static int utf8Length(String s) {
+        try {
+            return s.getBytes("UTF-8").length;
+        } catch (UnsupportedEncodingException e) {
+            return s.length();
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "QueryStats{queries=" + queryCount + ", rows=" + rowCount + ", windowFills=" + windowFills +
+                ", bytes=" + estimatedBytes + ", millis=" + getElapsedMillis() + "}";
+    }
+}
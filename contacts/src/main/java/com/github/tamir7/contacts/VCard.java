@@ -0,0 +1,135 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+/**
+ * vCard property names and the mapping between vCard TYPE parameters and the library types.
+ * Types without a vCard equivalent are written as X-TYPE_NAME, custom labels as X-label.
+ */
+final class VCard {
+    static final String BEGIN = "BEGIN";
+    static final String END = "END";
+    static final String VCARD = "VCARD";
+    static final String VERSION = "VERSION";
+    static final String FN = "FN";
+    static final String N = "N";
+    static final String NICKNAME = "NICKNAME";
+    static final String X_PHONETIC_FIRST_NAME = "X-PHONETIC-FIRST-NAME";
+    static final String X_PHONETIC_MIDDLE_NAME = "X-PHONETIC-MIDDLE-NAME";
+    static final String X_PHONETIC_LAST_NAME = "X-PHONETIC-LAST-NAME";
+    static final String TEL = "TEL";
+    static final String EMAIL = "EMAIL";
+    static final String ADR = "ADR";
+    static final String LABEL = "LABEL";
+    static final String ORG = "ORG";
+    static final String TITLE = "TITLE";
+    static final String URL = "URL";
+    static final String NOTE = "NOTE";
+    static final String BDAY = "BDAY";
+    static final String ANNIVERSARY = "ANNIVERSARY";
+    static final String X_ANNIVERSARY = "X-ANNIVERSARY";
+    static final String X_EVENT = "X-EVENT";
+    static final String TYPE = "TYPE";
+
+    private static final String EXTENSION_PREFIX = "X-";
+
+    private VCard() {}
+
+    static String toTypeParameter(PhoneNumber phoneNumber) {
+        switch (phoneNumber.getType()) {
+            case HOME:
+                return "HOME";
+            case MOBILE:
+                return "CELL";
+            case WORK:
+                return "WORK";
+            case FAX_WORK:
+                return "WORK,FAX";
+            case FAX_HOME:
+                return "HOME,FAX";
+            case PAGER:
+                return "PAGER";
+            case CAR:
+                return "CAR";
+            case ISDN:
+                return "ISDN";
+            case CUSTOM:
+                return toCustomParameter(phoneNumber.getLabel());
+            case UNKNOWN:
+                return null;
+            default:
+                return EXTENSION_PREFIX + phoneNumber.getType().name();
+        }
+    }
+
+    static String toTypeParameter(Email email) {
+        switch (email.getType()) {
+            case HOME:
+                return "INTERNET,HOME";
+            case WORK:
+                return "INTERNET,WORK";
+            case CUSTOM:
+                return toCustomParameter(email.getLabel());
+            case UNKNOWN:
+                return "INTERNET";
+            default:
+                return EXTENSION_PREFIX + email.getType().name();
+        }
+    }
+
+    static String toTypeParameter(Address address) {
+        switch (address.getType()) {
+            case HOME:
+                return "HOME";
+            case WORK:
+                return "WORK";
+            case CUSTOM:
+                return toCustomParameter(address.getLabel());
+            case UNKNOWN:
+                return null;
+            default:
+                return EXTENSION_PREFIX + address.getType().name();
+        }
+    }
+
+    static String toTypeParameter(Event event) {
+        switch (event.getType()) {
+            case CUSTOM:
+                return toCustomParameter(event.getLabel());
+            case UNKNOWN:
+                return null;
+            default:
+                return EXTENSION_PREFIX + event.getType().name();
+        }
+    }
+
+    private static String toCustomParameter(String label) {
+        if (label == null) {
+            return null;
+        }
+
+        StringBuilder sb = new StringBuilder(EXTENSION_PREFIX.length() + label.length());
+        sb.append(EXTENSION_PREFIX);
+        for (int i = 0; i < label.length(); i++) {
+            char ch = label.charAt(i);
+            // parameter values may not contain these without quoting.
+            sb.append(ch == ';' || ch == ':' || ch == ',' || ch == '"' ? '_' : ch);
+        }
+
+        return sb.toString();
+    }
+}
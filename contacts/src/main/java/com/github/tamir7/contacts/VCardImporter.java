@@ -0,0 +1,65 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+
+/**
+ * Parses vCards from a stream and inserts them through a {@link ContactEditor}.
+ * Contacts are written as soon as a batch fills up, so neither the parsed contacts nor the
+ * pending operations grow with the size of the input.
+ */
+final class VCardImporter implements Callable<Integer> {
+    private final InputStream in;
+    private final ContactEditor editor;
+    private final ImportListener listener;
+
+    VCardImporter(InputStream in, ContactEditor editor, ImportListener listener) {
+        this.in = in;
+        this.editor = editor;
+        this.listener = listener;
+    }
+
+    @Override
+    public Integer call() throws Exception {
+        VCardParser parser = new VCardParser(in);
+        try {
+            int reported = 0;
+            Contact contact;
+            while ((contact = parser.next()) != null) {
+                editor.insert(contact);
+                reported = report(reported);
+            }
+
+            editor.apply();
+            report(reported);
+            return editor.getAppliedCount();
+        } finally {
+            parser.close();
+        }
+    }
+
+    private int report(int reported) {
+        int applied = editor.getAppliedCount();
+        if (applied != reported && listener != null) {
+            listener.onProgress(applied);
+        }
+
+        return applied;
+    }
+}
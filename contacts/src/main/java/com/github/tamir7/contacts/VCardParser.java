@@ -0,0 +1,525 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Incremental vCard 2.1, 3.0 and 4.0 parser. Reads one contact at a time from the stream,
+ * so only the vCard being parsed is held in memory.
+ */
+final class VCardParser implements Closeable {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final String ENCODING = "ENCODING";
+    private static final String QUOTED_PRINTABLE = "QUOTED-PRINTABLE";
+    private static final String EXTENSION_PREFIX = "X-";
+
+    private final BufferedReader reader;
+    private String nextLine;
+
+    VCardParser(InputStream in) {
+        reader = new BufferedReader(new InputStreamReader(in, UTF_8), BUFFER_SIZE);
+    }
+
+    /**
+     * Parses the next vCard.
+     *
+     * @return The next contact, or null at the end of the stream.
+     * @throws IOException if reading from the stream fails.
+     */
+    Contact next() throws IOException {
+        ContactBuilder builder = null;
+        String line;
+        while ((line = readLogicalLine()) != null) {
+            Property property = Property.parse(line);
+            if (property == null) {
+                continue;
+            }
+
+            if (property.name.equals(VCard.BEGIN) && property.value.equalsIgnoreCase(VCard.VCARD)) {
+                builder = new ContactBuilder();
+            } else if (property.name.equals(VCard.END) && property.value.equalsIgnoreCase(VCard.VCARD)) {
+                if (builder != null) {
+                    return builder.build();
+                }
+            } else if (builder != null) {
+                if (property.isQuotedPrintable()) {
+                    property.value = decodeQuotedPrintable(property.value);
+                }
+
+                builder.add(property);
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private String readLogicalLine() throws IOException {
+        String line = nextLine != null ? nextLine : reader.readLine();
+        nextLine = null;
+        if (line == null) {
+            return null;
+        }
+
+        StringBuilder sb = null;
+        boolean quotedPrintable = line.toUpperCase(Locale.US).contains(QUOTED_PRINTABLE);
+        String next;
+        while ((next = reader.readLine()) != null) {
+            if (!next.isEmpty() && (next.charAt(0) == ' ' || next.charAt(0) == '\t')) {
+                // folded line (RFC 2425).
+                if (sb == null) {
+                    sb = new StringBuilder(line);
+                }
+
+                sb.append(next, 1, next.length());
+            } else if (quotedPrintable && endsWithSoftBreak(sb == null ? line : sb)) {
+                // vCard 2.1 quoted printable soft line break.
+                if (sb == null) {
+                    sb = new StringBuilder(line);
+                }
+
+                sb.append('\n').append(next);
+            } else {
+                nextLine = next;
+                break;
+            }
+        }
+
+        return sb == null ? line : sb.toString();
+    }
+
+    private static boolean endsWithSoftBreak(CharSequence line) {
+        return line.length() > 0 && line.charAt(line.length() - 1) == '=';
+    }
+
+    private static String decodeQuotedPrintable(String value) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            if (ch != '=') {
+                // unencoded text, which may contain non ASCII characters, is written as UTF-8.
+                int end = i;
+                while (end < value.length() && value.charAt(end) != '=') {
+                    end++;
+                }
+
+                byte[] bytes = value.substring(i, end).replace("\n", "").getBytes(UTF_8);
+                out.write(bytes, 0, bytes.length);
+                i = end - 1;
+            } else if (i + 1 < value.length() && value.charAt(i + 1) == '\n') {
+                i++;
+            } else if (i + 2 < value.length()) {
+                int high = Character.digit(value.charAt(i + 1), 16);
+                int low = Character.digit(value.charAt(i + 2), 16);
+                if (high >= 0 && low >= 0) {
+                    out.write((high << 4) | low);
+                    i += 2;
+                } else {
+                    out.write(ch);
+                }
+            }
+        }
+
+        return new String(out.toByteArray(), UTF_8);
+    }
+
+    private static final class Property {
+        private String name;
+        private final Set<String> types = new LinkedHashSet<>();
+        private String label;
+        private String encoding;
+        private String value;
+
+        static Property parse(String line) {
+            int colon = findValueSeparator(line);
+            if (colon == -1) {
+                return null;
+            }
+
+            Property property = new Property();
+            property.value = line.substring(colon + 1);
+            List<String> parts = split(line.substring(0, colon), ';', true);
+            String name = parts.get(0);
+            int dot = name.indexOf('.');
+            if (dot != -1) {
+                // strip property group, e.g. item1.TEL
+                name = name.substring(dot + 1);
+            }
+
+            property.name = name.toUpperCase(Locale.US);
+
+            for (int i = 1; i < parts.size(); i++) {
+                property.addParameter(parts.get(i));
+            }
+
+            return property;
+        }
+
+        private void addParameter(String parameter) {
+            int equals = parameter.indexOf('=');
+            if (equals == -1) {
+                // vCard 2.1 style bare type, e.g. TEL;CELL
+                addTypes(parameter);
+                return;
+            }
+
+            String key = parameter.substring(0, equals).toUpperCase(Locale.US);
+            String value = unquote(parameter.substring(equals + 1));
+            if (key.equals(VCard.TYPE)) {
+                addTypes(value);
+            } else if (key.equals(VCard.LABEL)) {
+                label = value.replace("\\n", "\n").replace("\\N", "\n");
+            } else if (key.equals(ENCODING)) {
+                encoding = value.toUpperCase(Locale.US);
+            }
+        }
+
+        private void addTypes(String value) {
+            for (String type : split(value, ',', false)) {
+                String trimmed = type.trim();
+                if (!trimmed.isEmpty()) {
+                    types.add(trimmed.startsWith(EXTENSION_PREFIX) || trimmed.startsWith("x-") ?
+                            EXTENSION_PREFIX + trimmed.substring(2) : trimmed.toUpperCase(Locale.US));
+                }
+            }
+        }
+
+        boolean isQuotedPrintable() {
+            return QUOTED_PRINTABLE.equals(encoding) || types.contains(QUOTED_PRINTABLE);
+        }
+
+        boolean hasType(String type) {
+            return types.contains(type);
+        }
+
+        String getExtensionType() {
+            for (String type : types) {
+                if (type.startsWith(EXTENSION_PREFIX)) {
+                    return type.substring(EXTENSION_PREFIX.length());
+                }
+            }
+
+            return null;
+        }
+
+        String getText() {
+            return unescape(value);
+        }
+
+        List<String> getComponents() {
+            List<String> components = new ArrayList<>();
+            for (String component : split(value, ';', false)) {
+                String text = unescape(component);
+                components.add(text.isEmpty() ? null : text);
+            }
+
+            return components;
+        }
+
+        private static int findValueSeparator(String line) {
+            boolean quoted = false;
+            for (int i = 0; i < line.length(); i++) {
+                char ch = line.charAt(i);
+                if (ch == '"') {
+                    quoted = !quoted;
+                } else if (ch == ':' && !quoted) {
+                    return i;
+                }
+            }
+
+            return -1;
+        }
+
+        private static String unquote(String value) {
+            return value.length() >= 2 && value.charAt(0) == '"' && value.charAt(value.length() - 1) == '"' ?
+                    value.substring(1, value.length() - 1) : value;
+        }
+    }
+
+    private static List<String> split(String value, char separator, boolean respectQuotes) {
+        List<String> parts = new ArrayList<>();
+        boolean quoted = false;
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            if (ch == '\\' && !respectQuotes) {
+                i++;
+            } else if (ch == '"' && respectQuotes) {
+                quoted = !quoted;
+            } else if (ch == separator && !quoted) {
+                parts.add(value.substring(start, i));
+                start = i + 1;
+            }
+        }
+
+        parts.add(value.substring(start));
+        return parts;
+    }
+
+    private static String unescape(String value) {
+        if (value.indexOf('\\') == -1) {
+            return value;
+        }
+
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            if (ch == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                sb.append(next == 'n' || next == 'N' ? '\n' : next);
+            } else {
+                sb.append(ch);
+            }
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Maps vCard properties of a single vCard into a Contact.
+     */
+    private static final class ContactBuilder {
+        private final Contact contact = new Contact();
+        private final List<Property> addresses = new ArrayList<>();
+        // the LABEL of every address, or null. Not every ADR is followed by a LABEL.
+        private final List<Property> labels = new ArrayList<>();
+        private Property pendingLabel = null;
+
+        void add(Property property) {
+            switch (property.name) {
+                case VCard.FN:
+                    contact.addDisplayName(property.getText());
+                    break;
+                case VCard.N:
+                    List<String> names = property.getComponents();
+                    contact.addFamilyName(names.get(0));
+                    if (names.size() > 1) {
+                        contact.addGivenName(names.get(1));
+                    }
+
+                    if (names.size() > 2) {
+                        contact.addMiddleName(names.get(2));
+                    }
+
+                    if (names.size() > 3) {
+                        contact.addNamePrefix(names.get(3));
+                    }
+
+                    if (names.size() > 4) {
+                        contact.addNameSuffix(names.get(4));
+                    }
+                    break;
+                case VCard.NICKNAME:
+                    contact.addNickname(property.getText());
+                    break;
+                case VCard.X_PHONETIC_FIRST_NAME:
+                    contact.addPhoneticGivenName(property.getText());
+                    break;
+                case VCard.X_PHONETIC_MIDDLE_NAME:
+                    contact.addPhoneticMiddleName(property.getText());
+                    break;
+                case VCard.X_PHONETIC_LAST_NAME:
+                    contact.addPhoneticFamilyName(property.getText());
+                    break;
+                case VCard.TEL:
+                    contact.addPhoneNumber(toPhoneNumber(property));
+                    break;
+                case VCard.EMAIL:
+                    contact.addEmail(toEmail(property));
+                    break;
+                case VCard.ADR:
+                    addresses.add(property);
+                    labels.add(pendingLabel);
+                    pendingLabel = null;
+                    break;
+                case VCard.LABEL:
+                    // a LABEL belongs to the ADR before it, or to the next ADR if it comes first.
+                    if (!addresses.isEmpty() && labels.get(labels.size() - 1) == null) {
+                        labels.set(labels.size() - 1, property);
+                    } else {
+                        pendingLabel = property;
+                    }
+                    break;
+                case VCard.ORG:
+                    contact.addCompanyName(property.getComponents().get(0));
+                    break;
+                case VCard.TITLE:
+                    contact.addCompanyTitle(property.getText());
+                    break;
+                case VCard.URL:
+                    contact.addWebsite(property.getText());
+                    break;
+                case VCard.NOTE:
+                    contact.addNote(property.getText());
+                    break;
+                case VCard.BDAY:
+                    contact.addEvent(new Event(property.getText(), Event.Type.BIRTHDAY));
+                    break;
+                case VCard.ANNIVERSARY:
+                case VCard.X_ANNIVERSARY:
+                    contact.addEvent(new Event(property.getText(), Event.Type.ANNIVERSARY));
+                    break;
+                case VCard.X_EVENT:
+                    contact.addEvent(toEvent(property));
+                    break;
+            }
+        }
+
+        Contact build() {
+            for (int i = 0; i < addresses.size(); i++) {
+                // vCard 3.0 writes the formatted address as a separate LABEL property.
+                contact.addAddress(toAddress(addresses.get(i), labels.get(i)));
+            }
+
+            return contact;
+        }
+
+        private static PhoneNumber toPhoneNumber(Property property) {
+            String number = property.getText();
+            String extension = property.getExtensionType();
+            if (extension != null) {
+                PhoneNumber.Type type = valueOf(PhoneNumber.Type.class, extension);
+                return type != null ? new PhoneNumber(number, type) : new PhoneNumber(number, extension);
+            }
+
+            boolean fax = property.hasType("FAX");
+            PhoneNumber.Type type;
+            if (property.hasType("CELL")) {
+                type = PhoneNumber.Type.MOBILE;
+            } else if (property.hasType("PAGER")) {
+                type = PhoneNumber.Type.PAGER;
+            } else if (property.hasType("HOME")) {
+                type = fax ? PhoneNumber.Type.FAX_HOME : PhoneNumber.Type.HOME;
+            } else if (property.hasType("WORK")) {
+                type = fax ? PhoneNumber.Type.FAX_WORK : PhoneNumber.Type.WORK;
+            } else if (fax) {
+                type = PhoneNumber.Type.OTHER_FAX;
+            } else if (property.hasType("CAR")) {
+                type = PhoneNumber.Type.CAR;
+            } else if (property.hasType("ISDN")) {
+                type = PhoneNumber.Type.ISDN;
+            } else {
+                type = PhoneNumber.Type.OTHER;
+            }
+
+            return new PhoneNumber(number, type);
+        }
+
+        private static Email toEmail(Property property) {
+            String address = property.getText();
+            String extension = property.getExtensionType();
+            if (extension != null) {
+                Email.Type type = valueOf(Email.Type.class, extension);
+                return type != null ? new Email(address, type) : new Email(address, extension);
+            }
+
+            if (property.hasType("HOME")) {
+                return new Email(address, Email.Type.HOME);
+            } else if (property.hasType("WORK")) {
+                return new Email(address, Email.Type.WORK);
+            } else if (property.hasType("CELL")) {
+                return new Email(address, Email.Type.MOBILE);
+            }
+
+            return new Email(address, Email.Type.OTHER);
+        }
+
+        private static Event toEvent(Property property) {
+            String extension = property.getExtensionType();
+            if (extension == null) {
+                return new Event(property.getText(), Event.Type.OTHER);
+            }
+
+            Event.Type type = valueOf(Event.Type.class, extension);
+            return type != null ? new Event(property.getText(), type) :
+                    new Event(property.getText(), extension);
+        }
+
+        private static Address toAddress(Property property, Property labelProperty) {
+            List<String> components = property.getComponents();
+            while (components.size() < 7) {
+                components.add(null);
+            }
+
+            String street = components.get(2);
+            String city = components.get(3);
+            String region = components.get(4);
+            String postcode = components.get(5);
+            String country = components.get(6);
+
+            String formatted = property.label;
+            if (formatted == null && labelProperty != null) {
+                formatted = labelProperty.getText();
+            }
+
+            if (formatted == null) {
+                formatted = format(street, city, region, postcode, country);
+            }
+
+            String extension = property.getExtensionType();
+            if (extension != null) {
+                Address.Type type = valueOf(Address.Type.class, extension);
+                return type != null ? new Address(formatted, street, city, region, postcode, country, type) :
+                        new Address(formatted, street, city, region, postcode, country, extension);
+            }
+
+            Address.Type type = property.hasType("HOME") ? Address.Type.HOME :
+                    property.hasType("WORK") ? Address.Type.WORK : Address.Type.OTHER;
+            return new Address(formatted, street, city, region, postcode, country, type);
+        }
+
+        private static String format(String... parts) {
+            StringBuilder sb = new StringBuilder();
+            for (String part : parts) {
+                if (part != null) {
+                    if (sb.length() > 0) {
+                        sb.append(", ");
+                    }
+
+                    sb.append(part);
+                }
+            }
+
+            return sb.toString();
+        }
+
+        private static <T extends Enum<T>> T valueOf(Class<T> type, String name) {
+            try {
+                return Enum.valueOf(type, name);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
+}
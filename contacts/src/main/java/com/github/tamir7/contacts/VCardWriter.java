@@ -0,0 +1,259 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Writes contacts as vCards, one contact at a time.
+ */
+final class VCardWriter implements Query.Callback {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String CRLF = "\r\n";
+    private static final int MAX_LINE_OCTETS = 75;
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private final Writer writer;
+    private final VCardVersion version;
+    private final StringBuilder line = new StringBuilder(128);
+    private int count = 0;
+
+    VCardWriter(OutputStream out, VCardVersion version) {
+        this.writer = new BufferedWriter(new OutputStreamWriter(out, UTF_8), BUFFER_SIZE);
+        this.version = version;
+    }
+
+    /**
+     * Writes the contact, rethrowing write failures unchecked so they can cross
+     * {@link Query#forEach(Query.Callback)}. Use {@link #unwrap(IllegalStateException)}
+     * to recover the IOException.
+     */
+    @Override
+    public void onContact(Contact contact) {
+        try {
+            write(contact);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void write(Contact contact) throws IOException {
+        writeProperty(VCard.BEGIN, null, VCard.VCARD, false);
+        writeProperty(VCard.VERSION, null, version.toString(), false);
+
+        String displayName = contact.getDisplayName();
+        writeProperty(VCard.FN, null, displayName == null ? "" : displayName, true);
+        writeStructured(VCard.N, null, contact.getFamilyName(), contact.getGivenName(), contact.getMiddleName(),
+                contact.getNamePrefix(), contact.getNameSuffix());
+
+        if (contact.getNickname() != null) {
+            writeProperty(VCard.NICKNAME, null, contact.getNickname(), true);
+        }
+
+        if (contact.getPhoneticGivenName() != null) {
+            writeProperty(VCard.X_PHONETIC_FIRST_NAME, null, contact.getPhoneticGivenName(), true);
+        }
+
+        if (contact.getPhoneticMiddleName() != null) {
+            writeProperty(VCard.X_PHONETIC_MIDDLE_NAME, null, contact.getPhoneticMiddleName(), true);
+        }
+
+        if (contact.getPhoneticFamilyName() != null) {
+            writeProperty(VCard.X_PHONETIC_LAST_NAME, null, contact.getPhoneticFamilyName(), true);
+        }
+
+        for (PhoneNumber phoneNumber : contact.getPhoneNumbers()) {
+            writeProperty(VCard.TEL, typeParameter(VCard.toTypeParameter(phoneNumber)), phoneNumber.getNumber(),
+                    true);
+        }
+
+        for (Email email : contact.getEmails()) {
+            writeProperty(VCard.EMAIL, typeParameter(VCard.toTypeParameter(email)), email.getAddress(), true);
+        }
+
+        for (Address address : contact.getAddresses()) {
+            writeAddress(address);
+        }
+
+        if (contact.getCompanyName() != null) {
+            writeProperty(VCard.ORG, null, contact.getCompanyName(), true);
+        }
+
+        if (contact.getCompanyTitle() != null) {
+            writeProperty(VCard.TITLE, null, contact.getCompanyTitle(), true);
+        }
+
+        for (String website : contact.getWebsites()) {
+            writeProperty(VCard.URL, null, website, true);
+        }
+
+        for (Event event : contact.getEvents()) {
+            writeEvent(event);
+        }
+
+        if (contact.getNote() != null) {
+            writeProperty(VCard.NOTE, null, contact.getNote(), true);
+        }
+
+        writeProperty(VCard.END, null, VCard.VCARD, false);
+        count++;
+    }
+
+    void flush() throws IOException {
+        writer.flush();
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    static IOException unwrap(IllegalStateException e) {
+        return e.getCause() instanceof IOException ? (IOException) e.getCause() : null;
+    }
+
+    private void writeAddress(Address address) throws IOException {
+        String parameters = typeParameter(VCard.toTypeParameter(address));
+        boolean hasComponents = address.getStreet() != null || address.getCity() != null ||
+                address.getRegion() != null || address.getPostcode() != null || address.getCountry() != null;
+
+        if (version == VCardVersion.V4_0) {
+            if (address.getFormattedAddress() != null) {
+                String label = VCard.LABEL + "=\"" + quoteParameter(address.getFormattedAddress()) + "\"";
+                parameters = parameters == null ? label : parameters + ";" + label;
+            }
+
+            writeStructured(VCard.ADR, parameters, null, null,
+                    address.getStreet(), address.getCity(), address.getRegion(), address.getPostcode(),
+                    address.getCountry());
+            return;
+        }
+
+        if (hasComponents || address.getFormattedAddress() == null) {
+            writeStructured(VCard.ADR, parameters, null, null, address.getStreet(), address.getCity(),
+                    address.getRegion(), address.getPostcode(), address.getCountry());
+        } else {
+            writeStructured(VCard.ADR, parameters, null, null, address.getFormattedAddress(), null, null,
+                    null, null);
+        }
+
+        if (address.getFormattedAddress() != null) {
+            writeProperty(VCard.LABEL, parameters, address.getFormattedAddress(), true);
+        }
+    }
+
+    private void writeEvent(Event event) throws IOException {
+        switch (event.getType()) {
+            case BIRTHDAY:
+                writeProperty(VCard.BDAY, null, event.getStartDate(), false);
+                break;
+            case ANNIVERSARY:
+                writeProperty(version == VCardVersion.V4_0 ? VCard.ANNIVERSARY : VCard.X_ANNIVERSARY, null,
+                        event.getStartDate(), false);
+                break;
+            default:
+                writeProperty(VCard.X_EVENT, typeParameter(VCard.toTypeParameter(event)), event.getStartDate(),
+                        true);
+                break;
+        }
+    }
+
+    private void writeStructured(String name, String parameters, String... components) throws IOException {
+        line.setLength(0);
+        for (int i = 0; i < components.length; i++) {
+            if (i > 0) {
+                line.append(';');
+            }
+
+            if (components[i] != null) {
+                escape(line, components[i]);
+            }
+        }
+
+        String value = line.toString();
+        writeProperty(name, parameters, value, false);
+    }
+
+    private void writeProperty(String name, String parameters, String value, boolean escape)
+            throws IOException {
+        line.setLength(0);
+        line.append(name);
+        if (parameters != null) {
+            line.append(';').append(parameters);
+        }
+
+        line.append(':');
+        if (escape) {
+            escape(line, value);
+        } else {
+            line.append(value);
+        }
+
+        writeFolded(line);
+    }
+
+    private void writeFolded(CharSequence text) throws IOException {
+        int octets = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            int charOctets = ch < 0x80 ? 1 : ch < 0x800 ? 2 : Character.isHighSurrogate(ch) ? 4 :
+                    Character.isLowSurrogate(ch) ? 0 : 3;
+            if (octets + charOctets > MAX_LINE_OCTETS && charOctets > 0) {
+                writer.write(CRLF);
+                writer.write(' ');
+                octets = 1;
+            }
+
+            writer.write(ch);
+            octets += charOctets;
+        }
+
+        writer.write(CRLF);
+    }
+
+    private static void escape(StringBuilder sb, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            switch (ch) {
+                case '\\':
+                case ',':
+                case ';':
+                    sb.append('\\').append(ch);
+                    break;
+                case '\r':
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                default:
+                    sb.append(ch);
+            }
+        }
+    }
+
+    private static String typeParameter(String type) {
+        return type == null ? null : VCard.TYPE + "=" + type;
+    }
+
+    private static String quoteParameter(String value) {
+        return value.replace("\"", "'").replace("\r", "").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.tamir7.contacts;
+
+/**
+ * Work to run in the background when the library is initialized with
+ * {@link Contacts#initialize(android.content.Context, WarmUp)}, so that the first queries of the
+ * application do not pay for a cold contacts provider.
+ *
+ * The warm up always runs a minimal query, which starts the contacts provider process and loads the
+ * query classes. The contact index, phone lookup table and event index are only loaded if requested,
+ * and are then reloaded in the background whenever the contacts change.
+ * Queries do not read the contact index, it serves {@link Contacts#getContactIndex()} and
+ * {@link Contacts#lookupNumbers(java.util.Collection)}.
+ *
+ * The warm up is skipped if the READ_CONTACTS permission is not granted when the library is initialized.
+ */
+public final class WarmUp {
+    private boolean contactIndex = false;
+    private boolean phoneLookup = false;
+    private boolean eventIndex = false;
+
+    /**
+     * Load the {@link ContactIndex} of contact ids, display names and photo uris.
+     *
+     * @return this, so you can chain this call.
+     */
+    public WarmUp loadContactIndex() {
+        contactIndex = true;
+        return this;
+    }
+
+    /**
+     * Load the {@link ContactIndex} including its phone number lookup table.
+     *
+     * @return this, so you can chain this call.
+     */
+    public WarmUp loadPhoneLookup() {
+        contactIndex = true;
+        phoneLookup = true;
+        return this;
+    }
+
+    /**
+     * Load the {@link EventIndex} used by {@link Contacts#upcomingEvents(Event.Type, int)}.
+     *
+     * @return this, so you can chain this call.
+     */
+    public WarmUp loadEventIndex() {
+        eventIndex = true;
+        return this;
+    }
+
+    boolean isContactIndex() {
+        return contactIndex;
+    }
+
+    boolean isPhoneLookup() {
+        return phoneLookup;
+    }
+
+    boolean isEventIndex() {
+        return eventIndex;
+    }
+}
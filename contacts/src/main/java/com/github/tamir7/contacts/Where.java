@@ -18,17 +18,60 @@ package com.github.tamir7.contacts;
 
 import android.database.DatabaseUtils;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.List;
 
+/**
+ * An immutable selection expression. Combining expressions only creates a node that refers to its
+ * operands, the selection string is rendered once, in a single pass into a buffer of the exact size.
+ */
 final class Where {
-    private StringBuilder where;
+    private static final String AND = " AND ";
+    private static final String OR = " OR ";
+    private static final String OPEN = "( ";
+    private static final String CLOSE = " )";
+    private static final String NOT = "( NOT ";
+
+    // the rendered predicate of a leaf, null for a combination.
+    private final String predicate;
+    // AND, OR or NOT for a combination.
+    private final String operator;
+    private final Where[] operands;
+    private final int length;
+    private String rendered;
+
+    private Where(String predicate) {
+        this.predicate = predicate;
+        this.operator = null;
+        this.operands = null;
+        this.length = predicate.length();
+    }
 
     private Where(String key, String value, Operator operator) {
-        where = new StringBuilder(key).append(operator.toString()).append(value);
+        this(key + operator.toString() + value);
     }
 
-    private Where(String key, List<?> objects, Operator operator) {
-        where = new StringBuilder(key).append(operator).append("(");
+    private Where(String operator, Where... operands) {
+        this.predicate = null;
+        this.operator = operator;
+        this.operands = operands;
+
+        int length;
+        if (operator.equals(NOT)) {
+            length = NOT.length() + operands[0].length + CLOSE.length();
+        } else {
+            length = OPEN.length() + CLOSE.length() + operator.length() * (operands.length - 1);
+            for (Where operand : operands) {
+                length += operand.length;
+            }
+        }
+
+        this.length = length;
+    }
+
+    private static String list(String key, List<?> objects, Operator operator) {
+        StringBuilder where = new StringBuilder(key).append(operator).append("(");
         boolean first = true;
         for (Object o : objects) {
             if (first) {
@@ -39,11 +82,11 @@ final class Where {
             where.append(toSafeString(o));
         }
 
-        where.append(")");
+        return where.append(")").toString();
     }
 
     static Where in(String key, List<?> objects) {
-        return new Where(key, objects, Operator.In);
+        return new Where(list(key, objects, Operator.In));
     }
 
     static Where in(String key, String statement) {
@@ -51,7 +94,7 @@ final class Where {
     }
 
     static Where notIn(String key, List<?> objects) {
-        return new Where(key, objects, Operator.NotIn);
+        return new Where(list(key, objects, Operator.NotIn));
     }
 
     static Where equalTo(String key, Object value) {
@@ -59,19 +102,19 @@ final class Where {
     }
 
     static Where startsWith(String key, Object prefix) {
-        return new Where(key, String.format("'%s%%'", prefix.toString()), Operator.Like);
+        return new Where(key, "'" + prefix + "%'", Operator.Like);
     }
 
     static Where endsWith(String key, Object suffix) {
-        return new Where(key, String.format("'%%%s'", suffix.toString()), Operator.Like);
+        return new Where(key, "'%" + suffix + "'", Operator.Like);
     }
 
     static Where contains(String key, Object substring) {
-        return new Where(key, String.format("'%%%s%%'", substring.toString()), Operator.Like);
+        return new Where(key, "'%" + substring + "%'", Operator.Like);
     }
 
     static Where doesNotStartWith(String key, Object prefix) {
-        return new Where(key, String.format("'%s%%'", prefix.toString()), Operator.NotLike);
+        return new Where(key, "'" + prefix + "%'", Operator.NotLike);
     }
 
     static Where notEqualTo(String key, Object value) {
@@ -98,20 +141,46 @@ final class Where {
         return new Where(key, toSafeString(value), Operator.Is);
     }
 
+    static Where isNull(String key) {
+        return new Where(key, "NULL", Operator.Is);
+    }
+
     static Where isNot(String key, Object value) {
         return new Where(key, toSafeString(value), Operator.IsNot);
     }
 
+    /**
+     * Combines all expressions with AND in a single node.
+     */
+    static Where and(List<Where> wheres) {
+        return combine(AND, wheres);
+    }
+
+    /**
+     * Combines all expressions with OR in a single node.
+     */
+    static Where or(List<Where> wheres) {
+        return combine(OR, wheres);
+    }
+
+    private static Where combine(String operator, List<Where> wheres) {
+        if (wheres.isEmpty()) {
+            throw new IllegalArgumentException("At least one expression is required");
+        }
+
+        return wheres.size() == 1 ? wheres.get(0) : new Where(operator, wheres.toArray(new Where[wheres.size()]));
+    }
+
     Where and(Where andWhere) {
-        where = new StringBuilder(String.format("( %s AND %s )", where.toString(),
-                andWhere.toString()));
-        return this;
+        return new Where(AND, this, andWhere);
     }
 
     Where or(Where orWhere) {
-        where = new StringBuilder(String.format("( %s OR %s )", where.toString(),
-                orWhere.toString()));
-        return this;
+        return new Where(OR, this, orWhere);
+    }
+
+    Where not() {
+        return new Where(NOT, this);
     }
 
     private static String toSafeString(Object o) {
@@ -120,6 +189,48 @@ final class Where {
 
     @Override
     public String toString() {
+        String where = rendered;
+        if (where == null) {
+            where = render();
+            rendered = where;
+        }
+
+        return where;
+    }
+
+    // renders iteratively, so deeply nested expressions do not overflow the stack.
+    private String render() {
+        StringBuilder where = new StringBuilder(length);
+        Deque<Object> stack = new ArrayDeque<>();
+        stack.push(this);
+        while (!stack.isEmpty()) {
+            Object item = stack.pop();
+            if (item instanceof String) {
+                where.append((String) item);
+                continue;
+            }
+
+            Where node = (Where) item;
+            if (node.predicate != null) {
+                where.append(node.predicate);
+            } else if (node.rendered != null) {
+                where.append(node.rendered);
+            } else if (node.operator.equals(NOT)) {
+                where.append(NOT);
+                stack.push(CLOSE);
+                stack.push(node.operands[0]);
+            } else {
+                where.append(OPEN);
+                stack.push(CLOSE);
+                for (int i = node.operands.length - 1; i > 0; i--) {
+                    stack.push(node.operands[i]);
+                    stack.push(node.operator);
+                }
+
+                stack.push(node.operands[0]);
+            }
+        }
+
         return where.toString();
     }
 
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.tamir7.contacts;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConditionTest {
+    private final Condition phone = Condition.equalTo(Contact.Field.PhoneNumber, 5551234);
+    private final Condition phoneType = Condition.equalTo(Contact.Field.PhoneType, 2);
+    private final Condition event = Condition.equalTo(Contact.Field.EventType, 3);
+
+    @Test
+    public void nestedAndsAreFlattened() {
+        Condition and = Condition.and(Condition.and(phone, event), phoneType);
+
+        assertTrue(and instanceof Condition.And);
+        assertEquals(Arrays.asList(phone, event, phoneType), ((Condition.And) and).children);
+    }
+
+    @Test
+    public void accumulatedConditionsAreFlat() {
+        Condition and = Condition.and(Condition.and(Condition.and(null, phone), event), phoneType);
+
+        assertEquals(Arrays.asList(phone, event, phoneType), ((Condition.And) and).children);
+    }
+
+    @Test
+    public void sameMimeTypeIsPushableInAnyOrder() {
+        assertTrue(Condition.and(Condition.and(phone), phoneType).isPushable());
+        assertFalse(Condition.and(Condition.and(phone, event), phoneType).isPushable());
+    }
+
+    @Test
+    public void orsAreNotMergedIntoAnds() {
+        Condition or = Condition.or(phone, event);
+        Condition and = Condition.and(or, phoneType);
+
+        assertEquals(Arrays.asList(or, phoneType), ((Condition.And) and).children);
+    }
+}
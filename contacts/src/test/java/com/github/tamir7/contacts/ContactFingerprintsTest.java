@@ -0,0 +1,235 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.tamir7.contacts;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ContactFingerprintsTest {
+    // contact ids whose hashed ids are the first and last keys of both halves of the key range.
+    private static final long FIRST_ID = unmix(0L);
+    private static final long LAST_ID = unmix(-1L);
+    private static final long LAST_POSITIVE_ID = unmix(Long.MAX_VALUE);
+    private static final long FIRST_NEGATIVE_ID = unmix(Long.MIN_VALUE);
+
+    @Test
+    public void equalSnapshotsHaveNoDiff() {
+        Map<Long, Long> hashes = snapshot(30000);
+
+        ContactFingerprints.Diff diff = ContactFingerprints.of(hashes).diff(ContactFingerprints.of(hashes));
+
+        assertTrue(diff.isEmpty());
+        assertEquals(1, diff.getComparedHashes());
+    }
+
+    @Test
+    public void findsAddedRemovedAndChanged() {
+        Map<Long, Long> before = snapshot(30000);
+        Map<Long, Long> after = new HashMap<>(before);
+        after.put(100000L, 1L);
+        after.remove(17L);
+        after.put(4242L, after.get(4242L) + 1);
+
+        ContactFingerprints.Diff diff = ContactFingerprints.of(before).diff(ContactFingerprints.of(after));
+
+        assertEquals(Collections.singleton(100000L), diff.getAdded());
+        assertEquals(Collections.singleton(17L), diff.getRemoved());
+        assertEquals(Collections.singleton(4242L), diff.getChanged());
+        // only the differing buckets are compared, a few hundred hashes instead of 30k.
+        assertTrue(diff.getComparedHashes() < 1000);
+    }
+
+    @Test
+    public void diffOfEmptySnapshots() {
+        Map<Long, Long> hashes = snapshot(100);
+        ContactFingerprints empty = ContactFingerprints.of(new HashMap<Long, Long>());
+
+        assertEquals(hashes.keySet(), empty.diff(ContactFingerprints.of(hashes)).getAdded());
+        assertEquals(hashes.keySet(), ContactFingerprints.of(hashes).diff(empty).getRemoved());
+        assertTrue(empty.diff(empty).isEmpty());
+    }
+
+    @Test
+    public void edgeKeysAreInTheirBuckets() {
+        Map<Long, Long> hashes = snapshot(1000);
+        for (long id : new long[]{FIRST_ID, LAST_ID, LAST_POSITIVE_ID, FIRST_NEGATIVE_ID}) {
+            hashes.put(id, id);
+        }
+
+        ContactFingerprints fingerprints = ContactFingerprints.of(hashes);
+
+        assertBucket(fingerprints, 0L, FIRST_ID);
+        assertBucket(fingerprints, -1L, LAST_ID);
+        assertBucket(fingerprints, Long.MAX_VALUE, LAST_POSITIVE_ID);
+        assertBucket(fingerprints, Long.MIN_VALUE, FIRST_NEGATIVE_ID);
+        assertEquals(0, fingerprints.getCount(ContactFingerprints.MAX_DEPTH, 1L));
+        assertEquals(0, fingerprints.getCount(ContactFingerprints.MAX_DEPTH, -2L));
+
+        // buckets of a prefix depth are ordered by the unsigned hashed id.
+        assertTrue(fingerprints.getContentHashes(1, 0).containsKey(FIRST_ID));
+        assertTrue(fingerprints.getContentHashes(1, 7).containsKey(LAST_POSITIVE_ID));
+        assertTrue(fingerprints.getContentHashes(1, 8).containsKey(FIRST_NEGATIVE_ID));
+        assertTrue(fingerprints.getContentHashes(1, 15).containsKey(LAST_ID));
+    }
+
+    @Test
+    public void findsChangesAtEdgeKeys() {
+        Map<Long, Long> before = snapshot(30000);
+        before.put(FIRST_ID, 1L);
+        before.put(LAST_ID, 1L);
+        before.put(LAST_POSITIVE_ID, 1L);
+        Map<Long, Long> after = new HashMap<>(before);
+        after.put(FIRST_ID, 2L);
+        after.put(LAST_ID, 2L);
+        after.remove(LAST_POSITIVE_ID);
+        after.put(FIRST_NEGATIVE_ID, 1L);
+
+        ContactFingerprints.Diff diff = ContactFingerprints.of(before).diff(ContactFingerprints.of(after));
+
+        assertEquals(Collections.singleton(FIRST_NEGATIVE_ID), diff.getAdded());
+        assertEquals(Collections.singleton(LAST_POSITIVE_ID), diff.getRemoved());
+        assertEquals(new HashSet<>(Arrays.asList(FIRST_ID, LAST_ID)), diff.getChanged());
+    }
+
+    @Test
+    public void childHashesSumToTheirBucket() {
+        ContactFingerprints fingerprints = ContactFingerprints.of(snapshot(5000));
+
+        for (int depth = 0; depth < 3; depth++) {
+            long hashSum = 0;
+            int count = 0;
+            for (long index = 0; index < 1L << (4 * depth); index++) {
+                hashSum += fingerprints.getHash(depth, index);
+                count += fingerprints.getCount(depth, index);
+            }
+
+            assertEquals(fingerprints.getRootHash(), hashSum);
+            assertEquals(5000, count);
+        }
+
+        long[] children = fingerprints.getChildHashes(1, 3);
+        long sum = 0;
+        for (long child : children) {
+            sum += child;
+        }
+
+        assertEquals(fingerprints.getHash(1, 3), sum);
+    }
+
+    @Test
+    public void contentChangesOfContacts() {
+        Contact first = new Contact().addDisplayName("Jane Doe");
+        first.setId(1L);
+        Contact second = new Contact().addDisplayName("John Doe");
+        second.setId(2L);
+        Contact renamed = new Contact().addDisplayName("John Smith");
+        renamed.setId(2L);
+
+        ContactFingerprints.Diff diff = ContactFingerprints.of(Arrays.asList(first, second))
+                .diff(ContactFingerprints.of(Arrays.asList(first, renamed)));
+
+        assertEquals(Collections.singleton(2L), diff.getChanged());
+        assertEquals(1, ContactFingerprints.of(Arrays.asList(first, second))
+                .diff(ContactFingerprints.of(Arrays.asList(second, first))).getComparedHashes());
+    }
+
+    @Test
+    public void editedCopiesHaveTheirOwnDerivedValues() {
+        Contact contact = new Contact().addDisplayName("Jane Doe");
+        contact.setId(1L);
+        long contentHash = contact.getContentHash();
+        String section = contact.getSection();
+        contact.getCollationKey();
+
+        Contact edited = new Contact.Builder(contact).setDisplayName("Zoe Doe").build();
+
+        assertEquals(contentHash, new Contact.Builder(contact).build().getContentHash());
+        assertFalse(contentHash == edited.getContentHash());
+        assertEquals("J", section);
+        assertEquals("Z", edited.getSection());
+        assertEquals("Zoe Doe", edited.getCollationKey().getSourceString());
+        assertEquals(Collections.singleton(1L), ContactFingerprints.of(Collections.singletonList(contact))
+                .diff(ContactFingerprints.of(Collections.singletonList(edited))).getChanged());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsContactsWithoutId() {
+        ContactFingerprints.of(Collections.singletonList(new Contact().addDisplayName("Jane Doe")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void maxDepthBucketsHaveNoChildren() {
+        ContactFingerprints.of(snapshot(10)).getChildHashes(ContactFingerprints.MAX_DEPTH, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsIndexOutsideDepth() {
+        ContactFingerprints.of(snapshot(10)).getHash(1, 16);
+    }
+
+    private static void assertBucket(ContactFingerprints fingerprints, long index, long id) {
+        assertEquals(1, fingerprints.getCount(ContactFingerprints.MAX_DEPTH, index));
+        assertEquals(Collections.singletonMap(id, id),
+                fingerprints.getContentHashes(ContactFingerprints.MAX_DEPTH, index));
+    }
+
+    private static Map<Long, Long> snapshot(int size) {
+        Random random = new Random(size);
+        Map<Long, Long> hashes = new HashMap<>();
+        for (long id = 1; id <= size; id++) {
+            hashes.put(id, random.nextLong());
+        }
+
+        return hashes;
+    }
+
+    // the inverse of ContentHash.mix(), to find the ids of given hashed ids.
+    private static long unmix(long value) {
+        value = unshift(value, 31);
+        value = unshift(value * inverse(0x94d049bb133111ebL), 27);
+        return unshift(value * inverse(0xbf58476d1ce4e5b9L), 30);
+    }
+
+    private static long unshift(long value, int shift) {
+        long result = value;
+        for (int i = shift; i < 64; i += shift) {
+            result = value ^ (result >>> shift);
+        }
+
+        return result;
+    }
+
+    private static long inverse(long odd) {
+        long inverse = odd;
+        for (int i = 0; i < 5; i++) {
+            inverse *= 2 - odd * inverse;
+        }
+
+        return inverse;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.tamir7.contacts;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DuplicateFinderTest {
+    @Test
+    public void sharedEmailIsDuplicate() {
+        Contact first = contact("Jane Doe", "jane@example.com");
+        Contact second = contact("J. Doe", " JANE@example.com");
+
+        List<DuplicateFinder.Cluster> clusters = new DuplicateFinder().find(Arrays.asList(first, second));
+
+        assertEquals(1, clusters.size());
+        assertEquals(Arrays.asList(first, second), clusters.get(0).getContacts());
+        assertEquals(0.6f, clusters.get(0).getScore(), 0.001f);
+    }
+
+    @Test
+    public void nameAloneIsBelowDefaultThreshold() {
+        List<Contact> contacts = Arrays.asList(contact("Jane Doe", null), contact("Doe, Jane", null));
+
+        assertTrue(new DuplicateFinder().find(contacts).isEmpty());
+        assertEquals(1, new DuplicateFinder().setThreshold(0.4f).find(contacts).size());
+    }
+
+    @Test
+    public void nameIgnoresAccentsCaseAndWordOrder() {
+        List<Contact> contacts = Arrays.asList(contact("José Núñez", "a@example.com"),
+                contact("nunez jose", "b@example.com"));
+
+        assertEquals(1, new DuplicateFinder().setThreshold(0.4f).find(contacts).size());
+    }
+
+    @Test
+    public void evidenceIsCombined() {
+        List<Contact> contacts = Arrays.asList(contact("Jane Doe", "jane@example.com"),
+                contact("Jane Doe", "jane@example.com"));
+
+        List<DuplicateFinder.Cluster> clusters = new DuplicateFinder().find(contacts);
+
+        assertEquals(1, clusters.size());
+        assertEquals(1 - 0.4f * 0.6f, clusters.get(0).getScore(), 0.001f);
+    }
+
+    @Test
+    public void clustersAreTransitive() {
+        Contact first = contact("A", "one@example.com");
+        Contact second = contact("B", "one@example.com").addEmail(new Email("two@example.com", Email.Type.WORK));
+        Contact third = contact("C", "two@example.com");
+        Contact other = contact("D", "three@example.com");
+
+        List<DuplicateFinder.Cluster> clusters =
+                new DuplicateFinder().find(Arrays.asList(first, other, second, third));
+
+        assertEquals(1, clusters.size());
+        assertEquals(Arrays.asList(first, second, third), clusters.get(0).getContacts());
+    }
+
+    @Test
+    public void largeBlocksAreSkipped() {
+        List<Contact> contacts = new ArrayList<>();
+        for (int i = 0; i < 51; i++) {
+            contacts.add(contact("John Smith", null));
+        }
+
+        DuplicateFinder finder = new DuplicateFinder().setThreshold(0.4f);
+        assertTrue(finder.find(contacts).isEmpty());
+        assertEquals(1, finder.setMaxBlockSize(51).find(contacts).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsZeroThreshold() {
+        new DuplicateFinder().setThreshold(0);
+    }
+
+    // 50k contacts with common names and 500 planted duplicates, about a second on a desktop JVM.
+    @Test(timeout = 10000)
+    public void findsDuplicatesIn50kContacts() {
+        Random random = new Random(42);
+        List<Contact> contacts = new ArrayList<>();
+        for (int i = 0; i < 50000; i++) {
+            String name = "Given" + random.nextInt(200) + " Family" + random.nextInt(500);
+            contacts.add(contact(name, "user" + i + "@example.com"));
+        }
+
+        for (int i = 0; i < 500; i++) {
+            contacts.add(contact("Other" + i, "user" + (i * 100) + "@example.com"));
+        }
+
+        List<DuplicateFinder.Cluster> clusters = new DuplicateFinder().find(contacts);
+
+        assertEquals(500, clusters.size());
+        for (DuplicateFinder.Cluster cluster : clusters) {
+            assertEquals(2, cluster.getContacts().size());
+        }
+    }
+
+    private static Contact contact(String displayName, String email) {
+        Contact contact = new Contact().addDisplayName(displayName);
+        if (email != null) {
+            contact.addEmail(new Email(email, Email.Type.HOME));
+        }
+
+        return contact;
+    }
+}
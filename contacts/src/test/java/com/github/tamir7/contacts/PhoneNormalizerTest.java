@@ -0,0 +1,98 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.tamir7.contacts;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class PhoneNormalizerTest {
+    private final PhoneNormalizer us = new PhoneNormalizer("us");
+    private final PhoneNormalizer gb = new PhoneNormalizer("GB");
+
+    @Test
+    public void nationalNumbers() {
+        assertEquals("+12125551234", us.normalize("(212) 555-1234"));
+        assertEquals("+12125551234", us.normalize("1-212-555-1234"));
+        assertEquals("+442079460000", gb.normalize("020 7946 0000"));
+    }
+
+    @Test
+    public void internationalNumbers() {
+        assertEquals("+12125551234", gb.normalize("+1 212 555 1234"));
+        assertEquals("+33123456789", us.normalize("+33 1 23 45 67 89"));
+    }
+
+    @Test
+    public void trunkPrefixAfterCallingCode() {
+        assertEquals("+442079460000", us.normalize("+44 (0)20 7946 0000"));
+        assertEquals("+442079460000", gb.normalize("+44 (0)20 7946 0000"));
+    }
+
+    @Test
+    public void internationalPrefixes() {
+        assertEquals("+442079460000", us.normalize("011 44 20 7946 0000"));
+        assertEquals("+4930123456", gb.normalize("0049 30 123456"));
+        assertEquals("+12125551234", gb.normalize("00 1 212 555 1234"));
+    }
+
+    @Test
+    public void extensions() {
+        assertEquals("+12125551234", us.normalize("212-555-1234 x12"));
+        assertEquals("+12125551234", us.normalize("212-555-1234 ext. 12"));
+        assertEquals("+12125551234", us.normalize("212-555-1234;12"));
+        assertEquals("+12125551234", us.normalize("212-555-1234,12"));
+        assertNull(us.normalize("x12"));
+    }
+
+    @Test
+    public void ambiguousLocalNumbers() {
+        assertNull(us.normalize("555-1234"));
+        assertNull(gb.normalize("7946 0000"));
+    }
+
+    @Test
+    public void withoutDefaultRegionOnlyInternationalNumbers() {
+        PhoneNormalizer normalizer = new PhoneNormalizer(null);
+
+        assertNull(normalizer.normalize("(212) 555-1234"));
+        assertEquals("+12125551234", normalizer.normalize("+1 212 555 1234"));
+    }
+
+    @Test
+    public void unknownCallingCode() {
+        assertEquals("+9991234567", us.normalize("+999 1234567"));
+    }
+
+    @Test
+    public void invalidNumbers() {
+        assertNull(us.normalize(null));
+        assertNull(us.normalize("1-800-FLOWERS"));
+        assertNull(us.normalize("+1 212"));
+        assertNull(us.normalize("+1234567890123456"));
+    }
+
+    @Test
+    public void repeatedNumbersGiveTheSameResult() {
+        assertNull(us.normalize("555-1234"));
+        assertNull(us.normalize("555-1234"));
+        assertEquals("+12125551234", us.normalize("212 555 1234"));
+        assertEquals("+12125551234", us.normalize("212 555 1234"));
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2016 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.tamir7.contacts;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class QueryTest {
+    private final Condition phone = Condition.equalTo(Contact.Field.PhoneNumber, 5551234);
+    private final Condition phoneType = Condition.equalTo(Contact.Field.PhoneType, 2);
+    private final Condition event = Condition.equalTo(Contact.Field.EventType, 3);
+    private final Condition starred = Condition.equalTo(Contact.Field.Starred, 1);
+
+    @Test
+    public void whereOrderDoesNotChangeFingerprint() {
+        String fingerprint = newQuery().where(phone).where(event).where(phoneType).fingerprint();
+
+        assertEquals(fingerprint, newQuery().where(phoneType).where(phone).where(event).fingerprint());
+        assertEquals(fingerprint, newQuery().where(Condition.and(event, phoneType)).where(phone).fingerprint());
+    }
+
+    @Test
+    public void orGroupingDoesNotChangeFingerprint() {
+        String fingerprint = newQuery().where(Condition.or(Condition.or(phone, event), starred)).fingerprint();
+
+        assertEquals(fingerprint,
+                newQuery().where(Condition.or(starred, Condition.or(event, phone))).fingerprint());
+        assertEquals(fingerprint, newQuery().where(Condition.or(phone, event, starred)).fingerprint());
+    }
+
+    @Test
+    public void singleOperandsDoNotChangeFingerprint() {
+        assertEquals(newQuery().where(phone).fingerprint(), newQuery().where(Condition.or(phone)).fingerprint());
+    }
+
+    @Test
+    public void includeOrderDoesNotChangeFingerprint() {
+        assertEquals(newQuery().include(Contact.Field.DisplayName, Contact.Field.PhoneNumber).fingerprint(),
+                newQuery().include(Contact.Field.PhoneNumber, Contact.Field.DisplayName).fingerprint());
+    }
+
+    @Test
+    public void differentQueriesHaveDifferentFingerprints() {
+        String and = newQuery().where(Condition.and(phone, event)).fingerprint();
+
+        assertFalse(and.equals(newQuery().where(Condition.or(phone, event)).fingerprint()));
+        assertFalse(and.equals(newQuery().where(phone).fingerprint()));
+        assertFalse(newQuery().where(Condition.or(Condition.and(phone, event), starred)).fingerprint().equals(
+                newQuery().where(Condition.and(phone, Condition.or(event, starred))).fingerprint()));
+        assertFalse(newQuery().fingerprint().equals(
+                newQuery().orderBy(Contact.Field.DisplayName, Query.Order.ASCENDING).fingerprint()));
+    }
+
+    private static Query newQuery() {
+        return new Query(null, null, null, null, null, null);
+    }
+}
@@ -0,0 +1,47 @@
+package com.github.tamir7.contacts.sample;
+
+import android.util.Log;
+
+import com.github.tamir7.contacts.Contacts;
+import com.github.tamir7.contacts.Query;
+import com.github.tamir7.contacts.QueryStats;
+
+/**
+ * Compares the data read from the contacts provider by find() with a single wide projection,
+ * with one narrow projection per MIME type and with paged queries.
+ */
+class ProjectionBenchmark {
+    private static final String TAG = ProjectionBenchmark.class.getSimpleName();
+    private static final int ITERATIONS = 5;
+
+    void run() {
+        QueryStats wide = measure(false, false);
+        QueryStats narrow = measure(true, false);
+        QueryStats paged = measure(false, true);
+        Log.i(TAG, "wide projection:   " + wide + ", rows per window " + wide.getRowsPerWindow());
+        Log.i(TAG, "narrow projection: " + narrow + ", rows per window " + narrow.getRowsPerWindow());
+        Log.i(TAG, "paged:             " + paged + ", rows per window " + paged.getRowsPerWindow());
+        if (wide.getEstimatedBytes() > 0) {
+            Log.i(TAG, String.format("narrow projection reads %.1f%% of the bytes per find()",
+                    100.0 * narrow.getEstimatedBytes() / wide.getEstimatedBytes()));
+        }
+    }
+
+    private QueryStats measure(boolean narrowProjection, boolean paged) {
+        QueryStats stats = new QueryStats();
+        for (int i = 0; i < ITERATIONS; i++) {
+            Query q = Contacts.getQuery().collectStats(stats);
+            if (narrowProjection) {
+                q.narrowProjection();
+            }
+
+            if (paged) {
+                q.paged();
+            }
+
+            q.find();
+        }
+
+        return stats;
+    }
+}
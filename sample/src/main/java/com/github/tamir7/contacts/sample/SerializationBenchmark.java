@@ -0,0 +1,109 @@
+package com.github.tamir7.contacts.sample;
+
+import android.os.Parcel;
+import android.util.Log;
+
+import com.github.tamir7.contacts.Address;
+import com.github.tamir7.contacts.Contact;
+import com.github.tamir7.contacts.ContactCodec;
+import com.github.tamir7.contacts.Email;
+import com.github.tamir7.contacts.Event;
+import com.github.tamir7.contacts.PhoneNumber;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares serializing a list of 10k contacts with Gson, with Parcelable and with ContactCodec.
+ */
+class SerializationBenchmark {
+    private static final String TAG = SerializationBenchmark.class.getSimpleName();
+    private static final int CONTACTS = 10000;
+    private static final int ITERATIONS = 3;
+
+    void run() {
+        List<Contact> contacts = createContacts();
+        try {
+            // the first iterations warm up the code paths.
+            for (int i = 0; i < ITERATIONS; i++) {
+                measureGson(contacts, i == ITERATIONS - 1);
+                measureParcel(contacts, i == ITERATIONS - 1);
+                measureCodec(contacts, i == ITERATIONS - 1);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to decode contacts", e);
+        }
+    }
+
+    private void measureGson(List<Contact> contacts, boolean log) {
+        Gson gson = new Gson();
+        Type type = new TypeToken<List<Contact>>() {}.getType();
+        long start = System.nanoTime();
+        String json = gson.toJson(contacts);
+        long encoded = System.nanoTime();
+        gson.fromJson(json, type);
+        long decoded = System.nanoTime();
+        if (log) {
+            log("gson", json.length(), start, encoded, decoded);
+        }
+    }
+
+    private void measureParcel(List<Contact> contacts, boolean log) {
+        Parcel parcel = Parcel.obtain();
+        long start = System.nanoTime();
+        parcel.writeTypedList(contacts);
+        byte[] bytes = parcel.marshall();
+        long encoded = System.nanoTime();
+        parcel.recycle();
+
+        parcel = Parcel.obtain();
+        parcel.unmarshall(bytes, 0, bytes.length);
+        parcel.setDataPosition(0);
+        parcel.createTypedArrayList(Contact.CREATOR);
+        long decoded = System.nanoTime();
+        parcel.recycle();
+        if (log) {
+            log("parcel", bytes.length, start, encoded, decoded);
+        }
+    }
+
+    private void measureCodec(List<Contact> contacts, boolean log) throws IOException {
+        long start = System.nanoTime();
+        byte[] bytes = ContactCodec.encode(contacts);
+        long encoded = System.nanoTime();
+        ContactCodec.decode(bytes);
+        long decoded = System.nanoTime();
+        if (log) {
+            log("codec", bytes.length, start, encoded, decoded);
+        }
+    }
+
+    private static void log(String name, int size, long start, long encoded, long decoded) {
+        Log.i(TAG, String.format("%-6s %8d bytes, encode %4dms, decode %4dms", name, size,
+                (encoded - start) / 1000000, (decoded - encoded) / 1000000));
+    }
+
+    private static List<Contact> createContacts() {
+        List<Contact> contacts = new ArrayList<>(CONTACTS);
+        for (int i = 0; i < CONTACTS; i++) {
+            contacts.add(new Contact.Builder()
+                    .setDisplayName("Contact " + i)
+                    .setGivenName("Contact")
+                    .setFamilyName(String.valueOf(i))
+                    .addPhoneNumber(new PhoneNumber("+1 555 01" + i, PhoneNumber.Type.MOBILE))
+                    .addPhoneNumber(new PhoneNumber("+1 555 02" + i, "Cabin"))
+                    .addEmail(new Email("contact" + i + "@example.com", Email.Type.WORK))
+                    .addEvent(new Event("--01-" + (10 + i % 20), Event.Type.BIRTHDAY))
+                    .addAddress(new Address(i + " Main St, Springfield", i + " Main St", "Springfield", "IL",
+                            "62701", "USA", Address.Type.HOME))
+                    .setCompanyName("Example Inc.")
+                    .build());
+        }
+
+        return contacts;
+    }
+}
@@ -0,0 +1,39 @@
+package com.github.tamir7.contacts.sample;
+
+import android.util.Log;
+
+import com.github.tamir7.contacts.Condition;
+import com.github.tamir7.contacts.Contact;
+
+/**
+ * Measures building and rendering the selection of conditions with many predicates,
+ * as generated by bulk filters.
+ */
+class WhereBenchmark {
+    private static final String TAG = WhereBenchmark.class.getSimpleName();
+    private static final int ITERATIONS = 20;
+    private static final int[] SIZES = {10, 100, 1000};
+
+    void run() {
+        for (int size : SIZES) {
+            // the first iterations warm up the code paths.
+            measure(size);
+            long nanos = measure(size);
+            Log.i(TAG, String.format("%d predicates: %.1fus per condition", size, nanos / 1000.0 / ITERATIONS));
+        }
+    }
+
+    private long measure(int size) {
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            Condition[] conditions = new Condition[size];
+            for (int j = 0; j < size; j++) {
+                conditions[j] = Condition.equalTo(Contact.Field.PhoneNumber, "+1555000" + j);
+            }
+
+            Condition.or(conditions).toString();
+        }
+
+        return System.nanoTime() - start;
+    }
+}